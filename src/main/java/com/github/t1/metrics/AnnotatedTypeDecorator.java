@@ -0,0 +1,45 @@
+package com.github.t1.metrics;
+
+import javax.enterprise.inject.spi.*;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.*;
+
+/** An {@link AnnotatedType} with an additional annotation on the type */
+class AnnotatedTypeDecorator<X> implements AnnotatedType<X> {
+    private final AnnotatedType<X> delegate;
+    private final Annotation annotation;
+    private final Set<Annotation> annotations;
+
+    AnnotatedTypeDecorator(AnnotatedType<X> delegate, Annotation annotation) {
+        this.delegate = delegate;
+        this.annotation = annotation;
+        Set<Annotation> annotations = new HashSet<>(delegate.getAnnotations());
+        annotations.add(annotation);
+        this.annotations = Collections.unmodifiableSet(annotations);
+    }
+
+    @Override public Class<X> getJavaClass() { return delegate.getJavaClass(); }
+
+    @Override public Set<AnnotatedConstructor<X>> getConstructors() { return delegate.getConstructors(); }
+
+    @Override public Set<AnnotatedMethod<? super X>> getMethods() { return delegate.getMethods(); }
+
+    @Override public Set<AnnotatedField<? super X>> getFields() { return delegate.getFields(); }
+
+    @Override public Type getBaseType() { return delegate.getBaseType(); }
+
+    @Override public Set<Type> getTypeClosure() { return delegate.getTypeClosure(); }
+
+    @Override public <T extends Annotation> T getAnnotation(Class<T> annotationType) {
+        return annotationType.isInstance(annotation)
+                ? annotationType.cast(annotation)
+                : delegate.getAnnotation(annotationType);
+    }
+
+    @Override public Set<Annotation> getAnnotations() { return annotations; }
+
+    @Override public boolean isAnnotationPresent(Class<? extends Annotation> annotationType) {
+        return annotationType.isInstance(annotation) || delegate.isAnnotationPresent(annotationType);
+    }
+}
@@ -0,0 +1,24 @@
+package com.github.t1.metrics;
+
+import javax.enterprise.util.AnnotationLiteral;
+import javax.interceptor.InterceptorBinding;
+import java.lang.annotation.*;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.*;
+
+/**
+ * Binds the {@link AsyncTrackedInterceptor}. The {@link MetricsExtension} adds it to all JAX-RS resources with a
+ * <code>@Suspended AsyncResponse</code> parameter, so you don't have to.
+ */
+@InterceptorBinding
+@Retention(RUNTIME)
+@Target({ TYPE, METHOD })
+public @interface AsyncTracked {
+    @SuppressWarnings("ClassExplicitlyAnnotation")
+    class Literal extends AnnotationLiteral<AsyncTracked> implements AsyncTracked {
+        private static final long serialVersionUID = 1L;
+
+        public static final AsyncTracked INSTANCE = new Literal();
+    }
+}
@@ -0,0 +1,48 @@
+package com.github.t1.metrics;
+
+import javax.annotation.Priority;
+import javax.enterprise.context.ContextNotActiveException;
+import javax.inject.Inject;
+import javax.interceptor.*;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.container.*;
+
+import static javax.interceptor.Interceptor.Priority.*;
+
+/**
+ * Wraps the {@link AsyncResponse} parameters of the resource method in a {@link TrackedAsyncResponse}, so the
+ * {@link JaxRsBinding} knows about timeouts and cancellations. The {@link JaxRsBinding} request filter hands over the
+ * request as a request property, which a servlet container keeps as an attribute of the servlet request, so nothing
+ * is left behind on the thread when the interceptor doesn't run, e.g. for resources that are no CDI beans.
+ */
+@AsyncTracked
+@Interceptor
+@Priority(LIBRARY_BEFORE)
+public class AsyncTrackedInterceptor {
+    @Inject HttpServletRequest servletRequest;
+
+    @AroundInvoke
+    public Object aroundInvoke(InvocationContext context) throws Exception {
+        Object[] parameters = context.getParameters();
+        for (int i = 0; i < parameters.length; i++) {
+            if (parameters[i] instanceof AsyncResponse && !(parameters[i] instanceof TrackedAsyncResponse)) {
+                ContainerRequestContext request = request();
+                if (request != null) {
+                    parameters[i] = new TrackedAsyncResponse((AsyncResponse) parameters[i], request);
+                    context.setParameters(parameters);
+                }
+                break;
+            }
+        }
+        return context.proceed();
+    }
+
+    /** @return <code>null</code> if not called for a http request, or the request filter didn't run */
+    private ContainerRequestContext request() {
+        try {
+            return (ContainerRequestContext) servletRequest.getAttribute(TrackedAsyncResponse.REQUEST);
+        } catch (ContextNotActiveException e) {
+            return null;
+        }
+    }
+}
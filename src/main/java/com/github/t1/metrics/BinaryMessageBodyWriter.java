@@ -0,0 +1,158 @@
+package com.github.t1.metrics;
+
+import com.codahale.metrics.Metric;
+import lombok.*;
+
+import javax.ws.rs.*;
+import javax.ws.rs.core.*;
+import javax.ws.rs.ext.*;
+import java.io.*;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.*;
+
+import static com.github.t1.metrics.BinaryMessageBodyWriter.*;
+import static com.github.t1.metrics.MetricsYamlMessageBodyWriter.*;
+import static java.nio.charset.StandardCharsets.*;
+
+/**
+ * Writes the metrics in a compact binary format for machine scrapers:
+ * <ul>
+ * <li>the magic bytes <code>MEE</code> and the format version <code>1</code>,</li>
+ * <li>the number of metrics as var-long,</li>
+ * <li>for every metric, sorted by name:
+ * <ul>
+ * <li>the name, front coded: the number of chars shared with the previous name as var-long, then the number of
+ * bytes of the rest as var-long, and the rest in UTF-8,</li>
+ * <li>a var-long bit mask of the attributes that follow, with bit <i>n</i> for the
+ * {@link MetricAttributes#NAMES attribute <i>n</i>},</li>
+ * <li>the attributes: <code>count</code>, <code>min</code>, and <code>max</code> as var-long; <code>value</code>
+ * with a tag byte: 0 for <code>null</code>, 1 for an integral var-long, 2 for a double, 3 for <code>false</code>, 4
+ * for <code>true</code>, and 5 for a string; all others as double.</li>
+ * </ul>
+ * </li>
+ * </ul>
+ * A var-long is a zigzag encoded, unsigned LEB128; a double is 8 bytes big endian IEEE 754; a string is its number of
+ * UTF-8 bytes as var-long, followed by those bytes. The names are encoded once per set of names, and the last few
+ * sets are kept in a {@link LayoutCache}.
+ */
+@Provider
+@Produces(APPLICATION_METRICS_BINARY)
+public class BinaryMessageBodyWriter implements MessageBodyWriter<SortedMap<String, Metric>> {
+    public static final String APPLICATION_METRICS_BINARY = "application/vnd.metrics-ee.v1";
+    public static final MediaType APPLICATION_METRICS_BINARY_TYPE = MediaType.valueOf(APPLICATION_METRICS_BINARY);
+
+    static final byte[] MAGIC = { 'M', 'E', 'E', 1 };
+
+    static final int NULL = 0;
+    static final int LONG = 1;
+    static final int DOUBLE = 2;
+    static final int FALSE = 3;
+    static final int TRUE = 4;
+    static final int STRING = 5;
+
+    private final LayoutCache<Names> names = new LayoutCache<>(
+            metrics -> new Names(metrics.keySet()), (names, metrics) -> names.matches(metrics.keySet()));
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return METRICS_MAP.getType().equals(genericType) && mediaType.isCompatible(APPLICATION_METRICS_BINARY_TYPE);
+    }
+
+    @Override
+    public long getSize(SortedMap<String, Metric> r, Class<?> c, Type g, Annotation[] a, MediaType t) { return -1; }
+
+    @Override
+    public void writeTo(SortedMap<String, Metric> metrics, Class<?> type, Type genericType, Annotation[] annotations,
+            MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream)
+            throws IOException, WebApplicationException {
+        Names names = this.names.get(metrics);
+        Utf8Sink sink = Utf8Sink.of(entityStream);
+        sink.write(MAGIC).writeVarLong(metrics.size());
+        AttributeWriter attributes = new AttributeWriter(sink);
+        int i = 0;
+        for (Metric metric : metrics.values()) {
+            sink.write(names.encoded[i++]).writeVarLong(mask(metric));
+            MetricAttributes.visit(metric, attributes);
+        }
+        sink.flush();
+    }
+
+    private static long mask(Metric metric) {
+        long mask = 0;
+        for (int i = 0; i < MetricAttributes.NAMES.size(); i++)
+            if (MetricAttributes.has(metric, MetricAttributes.NAMES.get(i)))
+                mask |= 1L << i;
+        return mask;
+    }
+
+    /** The front coded names, prepared for one sorted set of names */
+    private static class Names {
+        private final String[] names;
+        private final byte[][] encoded;
+
+        @SneakyThrows(IOException.class)
+        private Names(Set<String> names) {
+            this.names = names.toArray(new String[0]);
+            this.encoded = new byte[this.names.length][];
+            String previous = "";
+            for (int i = 0; i < this.names.length; i++) {
+                String name = this.names[i];
+                int shared = sharedPrefix(previous, name);
+                byte[] rest = name.substring(shared).getBytes(UTF_8);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                new Utf8Sink(16).reset(out).writeVarLong(shared).writeVarLong(rest.length).write(rest).flush();
+                this.encoded[i] = out.toByteArray();
+                previous = name;
+            }
+        }
+
+        private static int sharedPrefix(String previous, String name) {
+            int max = Math.min(previous.length(), name.length());
+            int shared = 0;
+            while (shared < max && previous.charAt(shared) == name.charAt(shared))
+                shared++;
+            if (shared > 0 && Character.isHighSurrogate(name.charAt(shared - 1)))
+                shared--; // don't split a surrogate pair
+            return shared;
+        }
+
+        private boolean matches(Set<String> names) {
+            if (names.size() != this.names.length)
+                return false;
+            int i = 0;
+            for (String name : names)
+                if (!name.equals(this.names[i++]))
+                    return false;
+            return true;
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static class AttributeWriter implements MetricAttributes.Visitor {
+        private final Utf8Sink out;
+
+        @SneakyThrows(IOException.class)
+        @Override public void attribute(String name, Object value) {
+            if (value == null) {
+                out.writeByte(NULL);
+            } else if (value instanceof Long || value instanceof Integer
+                    || value instanceof Short || value instanceof Byte) {
+                out.writeByte(LONG).writeVarLong(((Number) value).longValue());
+            } else if (value instanceof Number) {
+                out.writeByte(DOUBLE).writeBinary(((Number) value).doubleValue());
+            } else if (value instanceof Boolean) {
+                out.writeByte((Boolean) value ? TRUE : FALSE);
+            } else {
+                byte[] bytes = value.toString().getBytes(UTF_8);
+                out.writeByte(STRING).writeVarLong(bytes.length).write(bytes);
+            }
+        }
+
+        @SneakyThrows(IOException.class)
+        @Override public void attribute(String name, long value) { out.writeVarLong(value); }
+
+        @SneakyThrows(IOException.class)
+        @Override public void attribute(String name, double value) { out.writeBinary(value); }
+    }
+}
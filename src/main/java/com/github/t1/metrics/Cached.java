@@ -0,0 +1,24 @@
+package com.github.t1.metrics;
+
+import java.lang.annotation.*;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.*;
+
+/**
+ * Marks a {@link com.codahale.metrics.Gauge} bean as expensive, so its value is computed at most once per
+ * {@link #ttl()}, no matter how many scrapers read it; see {@link CachingGauge}.
+ */
+@Inherited
+@Documented
+@Retention(RUNTIME)
+@Target(TYPE)
+public @interface Cached {
+    long ttl();
+
+    TimeUnit unit() default TimeUnit.SECONDS;
+
+    /** Refresh the value every ttl in the background, instead of when it's read after the ttl is over */
+    boolean background() default false;
+}
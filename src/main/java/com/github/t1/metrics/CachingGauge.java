@@ -0,0 +1,122 @@
+package com.github.t1.metrics;
+
+import com.codahale.metrics.*;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.util.concurrent.TimeUnit.*;
+
+/**
+ * Caches the value of an expensive {@link Gauge} for a time to live. When the value is read after the ttl is over,
+ * the first reader computes it while the others wait for that result, so concurrent scrapers cause only one
+ * computation. In the <code>background</code> mode, the value is refreshed every ttl on an executor instead, and
+ * readers get the latest value without waiting (except for the very first one).
+ * <p>
+ * The {@link #getAgeMillis() age} of the value is exposed as an additional gauge named <code>NAME|age</code>.
+ */
+@Slf4j
+public class CachingGauge<T> implements Gauge<T> {
+    private static class Entry<T> {
+        private final T value;
+        private final long computedAt;
+
+        private Entry(T value, long computedAt) {
+            this.value = value;
+            this.computedAt = computedAt;
+        }
+    }
+
+    public static final String AGE = "|age";
+
+    private final Gauge<T> gauge;
+    private final long ttlNanos;
+    private final boolean background;
+    private final Clock clock;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private volatile Entry<T> entry;
+    private ScheduledFuture<?> refresher;
+
+    public CachingGauge(Gauge<T> gauge, long ttl, TimeUnit unit, boolean background) {
+        this(gauge, ttl, unit, background, Clock.defaultClock());
+    }
+
+    /** @throws IllegalArgumentException if the ttl is not positive */
+    public CachingGauge(Gauge<T> gauge, long ttl, TimeUnit unit, boolean background, Clock clock) {
+        if (ttl <= 0)
+            throw new IllegalArgumentException("the ttl of the cached gauge " + gauge.getClass().getName()
+                    + " must be positive, but is " + ttl + " " + unit);
+        this.gauge = gauge;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.background = background;
+        this.clock = clock;
+    }
+
+    public static <T> CachingGauge<T> of(Gauge<T> gauge, Cached cached) {
+        return new CachingGauge<>(gauge, cached.ttl(), cached.unit(), cached.background());
+    }
+
+    /** Start refreshing in the background, if configured so */
+    public synchronized void start(ScheduledExecutorService scheduler, Executor executor) {
+        if (!background || refresher != null)
+            return;
+        refresher = scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                executor.execute(this::refresh);
+            } catch (RejectedExecutionException e) {
+                log.debug("refreshing gauge rejected: {}", e.toString());
+            }
+        }, 0, ttlNanos, NANOSECONDS);
+    }
+
+    public synchronized void stop() {
+        if (refresher != null) {
+            refresher.cancel(false);
+            refresher = null;
+        }
+    }
+
+    @Override public T getValue() {
+        Entry<T> entry = this.entry;
+        if (entry != null && (background || isFresh(entry)))
+            return entry.value;
+        lock.lock();
+        try {
+            entry = this.entry;
+            if (entry == null || !background && !isFresh(entry))
+                entry = compute();
+            return entry.value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isFresh(Entry<T> entry) { return clock.getTick() - entry.computedAt < ttlNanos; }
+
+    /** Skipped while another thread computes the value */
+    void refresh() {
+        if (!lock.tryLock())
+            return;
+        try {
+            compute();
+        } catch (RuntimeException e) {
+            log.warn("refreshing gauge failed: {}", e.toString());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Entry<T> compute() {
+        Entry<T> entry = new Entry<>(gauge.getValue(), clock.getTick());
+        this.entry = entry;
+        return entry;
+    }
+
+    /** The time since the value was computed, or -1 if it never was */
+    public long getAgeMillis() {
+        Entry<T> entry = this.entry;
+        return (entry == null) ? -1 : NANOSECONDS.toMillis(clock.getTick() - entry.computedAt);
+    }
+}
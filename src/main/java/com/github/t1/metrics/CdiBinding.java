@@ -2,14 +2,19 @@ package com.github.t1.metrics;
 
 import com.codahale.metrics.*;
 import com.codahale.metrics.health.*;
-import com.codahale.metrics.jvm.*;
 import lombok.extern.slf4j.Slf4j;
 
 import javax.annotation.*;
+import javax.enterprise.concurrent.*;
 import javax.enterprise.inject.*;
 import javax.enterprise.inject.spi.InjectionPoint;
 import javax.inject.*;
+import java.lang.annotation.Annotation;
 import java.lang.reflect.Member;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
 
 import static java.lang.management.ManagementFactory.*;
 import static java.util.concurrent.TimeUnit.*;
@@ -17,8 +22,12 @@ import static java.util.concurrent.TimeUnit.*;
 @Slf4j
 @Singleton
 public class CdiBinding {
-    final MetricRegistry metrics = new MetricRegistry();
-    final HealthCheckRegistry healthCheckRegistry = new HealthCheckRegistry();
+    final MetricsConfig config = new MetricsConfig(System.getProperties());
+    final MetricRegistry metrics = new SortedMetricRegistry();
+    final ParallelHealthCheckRegistry healthCheckRegistry = new ParallelHealthCheckRegistry(config);
+    final Endpoints endpoints = new Endpoints(metrics, config);
+    final MetricChanges changes = new MetricChanges(metrics);
+    final MetricsStream stream = new MetricsStream(metrics, config);
 
     @Inject
     Instance<HealthCheck> healthChecks;
@@ -26,22 +35,42 @@ public class CdiBinding {
     @Inject
     Instance<Gauge> gauges;
 
-    JmxReporter jmxReporter;
+    @Inject
+    Instance<UriNormalizer> uriNormalizers;
+
+    @Resource(lookup = "java:comp/DefaultManagedScheduledExecutorService")
+    ManagedScheduledExecutorService managedScheduler;
+
+    @Resource(lookup = "java:comp/DefaultManagedExecutorService")
+    ManagedExecutorService managedExecutor;
 
+    private ScheduledExecutorService ownScheduler;
+    private ExecutorService ownExecutor;
+
+    private final List<CachingGauge<?>> cachingGauges = new ArrayList<>();
+    volatile JmxMetrics jmx;
+    private Future<?> jvmInit;
+
+    /**
+     * The JMX reporter and the {@link JvmMetricSet}s are initialized in the background, unless
+     * <code>metrics-ee.startup.async=false</code>; they can be disabled with <code>metrics-ee.jmx.enabled=false</code>
+     * and <code>metrics-ee.jvm=none</code>. The time it took is exposed as <code>metrics-ee.startup.init-millis</code>
+     * and <code>metrics-ee.startup.jvm-millis</code>. An invalid <code>metrics-ee.jvm</code> fails the deployment
+     * even when initializing in the background, while other failures there are only logged.
+     */
     @PostConstruct
     public void init() {
-        log.debug("start jmx reporter");
-        jmxReporter = JmxReporter.forRegistry(metrics).build();
-        jmxReporter.start();
+        long start = System.nanoTime();
 
         for (HealthCheck healthCheck : healthChecks) {
             String name = healthCheck.getClass().getName();
             log.debug("register health check: {}", name);
             healthCheckRegistry.register(name, healthCheck);
-            if (healthCheck instanceof Gauge) {
-                log.debug("register gauge: {}", name);
-                metrics.register(name, (Gauge) healthCheck);
-            }
+            if (healthCheck instanceof Gauge)
+                registerGauge(name, (Gauge<?>) healthCheck);
+            if (healthCheck instanceof GaugedHealthCheck)
+                ((GaugedHealthCheck) healthCheck).getWindowGauges()
+                        .forEach((suffix, gauge) -> metrics.register(name + suffix, gauge));
         }
 
         for (Gauge<?> gauge : gauges) {
@@ -49,44 +78,191 @@ public class CdiBinding {
             if (gauge instanceof HealthCheck) {
                 log.debug("gauge already registered as healthcheck: {}", name);
             } else {
-                log.debug("register gauge: {}", name);
-                metrics.register(name, gauge);
+                registerGauge(name, gauge);
             }
         }
 
-        log.debug("register jvm gauges");
-        metrics.register("jvm", new JvmAttributeGaugeSet());
-        metrics.register("jvm.class-loader", new ClassLoadingGaugeSet());
-        metrics.register("jvm.buffer-pools", new BufferPoolMetricSet(getPlatformMBeanServer()));
-        metrics.register("jvm.gc", new GarbageCollectorMetricSet());
-        metrics.register("jvm.memory", new MemoryUsageGaugeSet());
-        metrics.register("jvm.threads", new CachedThreadStatesGaugeSet(1, MINUTES));
+        for (UriNormalizer uriNormalizer : uriNormalizers) {
+            log.debug("use uri normalizer: {}", uriNormalizer.getClass().getName());
+            endpoints.setUriNormalizer(uriNormalizer);
+        }
+
+        healthCheckRegistry.start(executor(), scheduler());
+        cachingGauges.forEach(gauge -> gauge.start(scheduler(), executor()));
+        endpoints.start(scheduler());
+        stream.start(scheduler(), executor());
+
+        Set<JvmMetricSet> jvmSets = JvmMetricSet.parse(config.get("jvm", "all"));
+        if (config.getBoolean("startup.async", true))
+            jvmInit = scheduler().submit(() -> initJvm(jvmSets));
+        else
+            initJvm(jvmSets);
+
+        long millis = NANOSECONDS.toMillis(System.nanoTime() - start);
+        metrics.register("metrics-ee.startup.init-millis", (Gauge<Long>) () -> millis);
+        log.info("initialized metrics-ee in {} ms", millis);
+    }
+
+    /** Gauges annotated as {@link Cached} are wrapped in a {@link CachingGauge} and get an additional age gauge */
+    private <T> void registerGauge(String name, Gauge<T> gauge) {
+        Cached cached = gauge.getClass().getAnnotation(Cached.class);
+        if (cached == null) {
+            log.debug("register gauge: {}", name);
+            metrics.register(name, gauge);
+        } else {
+            log.debug("register gauge: {} cached for {} {}", name, cached.ttl(), cached.unit());
+            CachingGauge<T> cachingGauge = CachingGauge.of(gauge, cached);
+            metrics.register(name, cachingGauge);
+            metrics.register(name + CachingGauge.AGE, (Gauge<Long>) cachingGauge::getAgeMillis);
+            cachingGauges.add(cachingGauge);
+        }
+    }
+
+    private void initJvm(Set<JvmMetricSet> jvmSets) {
+        try {
+            long start = System.nanoTime();
+            if (config.getBoolean("jmx.enabled", true)) {
+                log.debug("start jmx reporter");
+                JmxMetrics reporter = new JmxMetrics(metrics, config, getPlatformMBeanServer());
+                reporter.start();
+                jmx = reporter;
+            }
+            for (JvmMetricSet set : jvmSets) {
+                log.debug("register jvm gauges {}", set.getPrefix());
+                metrics.register(set.getPrefix(), set.create());
+            }
+            long millis = NANOSECONDS.toMillis(System.nanoTime() - start);
+            metrics.register("metrics-ee.startup.jvm-millis", (Gauge<Long>) () -> millis);
+            log.debug("initialized jvm metrics in {} ms", millis);
+        } catch (RuntimeException e) {
+            log.error("failed to initialize jvm metrics", e);
+        }
     }
 
     @PreDestroy public void destroy() {
-        if (jmxReporter != null) {
+        if (jvmInit != null)
+            jvmInit.cancel(false);
+        endpoints.stop();
+        stream.stop();
+        cachingGauges.forEach(CachingGauge::stop);
+        healthCheckRegistry.stop();
+        JmxMetrics reporter = jmx;
+        if (reporter != null) {
             log.debug("stop jmx reporter");
-            jmxReporter.close();
+            reporter.close();
+        }
+        if (ownScheduler != null) {
+            log.debug("stop scheduler");
+            ownScheduler.shutdownNow();
+        }
+        if (ownExecutor != null) {
+            log.debug("stop executor");
+            ownExecutor.shutdownNow();
+        }
+    }
+
+    /** The container's default scheduler or, if there is none (e.g. outside of Java EE), our own */
+    synchronized ScheduledExecutorService scheduler() {
+        if (managedScheduler != null)
+            return managedScheduler;
+        if (ownScheduler == null) {
+            log.debug("start own scheduler");
+            ownScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "metrics-ee");
+                thread.setDaemon(true);
+                return thread;
+            });
         }
+        return ownScheduler;
+    }
+
+    /**
+     * The container's default executor or, if there is none, our own with <code>metrics-ee.health.threads</code>
+     * (default 4) threads; it runs the health checks, but also publishes the streams and refreshes cached gauges
+     */
+    synchronized ExecutorService executor() {
+        if (managedExecutor != null)
+            return managedExecutor;
+        if (ownExecutor == null) {
+            log.debug("start own executor");
+            ownExecutor = Executors.newFixedThreadPool(config.getInt("health.threads", 4), runnable -> {
+                Thread thread = new Thread(runnable, "metrics-ee-worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return ownExecutor;
     }
 
     @Produces public MetricRegistry produceMetricRegistry() { return metrics; }
 
     @Produces public HealthCheckRegistry produceHealthCheckRegistry() { return healthCheckRegistry; }
 
+    @Produces public MetricsConfig produceMetricsConfig() { return config; }
+
+    @Produces public Endpoints produceEndpoints() { return endpoints; }
+
+    @Produces public MetricChanges produceMetricChanges() { return changes; }
+
+    @Produces public MetricsStream produceMetricsStream() { return stream; }
+
     @Produces
     public Counter produceCounter(InjectionPoint injectionPoint) { return metrics.counter(name(injectionPoint)); }
 
     @Produces
     public Meter produceMeter(InjectionPoint injectionPoint) { return metrics.meter(name(injectionPoint)); }
 
+    @Produces
+    public Histogram produceHistogram(InjectionPoint injectionPoint) { return metrics.histogram(name(injectionPoint)); }
+
     @Produces
     public Timer produceTimer(InjectionPoint injectionPoint) { return metrics.timer(name(injectionPoint)); }
 
-    private String name(InjectionPoint injectionPoint) {
+    @Produces @MetricOptions
+    public Counter produceCounterWithOptions(InjectionPoint injectionPoint) {
+        return metrics.counter(name(injectionPoint));
+    }
+
+    @Produces @MetricOptions
+    public Meter produceMeterWithOptions(InjectionPoint injectionPoint) { return metrics.meter(name(injectionPoint)); }
+
+    @Produces @MetricOptions
+    public Histogram produceHistogramWithOptions(InjectionPoint injectionPoint) {
+        String name = name(injectionPoint);
+        try {
+            return metrics.register(name, new Histogram(reservoir(options(injectionPoint))));
+        } catch (IllegalArgumentException e) {
+            return metrics.histogram(name); // already registered
+        }
+    }
+
+    @Produces @MetricOptions
+    public Timer produceTimerWithOptions(InjectionPoint injectionPoint) {
+        String name = name(injectionPoint);
+        try {
+            return metrics.register(name, new Timer(reservoir(options(injectionPoint))));
+        } catch (IllegalArgumentException e) {
+            return metrics.timer(name); // already registered
+        }
+    }
+
+    private static Reservoir reservoir(MetricOptions options) {
+        return options.reservoir().create(options.size(), options.window(), options.unit(), options.digits());
+    }
+
+    static String name(InjectionPoint injectionPoint) {
         Member member = injectionPoint.getMember();
         Class<?> beanClass = member.getDeclaringClass();
-        String counterName = member.getName();
-        return MetricRegistry.name(beanClass, counterName);
+        MetricOptions options = options(injectionPoint);
+        if (options == null || options.name().isEmpty())
+            return MetricRegistry.name(beanClass, member.getName());
+        return options.absolute() ? options.name() : MetricRegistry.name(beanClass, options.name());
+    }
+
+    private static MetricOptions options(InjectionPoint injectionPoint) {
+        for (Annotation qualifier : injectionPoint.getQualifiers())
+            if (qualifier instanceof MetricOptions)
+                return (MetricOptions) qualifier;
+        return null;
     }
 }
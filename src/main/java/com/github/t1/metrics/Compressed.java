@@ -0,0 +1,13 @@
+package com.github.t1.metrics;
+
+import javax.ws.rs.NameBinding;
+import java.lang.annotation.*;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.*;
+
+/** Binds the {@link CompressionInterceptor} to resource methods */
+@NameBinding
+@Retention(RUNTIME)
+@Target({ TYPE, METHOD })
+public @interface Compressed {}
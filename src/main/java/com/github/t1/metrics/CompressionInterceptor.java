@@ -0,0 +1,103 @@
+package com.github.t1.metrics;
+
+import javax.ws.rs.core.*;
+import javax.ws.rs.ext.*;
+import java.io.*;
+import java.util.zip.*;
+
+import static javax.ws.rs.core.HttpHeaders.*;
+
+/**
+ * Compresses the entities of {@link Compressed} resources with <code>gzip</code> or <code>deflate</code>, if the
+ * client accepts it, while the message body writer streams them.
+ */
+@Provider
+@Compressed
+public class CompressionInterceptor implements WriterInterceptor {
+    static final String GZIP = "gzip";
+    static final String DEFLATE = "deflate";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    @Context HttpHeaders requestHeaders;
+
+    @Override public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+        String encoding = encoding(requestHeaders.getHeaderString(ACCEPT_ENCODING));
+        context.getHeaders().add(VARY, ACCEPT_ENCODING);
+        if (encoding == null) {
+            context.proceed();
+            return;
+        }
+        context.getHeaders().putSingle(CONTENT_ENCODING, encoding);
+        context.getHeaders().remove(CONTENT_LENGTH);
+
+        OutputStream original = context.getOutputStream();
+        Deflater deflater = encoding.equals(GZIP)
+                ? new Deflater(Deflater.DEFAULT_COMPRESSION, true) // gzip writes its own header
+                : new Deflater();
+        DeflaterOutputStream compressed = encoding.equals(GZIP)
+                ? new Gzip(original, deflater)
+                : new DeflaterOutputStream(original, deflater, BUFFER_SIZE);
+        context.setOutputStream(new Unclosable(compressed));
+        try {
+            context.proceed();
+            compressed.finish();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** The encoding accepted with the highest quality; gzip wins a tie; <code>null</code> for none */
+    static String encoding(String acceptEncoding) {
+        if (acceptEncoding == null)
+            return null;
+        String best = null;
+        double bestQuality = 0;
+        for (String item : acceptEncoding.split(",")) {
+            String[] parts = item.split(";");
+            String coding = parts[0].trim().toLowerCase();
+            double quality = quality(parts);
+            if (coding.equals("*"))
+                coding = GZIP;
+            if ((coding.equals(GZIP) || coding.equals(DEFLATE)) && quality > 0
+                    && (quality > bestQuality || quality == bestQuality && coding.equals(GZIP))) {
+                best = coding;
+                bestQuality = quality;
+            }
+        }
+        return best;
+    }
+
+    private static double quality(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (parameter.startsWith("q="))
+                try {
+                    return Double.parseDouble(parameter.substring(2));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+        }
+        return 1;
+    }
+
+    /** A {@link GZIPOutputStream} with a deflater we can end */
+    private static class Gzip extends GZIPOutputStream {
+        private Gzip(OutputStream out, Deflater deflater) throws IOException {
+            super(out, BUFFER_SIZE);
+            this.def.end();
+            this.def = deflater;
+        }
+    }
+
+    /** Writers may close the stream they write to; that only finishes the compression */
+    private static class Unclosable extends FilterOutputStream {
+        private Unclosable(DeflaterOutputStream out) { super(out); }
+
+        @Override public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+        }
+
+        @Override public void close() throws IOException { ((DeflaterOutputStream) out).finish(); }
+    }
+}
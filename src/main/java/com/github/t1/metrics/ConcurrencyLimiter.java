@@ -0,0 +1,81 @@
+package com.github.t1.metrics;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * An adaptive limit for the number of requests in flight, in the spirit of the gradient algorithms: it's adjusted
+ * periodically by comparing the average latency of the last interval with the long term average. As long as the
+ * latency doesn't rise above the long term average times the tolerance, the limit grows by about its square root, so
+ * there is a small queue; when it does rise, the limit shrinks by that ratio (but not below half). The limit doesn't
+ * grow, while the application doesn't use at least half of it.
+ * <p>
+ * It's fed the same durations that the resource timers get.
+ */
+@Slf4j
+class ConcurrencyLimiter {
+    private static final double TOLERANCE = 1.5;
+    private static final double SMOOTHING = 0.2;
+    private static final double LONG_TERM_SMOOTHING = 0.05;
+
+    private final int min;
+    private final int max;
+    private final LongAdder nanos = new LongAdder();
+    private final LongAdder count = new LongAdder();
+    private final AtomicInteger peak = new AtomicInteger();
+    private volatile int limit;
+
+    private double estimate;
+    private double longTermNanos;
+
+    ConcurrencyLimiter(int initial, int min, int max) {
+        this.min = min;
+        this.max = max;
+        this.estimate = this.limit = initial;
+    }
+
+    public int getLimit() { return limit; }
+
+    /** @param inFlight the number of requests in flight, including the one to admit */
+    public boolean admit(int inFlight) {
+        if (inFlight > limit)
+            return false;
+        if (inFlight > peak.get())
+            peak.accumulateAndGet(inFlight, Math::max);
+        return true;
+    }
+
+    public void sample(long durationNanos) {
+        nanos.add(durationNanos);
+        count.increment();
+    }
+
+    synchronized void adjust() {
+        long n = count.sumThenReset();
+        long total = nanos.sumThenReset();
+        int peak = this.peak.getAndSet(0);
+        if (n == 0)
+            return;
+        double shortTermNanos = (double) total / n;
+        longTermNanos = (longTermNanos == 0) ? shortTermNanos
+                : longTermNanos * (1 - LONG_TERM_SMOOTHING) + shortTermNanos * LONG_TERM_SMOOTHING;
+        if (longTermNanos > 2 * shortTermNanos)
+            longTermNanos *= 0.95; // recover faster after a phase of high latency
+
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longTermNanos / shortTermNanos));
+        double next = estimate * gradient + Math.sqrt(estimate);
+        if (next > estimate && peak < estimate / 2)
+            return; // the limit is not what limits the application
+        estimate = Math.max(min, Math.min(max, estimate * (1 - SMOOTHING) + next * SMOOTHING));
+        int newLimit = (int) estimate;
+        if (newLimit != limit)
+            log.debug("concurrency limit {} -> {}", limit, newLimit);
+        limit = newLimit;
+    }
+
+    ScheduledFuture<?> schedule(ScheduledExecutorService scheduler, long period, TimeUnit unit) {
+        return scheduler.scheduleWithFixedDelay(this::adjust, period, period, unit);
+    }
+}
@@ -0,0 +1,77 @@
+package com.github.t1.metrics;
+
+import com.codahale.metrics.*;
+
+import javax.ws.rs.core.Response.StatusType;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The metrics of one type (<code>resources</code> or <code>calls</code>), path, and http method, resolved from the
+ * registry only once, so updating them doesn't have to build names or look them up again.
+ */
+class Endpoint {
+    private final MetricRegistry metrics;
+    private final String name;
+
+    private final Timer timer;
+    private final Counter suspended;
+    private final StatusMeters statuses;
+    private Counter inFlight;
+
+    Endpoint(MetricRegistry metrics, String name, Timer timer, boolean async) {
+        this.metrics = metrics;
+        this.name = name;
+        this.timer = timer;
+        this.suspended = async ? metrics.counter(name + "|suspended") : null;
+        this.statuses = statusMeters(metrics, name);
+    }
+
+    /**
+     * The endpoint may be created again, e.g. after an invalidation, while its status meters are still registered;
+     * or they may be registered concurrently.
+     */
+    private static StatusMeters statusMeters(MetricRegistry metrics, String name) {
+        Metric registered = metrics.getMetrics().get(name + "|status");
+        if (registered instanceof StatusMeters)
+            return (StatusMeters) registered;
+        try {
+            return metrics.register(name + "|status", new StatusMeters(name));
+        } catch (IllegalArgumentException e) {
+            registered = metrics.getMetrics().get(name + "|status");
+            if (registered instanceof StatusMeters)
+                return (StatusMeters) registered;
+            throw e;
+        }
+    }
+
+    public String getName() { return name; }
+
+    /** Resources with a <code>@Suspended AsyncResponse</code> or returning a <code>CompletionStage</code> */
+    public boolean isAsync() { return suspended != null; }
+
+    public void suspend() { suspended.inc(); }
+
+    public void resume(TrackedAsyncResponse.Outcome outcome) {
+        suspended.dec();
+        if (outcome == TrackedAsyncResponse.Outcome.TIMED_OUT)
+            metrics.meter(name + "|timeouts").mark();
+        else if (outcome == TrackedAsyncResponse.Outcome.CANCELLED)
+            metrics.meter(name + "|cancellations").mark();
+    }
+
+    /** Only resources count requests in flight, so the counter is only registered when needed */
+    public void enter() {
+        if (inFlight == null)
+            inFlight = metrics.counter(name + "|in-flight"); // races are benign
+        inFlight.inc();
+    }
+
+    public void exit() { inFlight.dec(); }
+
+    public void update(long duration, TimeUnit unit, StatusType status) {
+        timer.update(duration, unit);
+        mark(status);
+    }
+
+    public void mark(StatusType status) { statuses.mark(status.getStatusCode()); }
+}
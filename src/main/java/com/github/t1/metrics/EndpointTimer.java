@@ -0,0 +1,67 @@
+package com.github.t1.metrics;
+
+import com.codahale.metrics.*;
+import com.codahale.metrics.Timer;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link Timer} that counts every update exactly, but only records the durations picked by the {@link Sampler}
+ * in the reservoir (if there is one). And if there are {@link SampleBuffers}, it doesn't update the reservoir on the
+ * calling thread, but hands the durations over to the buffers, which are drained into the reservoir in the background.
+ */
+class EndpointTimer extends Timer {
+    private final SampledReservoir reservoir;
+
+    EndpointTimer(Reservoir reservoir, SampleBuffers buffers, Sampler sampler) {
+        this(new SampledReservoir(reservoir, buffers, sampler));
+    }
+
+    private EndpointTimer(SampledReservoir reservoir) {
+        super(reservoir, Clock.defaultClock());
+        this.reservoir = reservoir;
+    }
+
+    /** The ratio of the durations recorded in the reservoir to all updates */
+    double getSampled() {
+        long count = getCount();
+        return (count == 0) ? 1.0 : (double) reservoir.recorded.sum() / count;
+    }
+
+    /** Sits between the histogram of the timer and the actual reservoir, deciding which durations get recorded */
+    static class SampledReservoir implements Reservoir {
+        private final Reservoir target;
+        private final SampleBuffers buffers;
+        private final Sampler sampler;
+        private final LongAdder recorded = new LongAdder();
+
+        private SampledReservoir(Reservoir target, SampleBuffers buffers, Sampler sampler) {
+            this.target = target;
+            this.buffers = buffers;
+            this.sampler = sampler;
+        }
+
+        @Override public void update(long nanos) {
+            if (sampler == null || sampler.sample()) {
+                if (buffers == null)
+                    record(nanos);
+                else
+                    buffers.offer(this, nanos);
+            }
+        }
+
+        /** Called by the {@link SampleBuffers} when draining */
+        void record(long nanos) {
+            recorded.increment();
+            target.update(nanos);
+        }
+
+        @Override public int size() { return target.size(); }
+
+        @Override public Snapshot getSnapshot() {
+            if (buffers != null)
+                buffers.drain();
+            return target.getSnapshot();
+        }
+    }
+}
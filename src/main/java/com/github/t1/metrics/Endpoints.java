@@ -0,0 +1,472 @@
+package com.github.t1.metrics;
+
+import com.codahale.metrics.*;
+import com.codahale.metrics.Timer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.ws.rs.Path;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.container.*;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.*;
+import java.util.regex.Pattern;
+
+import static java.util.concurrent.TimeUnit.*;
+
+/**
+ * Cache of the {@link Endpoint}s by type, route, and http method. Looking up a known endpoint neither builds names nor
+ * touches the {@link MetricRegistry}. An endpoint is evicted from the cache and releases its budget when any of its
+ * metrics is removed from the registry, so it's resolved again on the next request.
+ * <p>
+ * Resources are named after the path requested or, with <code>metrics-ee.resources.naming=template</code>, after the
+ * <code>@Path</code> templates of the resource class and method, so <code>/orders/1</code> and <code>/orders/2</code>
+ * share the metrics of <code>/orders/{id}</code>; requests that match no resource method (e.g. 404s) are all recorded
+ * as <code>resources/&lt;unmatched&gt;</code>. Calls are named after the path the {@link UriNormalizer} returns.
+ * <p>
+ * The timers use the default reservoir or, with <code>metrics-ee.endpoints.reservoir=hdr-histogram</code>, a
+ * {@link HdrHistogramReservoir} with <code>metrics-ee.endpoints.hdr-histogram.digits</code> significant digits
+ * (default 2) and a window of <code>metrics-ee.endpoints.hdr-histogram.window-seconds</code> (default 60).
+ * The other {@link ReservoirType}s use <code>metrics-ee.endpoints.reservoir.size</code> (default 1028) or
+ * <code>metrics-ee.endpoints.reservoir.window-seconds</code> (default: the window of the HdrHistogram).
+ * <p>
+ * With <code>metrics-ee.endpoints.recording=buffered</code>, the timers count every request, but the request threads
+ * only append the durations to {@link SampleBuffers}, which are drained into the reservoirs in the background every
+ * <code>metrics-ee.endpoints.buffer.drain-millis</code> (default 100). There are
+ * <code>metrics-ee.endpoints.buffer.stripes</code> buffers (default twice the number of processors) with a capacity of
+ * <code>metrics-ee.endpoints.buffer.capacity</code> (default 1024) each. Samples dropped, because a buffer was full,
+ * are counted as <code>metrics-ee.dropped-samples</code>.
+ * <p>
+ * To reduce the overhead for endpoints with very high traffic, you can configure the timers of all endpoints with
+ * names starting with a prefix to only record some of the durations in the reservoir, while still counting all
+ * requests exactly; e.g. <code>metrics-ee.endpoints.sampling.resources/orders=10</code> records one in ten on
+ * average, and <code>metrics-ee.endpoints.sampling.calls=100/s</code> records at most 100 per second. The longest
+ * prefix wins. The ratio actually recorded is exposed as an additional <code>|sampled</code> gauge.
+ * <p>
+ * The number of requests in flight is counted as <code>|in-flight</code> of every resource and in total as
+ * <code>metrics-ee.in-flight</code>. With <code>metrics-ee.limiter.enabled=true</code>, a {@link ConcurrencyLimiter}
+ * rejects requests beyond an adaptive limit (exposed as <code>metrics-ee.limiter.limit</code>) with
+ * <code>503 Service Unavailable</code> and a <code>Retry-After</code> of
+ * <code>metrics-ee.limiter.retry-after-seconds</code> (default 1). The limit starts at
+ * <code>metrics-ee.limiter.initial</code> (default 20), stays between <code>metrics-ee.limiter.min</code> (default 1)
+ * and <code>metrics-ee.limiter.max</code> (default 1000), and is adjusted every
+ * <code>metrics-ee.limiter.interval-millis</code> (default 1000). Rejected requests are metered as
+ * <code>metrics-ee.limiter.rejected</code>.
+ * <p>
+ * To protect the heap from unbounded paths, methods, etc., there are at most <code>metrics-ee.endpoints.budget</code>
+ * endpoints (default 1000), and at most <code>metrics-ee.endpoints.budget.resources</code> or
+ * <code>metrics-ee.endpoints.budget.calls</code> of each type (default unlimited). Requests to new endpoints beyond
+ * that are recorded as <code>resources/__overflow__</code> or <code>calls/__overflow__</code> resp.; the
+ * <code>|dropped</code> counter of those counts the requests folded into them.
+ */
+@Slf4j
+public class Endpoints {
+    static final String RESOURCES = "resources";
+    static final String CALLS = "calls";
+
+    static final String OVERFLOW = "__overflow__";
+    static final String UNMATCHED = "<unmatched>";
+
+    private static final Pattern TEMPLATE_REGEX = Pattern.compile("\\{\\s*([^:}\\s]+)\\s*:[^}]*}");
+
+    public enum Recording {
+        /** Update the timers on the request thread */
+        DIRECT,
+        /** Update the reservoirs of the timers in the background; see {@link SampleBuffers} */
+        BUFFERED
+    }
+
+    public enum Naming {
+        /** The path requested, i.e. every distinct path gets its own metrics */
+        PATH,
+        /** The <code>@Path</code> templates of the resource matched, e.g. <code>/orders/{id}</code> */
+        TEMPLATE
+    }
+
+    private final MetricRegistry metrics;
+    private final Naming naming;
+    private final ReservoirType reservoir;
+    private final int reservoirSize;
+    private final int reservoirWindowSeconds;
+    private final int hdrDigits;
+    private final SampleBuffers buffers;
+    private final NavigableMap<String, Supplier<Sampler>> sampling = new TreeMap<>();
+    private final int drainMillis;
+    private ScheduledFuture<?> drainer;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final ConcurrencyLimiter limiter;
+    private final Meter rejected;
+    private final int retryAfterSeconds;
+    private final int limiterMillis;
+    private ScheduledFuture<?> adjuster;
+    private UriNormalizer uriNormalizer = UriNormalizer.PATH;
+
+    private final Budget total;
+    private final Type resources;
+    private final Type calls;
+    private final ConcurrentMap<Class<?>, ConcurrentMap<Method, Route>> inheritedRoutes = new ConcurrentHashMap<>();
+
+    public Endpoints(MetricRegistry metrics, MetricsConfig config) {
+        this.metrics = metrics;
+        this.naming = config.getEnum("resources.naming", Naming.PATH);
+        this.reservoir = config.getEnum("endpoints.reservoir", ReservoirType.EXPONENTIALLY_DECAYING);
+        this.reservoirSize = config.getInt("endpoints.reservoir.size", 1028);
+        this.reservoirWindowSeconds = config.getInt("endpoints.reservoir.window-seconds",
+                config.getInt("endpoints.hdr-histogram.window-seconds", 60));
+        this.hdrDigits = config.getInt("endpoints.hdr-histogram.digits", 2);
+        this.buffers = (config.getEnum("endpoints.recording", Recording.DIRECT) == Recording.BUFFERED)
+                ? new SampleBuffers(
+                config.getInt("endpoints.buffer.stripes", 2 * Runtime.getRuntime().availableProcessors()),
+                config.getInt("endpoints.buffer.capacity", 1024),
+                metrics.counter("metrics-ee.dropped-samples"))
+                : null;
+        this.drainMillis = config.getInt("endpoints.buffer.drain-millis", 100);
+        config.getAll("endpoints.sampling").forEach((prefix, rate) -> sampling.put(prefix, sampler(prefix, rate)));
+        gauge("metrics-ee.in-flight", inFlight::get);
+        this.limiter = config.getBoolean("limiter.enabled", false)
+                ? new ConcurrencyLimiter(
+                config.getInt("limiter.initial", 20),
+                config.getInt("limiter.min", 1),
+                config.getInt("limiter.max", 1000))
+                : null;
+        this.rejected = (limiter == null) ? null : metrics.meter("metrics-ee.limiter.rejected");
+        if (limiter != null)
+            gauge("metrics-ee.limiter.limit", limiter::getLimit);
+        this.retryAfterSeconds = config.getInt("limiter.retry-after-seconds", 1);
+        this.limiterMillis = config.getInt("limiter.interval-millis", 1000);
+        this.total = new Budget(config.getInt("endpoints.budget", 1000));
+        this.resources = new Type(RESOURCES, config);
+        this.calls = new Type(CALLS, config);
+        metrics.addListener(new Invalidator());
+    }
+
+    public void setUriNormalizer(UriNormalizer uriNormalizer) { this.uriNormalizer = uriNormalizer; }
+
+    /** Start the background work, if any */
+    public void start(ScheduledExecutorService scheduler) {
+        if (buffers != null)
+            drainer = buffers.schedule(scheduler, drainMillis, MILLISECONDS);
+        if (limiter != null)
+            adjuster = limiter.schedule(scheduler, limiterMillis, MILLISECONDS);
+    }
+
+    public void stop() {
+        if (drainer != null) {
+            drainer.cancel(false);
+            drainer = null;
+        }
+        if (adjuster != null) {
+            adjuster.cancel(false);
+            adjuster = null;
+        }
+    }
+
+    public int getRetryAfterSeconds() { return retryAfterSeconds; }
+
+    /** Count a request to a resource as in flight; or return false, if the limiter rejects it */
+    public boolean enter(Endpoint endpoint) {
+        int current = inFlight.incrementAndGet();
+        if (limiter != null && !limiter.admit(current)) {
+            inFlight.decrementAndGet();
+            rejected.mark();
+            return false;
+        }
+        endpoint.enter();
+        return true;
+    }
+
+    /** @param durationNanos negative, if unknown */
+    public void exit(Endpoint endpoint, long durationNanos) {
+        inFlight.decrementAndGet();
+        endpoint.exit();
+        if (limiter != null && durationNanos >= 0)
+            limiter.sample(durationNanos);
+    }
+
+    public Endpoint resource(ContainerRequestContext request, ResourceInfo resourceInfo) {
+        if (naming == Naming.TEMPLATE) {
+            Method resourceMethod = resourceInfo.getResourceMethod();
+            if (resourceMethod == null)
+                return resources.get(UNMATCHED, request.getMethod(), Object::toString, null);
+            Class<?> resourceClass = resourceInfo.getResourceClass();
+            // only methods inherited by several resource classes need the class in the key
+            Object route = (resourceMethod.getDeclaringClass() == resourceClass)
+                    ? resourceMethod : route(resourceClass, resourceMethod);
+            return resources.get(route, request.getMethod(), Endpoints::template, resourceMethod);
+        }
+        return resources.get(request.getUriInfo().getPath(), request.getMethod(), Object::toString,
+                resourceInfo.getResourceMethod());
+    }
+
+    /** Looking up a known route doesn't allocate anything */
+    private Route route(Class<?> resourceClass, Method resourceMethod) {
+        ConcurrentMap<Method, Route> routes = inheritedRoutes.get(resourceClass);
+        Route route = (routes == null) ? null : routes.get(resourceMethod);
+        if (route == null)
+            route = inheritedRoutes.computeIfAbsent(resourceClass, c -> new ConcurrentHashMap<>())
+                                   .computeIfAbsent(resourceMethod, m -> new Route(resourceClass, resourceMethod));
+        return route;
+    }
+
+    public Endpoint call(ClientRequestContext request) {
+        return calls.get(uriNormalizer.normalize(request.getUri()), request.getMethod(), Object::toString, null);
+    }
+
+    private static boolean isAsync(Method resourceMethod) {
+        if (resourceMethod == null)
+            return false;
+        if (CompletionStage.class.isAssignableFrom(resourceMethod.getReturnType()))
+            return true;
+        for (Annotation[] annotations : resourceMethod.getParameterAnnotations())
+            for (Annotation annotation : annotations)
+                if (annotation instanceof Suspended)
+                    return true;
+        return false;
+    }
+
+    private Endpoint endpoint(String name, boolean async) {
+        return new Endpoint(metrics, name, timer(name + "|timer"), async);
+    }
+
+    private Timer timer(String name) {
+        Sampler sampler = sampler(name);
+        if (reservoir == ReservoirType.EXPONENTIALLY_DECAYING && buffers == null && sampler == null)
+            return metrics.timer(name);
+        Timer timer;
+        try {
+            timer = metrics.register(name, (buffers == null && sampler == null)
+                    ? new Timer(reservoir())
+                    : new EndpointTimer(reservoir(), buffers, sampler));
+        } catch (IllegalArgumentException e) {
+            return metrics.timer(name); // already registered
+        }
+        if (sampler != null) {
+            gauge(name.substring(0, name.lastIndexOf('|')) + "|sampled", ((EndpointTimer) timer)::getSampled);
+        }
+        return timer;
+    }
+
+    /** Replaces any existing gauge, as that may still refer to an old timer, etc.; also one registered concurrently */
+    private <T> void gauge(String name, Gauge<T> gauge) {
+        while (true) {
+            metrics.remove(name);
+            try {
+                metrics.register(name, gauge);
+                return;
+            } catch (IllegalArgumentException e) {
+                log.debug("gauge {} registered concurrently; replace it", name);
+            }
+        }
+    }
+
+    private static Supplier<Sampler> sampler(String prefix, String rate) {
+        try {
+            return Sampler.parse(rate);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid " + MetricsConfig.PREFIX + "endpoints.sampling." + prefix
+                    + ": '" + rate + "'; expected N or N/s", e);
+        }
+    }
+
+    private Sampler sampler(String name) {
+        for (Map.Entry<String, Supplier<Sampler>> entry = sampling.floorEntry(name);
+             entry != null;
+             entry = sampling.lowerEntry(entry.getKey()))
+            if (name.startsWith(entry.getKey()))
+                return entry.getValue().get();
+        return null;
+    }
+
+    private Reservoir reservoir() {
+        return reservoir.create(reservoirSize, reservoirWindowSeconds, SECONDS, hdrDigits);
+    }
+
+    private static String name(String type, String path, String method) {
+        if (!path.startsWith("/"))
+            path = "/" + path; // Dropwizard quirk
+        return type + path + "|" + method;
+    }
+
+    private static String template(Object route) {
+        Method method = (route instanceof Method) ? (Method) route : ((Route) route).method;
+        Class<?> type = (route instanceof Method) ? method.getDeclaringClass() : ((Route) route).type;
+        return TEMPLATE_REGEX.matcher(path(type) + path(method)).replaceAll("{$1}");
+    }
+
+    private static String path(AnnotatedElement element) {
+        Path path = element.getAnnotation(Path.class);
+        if (path == null)
+            return "";
+        String value = path.value();
+        if (value.endsWith("/"))
+            value = value.substring(0, value.length() - 1);
+        return (value.startsWith("/") || value.isEmpty()) ? value : "/" + value;
+    }
+
+    public void clear() {
+        resources.clear();
+        calls.clear();
+        total.clear();
+    }
+
+    /**
+     * The cache of one type of endpoints, limited by its own and the total budget. Endpoints are only created and
+     * evicted while holding the lock, so a route is only cached with a reserved budget.
+     */
+    private class Type {
+        private final String name;
+        private final Budget budget;
+        private final ConcurrentMap<Object, ConcurrentMap<String, Endpoint>> cache = new ConcurrentHashMap<>();
+        private final Map<String, Object> routes = new HashMap<>();
+        private volatile Overflow overflow;
+
+        private Type(String name, MetricsConfig config) {
+            this.name = name;
+            this.budget = new Budget(config.getInt("endpoints.budget." + name, Integer.MAX_VALUE));
+        }
+
+        private Endpoint get(Object route, String method, Function<Object, String> path, Method resourceMethod) {
+            ConcurrentMap<String, Endpoint> methods = cache.get(route);
+            Endpoint endpoint = (methods == null) ? null : methods.get(method);
+            if (endpoint != null)
+                return endpoint;
+            if (isExhausted())
+                return overflow();
+            return create(route, method, path, resourceMethod);
+        }
+
+        private synchronized Endpoint create(Object route, String method, Function<Object, String> path,
+                Method resourceMethod) {
+            ConcurrentMap<String, Endpoint> methods = cache.get(route);
+            Endpoint endpoint = (methods == null) ? null : methods.get(method);
+            if (endpoint != null)
+                return endpoint;
+            if (!reserve())
+                return overflow();
+            String endpointName = name(name, path.apply(route), method);
+            endpoint = endpoint(endpointName, isAsync(resourceMethod));
+            cache.computeIfAbsent(route, r -> new ConcurrentHashMap<>()).put(method, endpoint);
+            routes.put(endpointName, route);
+            return endpoint;
+        }
+
+        /** Remove the endpoint from the cache, so it's resolved again, and release its budget */
+        private synchronized void evict(String endpointName) {
+            Overflow current = overflow;
+            if (current != null && current.endpoint.getName().equals(endpointName)) {
+                overflow = null;
+                return;
+            }
+            Object route = routes.remove(endpointName);
+            if (route == null)
+                return;
+            ConcurrentMap<String, Endpoint> methods = cache.get(route);
+            if (methods == null || methods.remove(endpointName.substring(endpointName.lastIndexOf('|') + 1)) == null)
+                return;
+            if (methods.isEmpty())
+                cache.remove(route);
+            budget.release();
+            total.release();
+        }
+
+        private boolean isExhausted() { return budget.isExhausted() || total.isExhausted(); }
+
+        private boolean reserve() {
+            if (!budget.reserve())
+                return false;
+            if (total.reserve())
+                return true;
+            budget.release();
+            return false;
+        }
+
+        private Endpoint overflow() {
+            Overflow current = overflow;
+            if (current == null)
+                current = createOverflow();
+            current.dropped.inc();
+            return current.endpoint;
+        }
+
+        private synchronized Overflow createOverflow() {
+            if (overflow == null) {
+                String overflowName = name + "/" + OVERFLOW;
+                log.warn("budget for {} metrics exhausted; fold new ones into {}", name, overflowName);
+                overflow = new Overflow(endpoint(overflowName, false), metrics.counter(overflowName + "|dropped"));
+            }
+            return overflow;
+        }
+
+        private synchronized void clear() {
+            cache.clear();
+            routes.clear();
+            budget.clear();
+            overflow = null;
+        }
+    }
+
+    /** A method inherited by a resource class; there's only one instance for each pair, so identity is equality */
+    @RequiredArgsConstructor
+    private static class Route {
+        private final Class<?> type;
+        private final Method method;
+    }
+
+    @RequiredArgsConstructor
+    private static class Overflow {
+        private final Endpoint endpoint;
+        private final Counter dropped;
+    }
+
+    /** Counts the endpoints created, but not more than the limit */
+    private static class Budget {
+        private final int limit;
+        private final AtomicInteger used = new AtomicInteger();
+
+        private Budget(int limit) { this.limit = limit; }
+
+        private boolean isExhausted() { return used.get() >= limit; }
+
+        private boolean reserve() {
+            int current;
+            do {
+                current = used.get();
+                if (current >= limit)
+                    return false;
+            } while (!used.compareAndSet(current, current + 1));
+            return true;
+        }
+
+        private void release() { used.decrementAndGet(); }
+
+        private void clear() { used.set(0); }
+    }
+
+    private class Invalidator extends MetricRegistryListener.Base {
+        @Override public void onTimerRemoved(String name) { removed(name); }
+
+        @Override public void onMeterRemoved(String name) { removed(name); }
+
+        @Override public void onCounterRemoved(String name) { removed(name); }
+
+        @Override public void onGaugeRemoved(String name) { removed(name); }
+
+        /** The endpoint name is the metric name without the last <code>|</code> suffix */
+        private void removed(String name) {
+            int pipe = name.lastIndexOf('|');
+            if (pipe < 0)
+                return;
+            if (name.startsWith(RESOURCES + "/")) {
+                log.debug("resource metric removed: {}", name);
+                resources.evict(name.substring(0, pipe));
+            } else if (name.startsWith(CALLS + "/")) {
+                log.debug("call metric removed: {}", name);
+                calls.evict(name.substring(0, pipe));
+            }
+        }
+    }
+}
@@ -1,26 +1,110 @@
 package com.github.t1.metrics;
 
+import com.codahale.metrics.Clock;
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.RatioGauge.Ratio;
 import com.codahale.metrics.health.HealthCheck;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+import static java.util.concurrent.TimeUnit.*;
+
+/**
+ * A {@link HealthCheck} that's also a {@link Gauge} with the ratio of healthy results since deployment. The
+ * {@link #getWindowGauges() window gauges} <code>NAME|1m</code>, <code>NAME|5m</code>, and <code>NAME|15m</code>
+ * have the ratios of the last minutes, in steps of 15 seconds, so they reflect the current health.
+ * <p>
+ * The results are counted in {@link LongAdder}s, also in a ring of buckets for the windows, so concurrent probes
+ * neither lose updates nor contend for a lock.
+ */
 @Slf4j
 public abstract class GaugedHealthCheck extends HealthCheck implements Gauge<Double> {
+    private static final long BUCKET_NANOS = SECONDS.toNanos(15);
+    private static final int BUCKETS_PER_MINUTE = 4;
+    private static final int BUCKETS = 15 * BUCKETS_PER_MINUTE;
+
+    private static class Bucket {
+        private final long epoch;
+        private final LongAdder total = new LongAdder();
+        private final LongAdder healthy = new LongAdder();
+
+        private Bucket(long epoch) { this.epoch = epoch; }
+    }
+
+    private final Clock clock;
+    private final LongAdder total = new LongAdder();
+    private final LongAdder healthy = new LongAdder();
+    private final AtomicReferenceArray<Bucket> buckets = new AtomicReferenceArray<>(BUCKETS);
 
-    private int total, healthy;
+    protected GaugedHealthCheck() { this(Clock.defaultClock()); }
 
-    @Override public Double getValue() { return Ratio.of(healthy, total).getValue(); }
+    protected GaugedHealthCheck(Clock clock) { this.clock = clock; }
+
+    @Override public Double getValue() { return Ratio.of(healthy.sum(), total.sum()).getValue(); }
+
+    /** The ratio of healthy results in the last <code>minutes</code> (1 to 15), or NaN if there were none */
+    public double getRatio(int minutes) {
+        if (minutes < 1 || minutes > 15)
+            throw new IllegalArgumentException("window must be 1 to 15 minutes, but was " + minutes);
+        long epoch = epoch();
+        long total = 0, healthy = 0;
+        for (long e = epoch; e > epoch - minutes * BUCKETS_PER_MINUTE; e--) {
+            Bucket bucket = buckets.get(index(e));
+            if (bucket != null && bucket.epoch == e) {
+                total += bucket.total.sum();
+                healthy += bucket.healthy.sum();
+            }
+        }
+        return Ratio.of(healthy, total).getValue();
+    }
+
+    /** The gauges for the ratios of the last 1, 5, and 15 minutes, by the suffix for their names */
+    public Map<String, Gauge<Double>> getWindowGauges() {
+        Map<String, Gauge<Double>> gauges = new LinkedHashMap<>();
+        gauges.put("|1m", () -> getRatio(1));
+        gauges.put("|5m", () -> getRatio(5));
+        gauges.put("|15m", () -> getRatio(15));
+        return gauges;
+    }
 
     @Override public Result execute() {
         Result result = super.execute();
 
-        ++total;
-        if (result.isHealthy())
-            ++healthy;
+        Bucket bucket = bucket();
+        total.increment();
+        bucket.total.increment();
+        if (result.isHealthy()) {
+            healthy.increment();
+            bucket.healthy.increment();
+        }
 
-        log.debug("{}:{} -> {}/{}", getClass().getName(), result, healthy, total);
+        log.debug("{}:{} -> {}/{}", getClass().getName(), result, healthy.sum(), total.sum());
 
         return result;
     }
+
+    /**
+     * The bucket of the current epoch, replacing the one of a past epoch at the same index. If another thread already
+     * replaced it with a later epoch, the result is too old for the windows and goes into a detached bucket.
+     */
+    private Bucket bucket() {
+        long epoch = epoch();
+        int index = index(epoch);
+        while (true) {
+            Bucket bucket = buckets.get(index);
+            if (bucket != null && bucket.epoch == epoch)
+                return bucket;
+            if (bucket != null && bucket.epoch > epoch)
+                return new Bucket(epoch);
+            Bucket fresh = new Bucket(epoch);
+            if (buckets.compareAndSet(index, bucket, fresh))
+                return fresh;
+        }
+    }
+
+    private long epoch() { return Math.floorDiv(clock.getTick(), BUCKET_NANOS); }
+
+    private static int index(long epoch) { return (int) Math.floorMod(epoch, (long) BUCKETS); }
 }
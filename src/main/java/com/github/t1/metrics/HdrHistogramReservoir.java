@@ -0,0 +1,120 @@
+package com.github.t1.metrics;
+
+import com.codahale.metrics.*;
+import org.HdrHistogram.*;
+import org.HdrHistogram.Histogram;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.*;
+
+/**
+ * A {@link Reservoir} backed by an <a href="http://hdrhistogram.org">HdrHistogram</a>: updates are wait-free and
+ * all values are recorded with a bounded relative error, instead of being sampled and locked like in the
+ * {@link ExponentiallyDecayingReservoir}. Only taking a snapshot and rotating the windows is synchronized.
+ * <p>
+ * The snapshot covers the values of the current and the previous window, i.e. between one and two window lengths.
+ * The first update after a window expired rotates the windows, so the values recorded since the last rotation
+ * always belong to the current window, no matter how seldom snapshots are taken.
+ */
+public class HdrHistogramReservoir implements Reservoir {
+    private final Recorder recorder;
+    private final long windowNanos;
+    private final Clock clock;
+
+    private final Histogram interval;
+    private Histogram previous;
+    private Histogram current;
+    private volatile long currentStart;
+
+    public HdrHistogramReservoir(int significantDigits, long window, TimeUnit unit) {
+        this(significantDigits, window, unit, Clock.defaultClock());
+    }
+
+    public HdrHistogramReservoir(int significantDigits, long window, TimeUnit unit, Clock clock) {
+        this.recorder = new Recorder(significantDigits);
+        this.windowNanos = unit.toNanos(window);
+        this.clock = clock;
+        this.interval = new Histogram(significantDigits);
+        this.previous = new Histogram(significantDigits);
+        this.current = new Histogram(significantDigits);
+        this.currentStart = clock.getTick();
+    }
+
+    @Override public int size() { return getSnapshot().size(); }
+
+    @Override public void update(long value) {
+        if (value < 0)
+            return;
+        if (clock.getTick() - currentStart >= windowNanos)
+            rotate();
+        recorder.recordValue(value);
+    }
+
+    @Override public synchronized Snapshot getSnapshot() {
+        rotate();
+        Histogram snapshot = current.copy();
+        snapshot.add(previous);
+        return new HdrSnapshot(snapshot);
+    }
+
+    private synchronized void rotate() {
+        recorder.getIntervalHistogramInto(interval);
+        current.add(interval);
+        long now = clock.getTick();
+        long age = now - currentStart;
+        if (age >= windowNanos) {
+            Histogram recycled = previous;
+            recycled.reset();
+            if (age < 2 * windowNanos) {
+                previous = current;
+                current = recycled;
+            } else {
+                current.reset(); // both windows expired
+            }
+            currentStart = now;
+        }
+    }
+
+    private static class HdrSnapshot extends Snapshot {
+        private final Histogram histogram;
+
+        private HdrSnapshot(Histogram histogram) { this.histogram = histogram; }
+
+        @Override public double getValue(double quantile) { return histogram.getValueAtPercentile(quantile * 100); }
+
+        /** One value for every bucket recorded, not for every update */
+        @Override public long[] getValues() {
+            long[] values = new long[countBuckets()];
+            int i = 0;
+            for (HistogramIterationValue value : histogram.recordedValues())
+                values[i++] = value.getValueIteratedTo();
+            return values;
+        }
+
+        private int countBuckets() {
+            int count = 0;
+            for (HistogramIterationValue ignored : histogram.recordedValues())
+                count++;
+            return count;
+        }
+
+        @Override public int size() { return (int) Math.min(histogram.getTotalCount(), Integer.MAX_VALUE); }
+
+        @Override public long getMax() { return histogram.getMaxValue(); }
+
+        @Override public double getMean() { return histogram.getMean(); }
+
+        @Override public long getMin() { return histogram.getMinValue(); }
+
+        @Override public double getStdDev() { return histogram.getStdDeviation(); }
+
+        @Override public void dump(OutputStream output) {
+            try (PrintWriter out = new PrintWriter(new OutputStreamWriter(output, UTF_8))) {
+                for (long value : getValues())
+                    out.printf("%d%n", value);
+            }
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.github.t1.metrics;
+
+import javax.servlet.*;
+import javax.servlet.annotation.WebListener;
+
+/**
+ * Counts the requests as done that the {@link JaxRsBinding} admitted, but that completed without the response
+ * filters having run, e.g. for an exception that no mapper handles. The request properties of JAX-RS are the
+ * attributes of the servlet request, and the container destroys the request only when it's complete, also when it's
+ * async.
+ */
+@WebListener
+public class InFlightListener implements ServletRequestListener {
+    @Override public void requestInitialized(ServletRequestEvent event) {}
+
+    @Override public void requestDestroyed(ServletRequestEvent event) {
+        JaxRsBinding.completed(event.getServletRequest()::getAttribute);
+    }
+}
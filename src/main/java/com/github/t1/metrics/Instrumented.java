@@ -0,0 +1,25 @@
+package com.github.t1.metrics;
+
+import javax.enterprise.util.AnnotationLiteral;
+import javax.interceptor.InterceptorBinding;
+import java.lang.annotation.*;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.*;
+
+/**
+ * Binds the {@link InstrumentedInterceptor}. The {@link MetricsExtension} adds it to all beans with methods annotated
+ * as <code>@Timed</code>, <code>@Metered</code>, <code>@Counted</code>, <code>@ExceptionMetered</code>, or
+ * <code>@Gauge</code>, so you don't have to.
+ */
+@InterceptorBinding
+@Retention(RUNTIME)
+@Target({ TYPE, METHOD })
+public @interface Instrumented {
+    @SuppressWarnings("ClassExplicitlyAnnotation")
+    class Literal extends AnnotationLiteral<Instrumented> implements Instrumented {
+        private static final long serialVersionUID = 1L;
+
+        public static final Instrumented INSTANCE = new Literal();
+    }
+}
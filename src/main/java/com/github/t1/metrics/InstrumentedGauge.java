@@ -0,0 +1,63 @@
+package com.github.t1.metrics;
+
+import com.codahale.metrics.*;
+import lombok.SneakyThrows;
+
+import javax.enterprise.inject.spi.*;
+import javax.enterprise.inject.spi.AnnotatedType;
+import java.lang.reflect.*;
+import java.lang.reflect.Method;
+
+/**
+ * A method annotated as {@link com.codahale.metrics.annotation.Gauge}, named like the {@link InstrumentedMethod}s.
+ * It's registered when the first bean instance is constructed and then reads from the latest instance constructed;
+ * it's removed when that instance is destroyed. Calls are synchronized by the {@link MetricsExtension}.
+ */
+class InstrumentedGauge {
+    private final String name;
+    private final Method method;
+    private InstanceGauge registered;
+
+    InstrumentedGauge(AnnotatedType<?> type, AnnotatedMethod<?> method, com.codahale.metrics.annotation.Gauge gauge) {
+        this.method = method.getJavaMember();
+        this.method.setAccessible(true);
+        if (gauge.absolute())
+            this.name = gauge.name();
+        else
+            this.name = MetricRegistry.name(type.getJavaClass(), gauge.name().isEmpty() ? this.method.getName()
+                    : gauge.name());
+    }
+
+    public String getName() { return name; }
+
+    void register(MetricRegistry metrics, Object target) {
+        if (registered != null) {
+            registered.target = target;
+            return;
+        }
+        metrics.remove(name);
+        registered = metrics.register(name, new InstanceGauge(target));
+    }
+
+    void remove(MetricRegistry metrics, Object target) {
+        if (registered == null || registered.target != target)
+            return;
+        registered = null;
+        metrics.remove(name);
+    }
+
+    private class InstanceGauge implements Gauge<Object> {
+        private volatile Object target;
+
+        private InstanceGauge(Object target) { this.target = target; }
+
+        @SneakyThrows(Throwable.class)
+        @Override public Object getValue() {
+            try {
+                return method.invoke(target);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
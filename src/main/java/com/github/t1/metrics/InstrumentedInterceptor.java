@@ -0,0 +1,37 @@
+package com.github.t1.metrics;
+
+import javax.annotation.*;
+import javax.inject.Inject;
+import javax.interceptor.*;
+
+import static javax.interceptor.Interceptor.Priority.*;
+
+/**
+ * Updates the metrics of the methods annotated as <code>@Timed</code>, <code>@Metered</code>, <code>@Counted</code>,
+ * or <code>@ExceptionMetered</code>, and registers the methods annotated as <code>@Gauge</code>, as prepared by the
+ * {@link MetricsExtension}.
+ */
+@Instrumented
+@Interceptor
+@Priority(LIBRARY_BEFORE + 10)
+public class InstrumentedInterceptor {
+    @Inject MetricsExtension extension;
+
+    @AroundInvoke
+    public Object aroundInvoke(InvocationContext context) throws Exception {
+        InstrumentedMethod method = extension.getMethod(context.getMethod());
+        return (method == null) ? context.proceed() : method.invoke(context);
+    }
+
+    @PostConstruct
+    public Object postConstruct(InvocationContext context) throws Exception {
+        extension.registerGauges(context.getTarget());
+        return context.proceed();
+    }
+
+    @PreDestroy
+    public Object preDestroy(InvocationContext context) throws Exception {
+        extension.removeGauges(context.getTarget());
+        return context.proceed();
+    }
+}
@@ -0,0 +1,115 @@
+package com.github.t1.metrics;
+
+import com.codahale.metrics.*;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.annotation.*;
+import com.codahale.metrics.annotation.Metered;
+
+import javax.enterprise.inject.spi.*;
+import javax.interceptor.InvocationContext;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import static com.codahale.metrics.MetricRegistry.*;
+
+/**
+ * The metrics of a method annotated as {@link Timed}, {@link Metered}, {@link Counted}, and/or
+ * {@link ExceptionMetered}, or of a public method of a class annotated so. The {@link Names} are derived when the
+ * {@link MetricsExtension} processes the class, and the metrics are resolved only once after deployment, so invoking
+ * the method neither builds names nor touches the {@link MetricRegistry}.
+ * <p>
+ * The names are those of the other Dropwizard integrations: the name of the class and the name of the method or, if
+ * given, the name in the annotation; or only the name in the annotation, if it's <code>absolute</code>. Exception
+ * meters without a name get an additional <code>exceptions</code>. Annotations on the class add the method name.
+ */
+class InstrumentedMethod {
+    static class Names {
+        private String timer, meter, counter, exceptions;
+        private boolean monotonic;
+        private Class<? extends Throwable> cause;
+
+        /** @return <code>null</code> if the method is not instrumented */
+        static Names of(AnnotatedType<?> type, AnnotatedMethod<?> method) {
+            Method member = method.getJavaMember();
+            if (Modifier.isStatic(member.getModifiers()) || member.getDeclaringClass() == Object.class)
+                return null;
+            Names names = new Names();
+            Timed timed = annotation(type, method, Timed.class);
+            if (timed != null)
+                names.timer = nameOf(type, method, Timed.class, timed.name(), timed.absolute(), null);
+            Metered metered = annotation(type, method, Metered.class);
+            if (metered != null)
+                names.meter = nameOf(type, method, Metered.class, metered.name(), metered.absolute(), null);
+            Counted counted = annotation(type, method, Counted.class);
+            if (counted != null) {
+                names.counter = nameOf(type, method, Counted.class, counted.name(), counted.absolute(), null);
+                names.monotonic = counted.monotonic();
+            }
+            ExceptionMetered exceptionMetered = annotation(type, method, ExceptionMetered.class);
+            if (exceptionMetered != null) {
+                names.exceptions = nameOf(type, method, ExceptionMetered.class, exceptionMetered.name(),
+                        exceptionMetered.absolute(), ExceptionMetered.DEFAULT_NAME_SUFFIX);
+                names.cause = exceptionMetered.cause();
+            }
+            boolean empty = timed == null && metered == null && counted == null && exceptionMetered == null;
+            return empty ? null : names;
+        }
+
+        /** Annotations on the type only apply to public methods */
+        private static <T extends Annotation> T annotation(AnnotatedType<?> type, AnnotatedMethod<?> method,
+                Class<T> annotationType) {
+            T annotation = method.getAnnotation(annotationType);
+            if (annotation != null || !Modifier.isPublic(method.getJavaMember().getModifiers()))
+                return annotation;
+            return type.getAnnotation(annotationType);
+        }
+
+        private static String nameOf(AnnotatedType<?> type, AnnotatedMethod<?> method,
+                Class<? extends Annotation> annotationType, String name, boolean absolute, String suffix) {
+            Class<?> owner = type.getJavaClass();
+            String methodName = method.getJavaMember().getName();
+            if (!method.isAnnotationPresent(annotationType)) // on the type
+                return absolute ? name(name, methodName) : name(owner, name, methodName);
+            if (name.isEmpty())
+                return name(owner, methodName, suffix);
+            return absolute ? name : name(owner, name);
+        }
+    }
+
+    private final Timer timer;
+    private final Meter meter;
+    private final Counter counter;
+    private final boolean monotonic;
+    private final Meter exceptions;
+    private final Class<? extends Throwable> cause;
+
+    InstrumentedMethod(Names names, MetricRegistry metrics) {
+        this.timer = (names.timer == null) ? null : metrics.timer(names.timer);
+        this.meter = (names.meter == null) ? null : metrics.meter(names.meter);
+        this.counter = (names.counter == null) ? null : metrics.counter(names.counter);
+        this.monotonic = names.monotonic;
+        this.exceptions = (names.exceptions == null) ? null : metrics.meter(names.exceptions);
+        this.cause = names.cause;
+    }
+
+    Object invoke(InvocationContext context) throws Exception {
+        if (meter != null)
+            meter.mark();
+        if (counter != null)
+            counter.inc();
+        Timer.Context time = (timer == null) ? null : timer.time();
+        try {
+            return context.proceed();
+        } catch (Exception | Error e) {
+            if (exceptions != null && cause.isInstance(e))
+                exceptions.mark();
+            throw e;
+        } finally {
+            if (time != null)
+                time.stop();
+            if (counter != null && !monotonic)
+                counter.dec();
+        }
+    }
+}
@@ -1,9 +1,14 @@
 package com.github.t1.metrics;
 
 import com.codahale.metrics.json.MetricsModule;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.*;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import lombok.SneakyThrows;
 
 import javax.ws.rs.ext.*;
+import java.io.IOException;
 
 import static java.util.concurrent.TimeUnit.*;
 
@@ -14,8 +19,33 @@ public class JacksonMagic implements ContextResolver<ObjectMapper> {
     public JacksonMagic() {
         mapper = new ObjectMapper();
         mapper.registerModule(new MetricsModule(SECONDS, SECONDS, false));
+        mapper.registerModule(new SimpleModule().addSerializer(new SelectionSerializer()));
     }
 
     @Override
     public ObjectMapper getContext(Class<?> type) { return mapper; }
+
+    /** Writes only the attributes selected, named like in the other formats */
+    private static class SelectionSerializer extends StdSerializer<MetricAttributes.Selection> {
+        private static final long serialVersionUID = 1L;
+
+        private SelectionSerializer() { super(MetricAttributes.Selection.class); }
+
+        @Override
+        public void serialize(MetricAttributes.Selection selection, JsonGenerator json, SerializerProvider provider)
+                throws IOException {
+            json.writeStartObject();
+            MetricAttributes.visit(selection, new MetricAttributes.Visitor() {
+                @SneakyThrows(IOException.class)
+                @Override public void attribute(String name, Object value) { json.writeObjectField(name, value); }
+
+                @SneakyThrows(IOException.class)
+                @Override public void attribute(String name, long value) { json.writeNumberField(name, value); }
+
+                @SneakyThrows(IOException.class)
+                @Override public void attribute(String name, double value) { json.writeNumberField(name, value); }
+            });
+            json.writeEndObject();
+        }
+    }
 }
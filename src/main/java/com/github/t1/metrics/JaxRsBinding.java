@@ -1,58 +1,124 @@
 package com.github.t1.metrics;
 
-import com.codahale.metrics.MetricRegistry;
+import com.github.t1.metrics.TrackedAsyncResponse.Outcome;
 import lombok.extern.slf4j.Slf4j;
 
 import javax.inject.Inject;
 import javax.ws.rs.client.*;
 import javax.ws.rs.container.*;
+import javax.ws.rs.core.*;
 import javax.ws.rs.core.Response.StatusType;
 import javax.ws.rs.ext.Provider;
-import java.time.Instant;
-import java.time.temporal.Temporal;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 
-import static java.time.temporal.ChronoUnit.*;
 import static java.util.concurrent.TimeUnit.*;
+import static javax.ws.rs.core.HttpHeaders.*;
+import static javax.ws.rs.core.Response.Status.*;
 
+/**
+ * Times all resources and client calls. The server side timer stops when the response filters run, which is when an
+ * async response is resumed, times out, or is cancelled; the latter two are metered separately, and the number of
+ * requests currently suspended is counted. Requests in flight are counted, too, and can be limited; see
+ * {@link Endpoints}. When the response filters don't run, e.g. for exceptions that are not mapped or async requests
+ * that are abandoned, the {@link InFlightListener} and the callbacks of the {@link TrackedAsyncResponse} count the
+ * request as done when it completes, so it doesn't stay in flight forever.
+ */
 @Provider
 @Slf4j
 public class JaxRsBinding implements
         ContainerRequestFilter, ContainerResponseFilter,
         ClientRequestFilter, ClientResponseFilter {
-    private static final String START_INSTANT = JaxRsBinding.class + "#START_INSTANT";
+    private static final String START_NANOS = JaxRsBinding.class + "#START_NANOS";
+    static final String IN_FLIGHT = JaxRsBinding.class + "#IN_FLIGHT";
 
-    @Inject MetricRegistry metrics;
+    @Inject Endpoints endpoints;
+
+    @Context ResourceInfo resourceInfo;
 
     @Override
-    public void filter(ContainerRequestContext request) { request.setProperty(START_INSTANT, Instant.now()); }
+    public void filter(ContainerRequestContext request) {
+        Endpoint endpoint = endpoints.resource(request, resourceInfo);
+        if (!endpoints.enter(endpoint)) {
+            request.abortWith(Response.status(SERVICE_UNAVAILABLE)
+                                      .header(RETRY_AFTER, endpoints.getRetryAfterSeconds())
+                                      .build());
+            return;
+        }
+        request.setProperty(IN_FLIGHT, new InFlight(endpoints, endpoint));
+        if (endpoint.isAsync()) {
+            endpoint.suspend();
+            request.setProperty(TrackedAsyncResponse.REQUEST, request); // for the AsyncTrackedInterceptor
+        }
+        request.setProperty(START_NANOS, System.nanoTime());
+    }
 
     @Override
     public void filter(ContainerRequestContext request, ContainerResponseContext response) {
-        updateTimer(name("resources", request.getUriInfo().getPath(), request.getMethod()),
-                response.getStatusInfo(),
-                request.getProperty(START_INSTANT));
+        InFlight inFlight = (InFlight) request.getProperty(IN_FLIGHT);
+        long duration = duration(request.getProperty(START_NANOS));
+        Endpoint endpoint;
+        if (inFlight == null) { // the request filter doesn't run for requests that don't match, or rejected them
+            endpoint = endpoints.resource(request, resourceInfo);
+        } else {
+            endpoint = inFlight.endpoint;
+            inFlight.exit((Outcome) request.getProperty(TrackedAsyncResponse.OUTCOME), duration);
+        }
+        update(endpoint, duration, response.getStatusInfo());
     }
 
-    private String name(String type, String path, String method) {
-        if (!path.startsWith("/"))
-            path = "/" + path; // Dropwizard quirk
-        return type + path + "|" + method;
+    /**
+     * The request is complete, maybe without the response filters having run; the properties are the request
+     * properties or the attributes of the servlet request.
+     */
+    static void completed(Function<String, Object> properties) {
+        InFlight inFlight = (InFlight) properties.apply(IN_FLIGHT);
+        if (inFlight != null && inFlight.exit((Outcome) properties.apply(TrackedAsyncResponse.OUTCOME), -1))
+            log.debug("{} completed without response filter", inFlight.endpoint.getName());
     }
 
     @Override
-    public void filter(ClientRequestContext request) { request.setProperty(START_INSTANT, Instant.now()); }
+    public void filter(ClientRequestContext request) { request.setProperty(START_NANOS, System.nanoTime()); }
 
     @Override
     public void filter(ClientRequestContext request, ClientResponseContext response) {
-        updateTimer(name("calls", request.getUri().getPath(), request.getMethod()),
-                response.getStatusInfo(),
-                request.getProperty(START_INSTANT));
+        Endpoint endpoint = endpoints.call(request);
+        update(endpoint, duration(request.getProperty(START_NANOS)), response.getStatusInfo());
+    }
+
+    /** @return negative, if there is no start time */
+    private static long duration(Object startNanos) {
+        return (startNanos == null) ? -1 : System.nanoTime() - (Long) startNanos;
+    }
+
+    /** A request that was admitted; it exits only once, no matter if from the response filter or on completion */
+    private static class InFlight {
+        private final Endpoints endpoints;
+        private final Endpoint endpoint;
+        private final AtomicBoolean exited = new AtomicBoolean();
+
+        private InFlight(Endpoints endpoints, Endpoint endpoint) {
+            this.endpoints = endpoints;
+            this.endpoint = endpoint;
+        }
+
+        /** @return false, if it already exited */
+        private boolean exit(Outcome outcome, long duration) {
+            if (!exited.compareAndSet(false, true))
+                return false;
+            if (endpoint.isAsync())
+                endpoint.resume(outcome);
+            endpoints.exit(endpoint, duration);
+            return true;
+        }
     }
 
-    private void updateTimer(String name, StatusType status, Object startInstant) {
-        long time = (startInstant == null) ? -1 : ((Temporal) startInstant).until(Instant.now(), MILLIS);
-        metrics.timer(name + "|timer").update(time, MILLISECONDS);
-        metrics.meter(name + "|" + status.getFamily()).mark();
-        metrics.meter(name + "|" + status.getStatusCode()).mark();
+    private static void update(Endpoint endpoint, long duration, StatusType status) {
+        if (duration < 0) {
+            log.debug("no start time for {}", endpoint.getName());
+            endpoint.mark(status);
+        } else {
+            endpoint.update(duration, NANOSECONDS, status);
+        }
     }
 }
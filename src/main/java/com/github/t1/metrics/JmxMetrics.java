@@ -0,0 +1,257 @@
+package com.github.t1.metrics;
+
+import com.codahale.metrics.*;
+import com.codahale.metrics.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.management.*;
+import java.io.Closeable;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import static java.util.stream.Collectors.*;
+
+/**
+ * Publishes the metrics as MBeans in the domain <code>metrics-ee.jmx.domain</code> (default <code>metrics</code>), but
+ * only those with names matching one of the comma separated globs in <code>metrics-ee.jmx.include</code> (default
+ * <code>*</code>) and none in <code>metrics-ee.jmx.exclude</code> (default: none). Registering an MBean for every
+ * metric of every endpoint is slow and clutters the JMX tools, so consider excluding <code>resources/*,calls/*</code>.
+ * <p>
+ * With <code>metrics-ee.jmx.endpoints=composite</code>, every endpoint gets one MBean instead, e.g.
+ * <code>metrics:type=resources,name="orders|GET"</code>, with the attributes of all its included metrics, e.g.
+ * <code>timer.p99</code> or <code>200.count</code>. Only the attributes requested are read, and the snapshot of a
+ * metric is only taken, if a snapshot attribute is requested.
+ */
+@Slf4j
+class JmxMetrics implements Closeable {
+    private final MetricRegistry metrics;
+    private final MBeanServer server;
+    private final String domain;
+    private final JmxReporter reporter;
+    private final Predicate<String> filter;
+    private final EndpointMBeans endpoints;
+
+    JmxMetrics(MetricRegistry metrics, MetricsConfig config, MBeanServer server) {
+        this.metrics = metrics;
+        this.server = server;
+        this.domain = config.get("jmx.domain", "metrics");
+        List<Pattern> includes = globs(config.get("jmx.include", "*"));
+        List<Pattern> excludes = globs(config.get("jmx.exclude", ""));
+        this.filter = name -> matches(includes, name) && !matches(excludes, name);
+        this.endpoints = config.get("jmx.endpoints", "none").trim().equals("composite") ? new EndpointMBeans() : null;
+        this.reporter = JmxReporter.forRegistry(metrics)
+                                   .registerWith(server)
+                                   .inDomain(domain)
+                                   .filter((name, metric) -> filter.test(name)
+                                           && (endpoints == null || endpoint(name) == null))
+                                   .build();
+    }
+
+    private static List<Pattern> globs(String list) {
+        return Arrays.stream(list.split(","))
+                     .map(String::trim)
+                     .filter(glob -> !glob.isEmpty())
+                     .map(MetricQuery::glob)
+                     .collect(toList());
+    }
+
+    private static boolean matches(List<Pattern> patterns, String name) {
+        return patterns.stream().anyMatch(pattern -> pattern.matcher(name).matches());
+    }
+
+    /** The name of the endpoint, i.e. without the last <code>|</code> suffix, or <code>null</code> */
+    static String endpoint(String name) {
+        if (!name.startsWith(Endpoints.RESOURCES + "/") && !name.startsWith(Endpoints.CALLS + "/"))
+            return null;
+        int pipe = name.lastIndexOf('|');
+        return (pipe < 0) ? null : name.substring(0, pipe);
+    }
+
+    void start() {
+        reporter.start();
+        if (endpoints != null)
+            metrics.addListener(endpoints);
+    }
+
+    @Override public void close() {
+        reporter.close();
+        if (endpoints != null) {
+            metrics.removeListener(endpoints);
+            endpoints.unregisterAll();
+        }
+    }
+
+    ObjectName objectName(String endpoint) throws MalformedObjectNameException {
+        int slash = endpoint.indexOf('/');
+        return new ObjectName(domain + ":type=" + endpoint.substring(0, slash)
+                + ",name=" + ObjectName.quote(endpoint.substring(slash + 1)));
+    }
+
+    private class EndpointMBeans extends MetricRegistryListener.Base {
+        private final Map<String, EndpointMBean> mbeans = new HashMap<>();
+
+        @Override public void onGaugeAdded(String name, Gauge<?> gauge) { add(name, gauge); }
+
+        @Override public void onCounterAdded(String name, Counter counter) { add(name, counter); }
+
+        @Override public void onHistogramAdded(String name, Histogram histogram) { add(name, histogram); }
+
+        @Override public void onMeterAdded(String name, Meter meter) { add(name, meter); }
+
+        @Override public void onTimerAdded(String name, Timer timer) { add(name, timer); }
+
+        @Override public void onGaugeRemoved(String name) { remove(name); }
+
+        @Override public void onCounterRemoved(String name) { remove(name); }
+
+        @Override public void onHistogramRemoved(String name) { remove(name); }
+
+        @Override public void onMeterRemoved(String name) { remove(name); }
+
+        @Override public void onTimerRemoved(String name) { remove(name); }
+
+        private synchronized void add(String name, Metric metric) {
+            String endpoint = endpoint(name);
+            if (endpoint == null || !filter.test(name))
+                return;
+            EndpointMBean mbean = mbeans.get(endpoint);
+            if (mbean == null) {
+                mbean = new EndpointMBean(endpoint);
+                try {
+                    server.registerMBean(mbean, objectName(endpoint));
+                } catch (JMException e) {
+                    log.warn("can't register mbean for {}: {}", endpoint, e.toString());
+                    return;
+                }
+                mbeans.put(endpoint, mbean);
+            }
+            mbean.metrics.put(name.substring(endpoint.length() + 1), metric);
+        }
+
+        private synchronized void remove(String name) {
+            String endpoint = endpoint(name);
+            EndpointMBean mbean = (endpoint == null) ? null : mbeans.get(endpoint);
+            if (mbean == null)
+                return;
+            mbean.metrics.remove(name.substring(endpoint.length() + 1));
+            if (mbean.metrics.isEmpty()) {
+                mbeans.remove(endpoint);
+                unregister(endpoint);
+            }
+        }
+
+        private synchronized void unregisterAll() {
+            mbeans.keySet().forEach(this::unregister);
+            mbeans.clear();
+        }
+
+        private void unregister(String endpoint) {
+            try {
+                server.unregisterMBean(objectName(endpoint));
+            } catch (JMException e) {
+                log.debug("can't unregister mbean for {}: {}", endpoint, e.toString());
+            }
+        }
+    }
+
+    /** The attributes of all metrics of one endpoint, named by the suffix of the metric and the attribute */
+    private static class EndpointMBean implements DynamicMBean {
+        private final String endpoint;
+        private final Map<String, Metric> metrics = new ConcurrentSkipListMap<>();
+
+        private EndpointMBean(String endpoint) { this.endpoint = endpoint; }
+
+        /** The values of the attributes by their names; every metric is read once, for only the attributes named */
+        private Map<String, Object> read(Collection<String> names) {
+            Map<String, Set<String>> requested = new LinkedHashMap<>();
+            for (String name : names) {
+                int dot = name.lastIndexOf('.');
+                if (dot > 0)
+                    requested.computeIfAbsent(name.substring(0, dot), suffix -> new LinkedHashSet<>())
+                             .add(name.substring(dot + 1));
+            }
+            Map<String, Object> attributes = new LinkedHashMap<>();
+            requested.forEach((suffix, selected) -> {
+                Metric metric = metric(suffix);
+                if (metric != null)
+                    MetricAttributes.visit(new MetricAttributes.Selection(metric, selected),
+                            (name, value) -> attributes.put(suffix + "." + name, value));
+            });
+            return attributes;
+        }
+
+        /** The metric with the suffix, also one of the meters of the status meters */
+        private Metric metric(String suffix) {
+            Metric metric = metrics.get(suffix);
+            if (metric != null && !(metric instanceof StatusMeters))
+                return metric;
+            for (Metric candidate : metrics.values())
+                if (candidate instanceof StatusMeters) {
+                    Meter meter = ((StatusMeters) candidate).getMeters().get(endpoint + "|" + suffix);
+                    if (meter != null)
+                        return meter;
+                }
+            return null;
+        }
+
+        @Override public Object getAttribute(String name) throws AttributeNotFoundException {
+            Map<String, Object> attributes = read(Collections.singleton(name));
+            if (!attributes.containsKey(name))
+                throw new AttributeNotFoundException(name);
+            return attributes.get(name);
+        }
+
+        @Override public AttributeList getAttributes(String[] names) {
+            AttributeList list = new AttributeList();
+            read(Arrays.asList(names)).forEach((name, value) -> list.add(new Attribute(name, value)));
+            return list;
+        }
+
+        @Override public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("read only: " + attribute.getName());
+        }
+
+        @Override public AttributeList setAttributes(AttributeList attributes) { return new AttributeList(); }
+
+        @Override public Object invoke(String action, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(action));
+        }
+
+        /** Only from the names of the metrics and the attributes they have, so nothing is read */
+        @Override public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            metrics.forEach((suffix, metric) -> {
+                if (metric instanceof StatusMeters)
+                    ((StatusMeters) metric).getMeters().forEach((name, meter) ->
+                            info(name.substring(endpoint.length() + 1), meter, attributes));
+                else
+                    info(suffix, metric, attributes);
+            });
+            return new MBeanInfo(getClass().getName(), "the metrics of " + endpoint,
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+
+        private static void info(String prefix, Metric metric, List<MBeanAttributeInfo> attributes) {
+            for (String attribute : MetricAttributes.NAMES)
+                if (MetricAttributes.has(metric, attribute)) {
+                    String name = prefix + "." + attribute;
+                    attributes.add(new MBeanAttributeInfo(name, type(attribute), name, true, false, false));
+                }
+        }
+
+        private static String type(String attribute) {
+            switch (attribute) {
+            case "value":
+                return Object.class.getName();
+            case "count":
+            case "min":
+            case "max":
+                return Long.class.getName();
+            default:
+                return Double.class.getName();
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.github.t1.metrics;
+
+import com.codahale.metrics.*;
+import com.codahale.metrics.jvm.*;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+import static java.lang.management.ManagementFactory.*;
+import static java.util.concurrent.TimeUnit.*;
+
+/**
+ * The JVM metric sets, selected with <code>metrics-ee.jvm</code> as a comma separated list of e.g.
+ * <code>memory,gc</code>, or <code>all</code> (the default), or <code>none</code>.
+ */
+enum JvmMetricSet {
+    ATTRIBUTES("jvm", JvmAttributeGaugeSet::new),
+    CLASS_LOADER("jvm.class-loader", ClassLoadingGaugeSet::new),
+    BUFFER_POOLS("jvm.buffer-pools", () -> new BufferPoolMetricSet(getPlatformMBeanServer())),
+    GC("jvm.gc", GarbageCollectorMetricSet::new),
+    MEMORY("jvm.memory", MemoryUsageGaugeSet::new),
+    THREADS("jvm.threads", () -> new CachedThreadStatesGaugeSet(1, MINUTES));
+
+    private final String prefix;
+    private final Supplier<MetricSet> factory;
+
+    JvmMetricSet(String prefix, Supplier<MetricSet> factory) {
+        this.prefix = prefix;
+        this.factory = factory;
+    }
+
+    public String getPrefix() { return prefix; }
+
+    public MetricSet create() { return factory.get(); }
+
+    static Set<JvmMetricSet> parse(String list) {
+        Set<JvmMetricSet> sets = EnumSet.noneOf(JvmMetricSet.class);
+        for (String item : list.split(",")) {
+            String name = item.trim().toUpperCase().replace('-', '_');
+            if (name.equals("ALL"))
+                sets.addAll(EnumSet.allOf(JvmMetricSet.class));
+            else if (!name.isEmpty() && !name.equals("NONE"))
+                sets.add(valueOf(name));
+        }
+        return sets;
+    }
+}
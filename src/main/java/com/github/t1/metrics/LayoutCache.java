@@ -0,0 +1,56 @@
+package com.github.t1.metrics;
+
+import com.codahale.metrics.Metric;
+
+import java.util.SortedMap;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * The last few layouts a writer prepared, so clients alternating between some queries don't prepare them again
+ * for every request. A layout is found by the hash of the names first and then checked to match; the oldest is
+ * replaced when a new one is prepared.
+ */
+class LayoutCache<L> {
+    static final int SIZE = 8;
+
+    private final Function<SortedMap<String, Metric>, L> prepare;
+    private final BiPredicate<L, SortedMap<String, Metric>> matches;
+    private final AtomicReferenceArray<Entry<L>> entries = new AtomicReferenceArray<>(SIZE);
+    private final AtomicInteger next = new AtomicInteger();
+
+    LayoutCache(Function<SortedMap<String, Metric>, L> prepare, BiPredicate<L, SortedMap<String, Metric>> matches) {
+        this.prepare = prepare;
+        this.matches = matches;
+    }
+
+    private static class Entry<L> {
+        private final int hash;
+        private final L layout;
+
+        private Entry(int hash, L layout) {
+            this.hash = hash;
+            this.layout = layout;
+        }
+    }
+
+    L get(SortedMap<String, Metric> metrics) {
+        int hash = hash(metrics);
+        for (int i = 0; i < SIZE; i++) {
+            Entry<L> entry = entries.get(i);
+            if (entry != null && entry.hash == hash && matches.test(entry.layout, metrics))
+                return entry.layout;
+        }
+        L layout = prepare.apply(metrics);
+        entries.set(Math.floorMod(next.getAndIncrement(), SIZE), new Entry<>(hash, layout));
+        return layout;
+    }
+
+    /** The hash codes of the names are cached in the strings */
+    private static int hash(SortedMap<String, Metric> metrics) {
+        int hash = 1;
+        for (String name : metrics.keySet())
+            hash = 31 * hash + name.hashCode();
+        return hash;
+    }
+}
@@ -0,0 +1,150 @@
+package com.github.t1.metrics;
+
+import com.codahale.metrics.*;
+
+import java.util.*;
+
+import static java.util.Arrays.*;
+
+/**
+ * The attributes of metrics, as rendered by all output formats: <code>count</code>, <code>value</code>, the rates,
+ * and the snapshot statistics, depending on what the metric is. A {@link Sampling} metric is snapshotted only once,
+ * as that copies (and maybe sorts) the reservoir, and so all of its statistics are consistent. A {@link Selection}
+ * visits only the attributes selected, and takes no snapshot, if none of those is a snapshot statistic.
+ */
+public class MetricAttributes {
+    /** Receives the attributes; override the primitive methods to avoid boxing */
+    public interface Visitor {
+        void attribute(String name, Object value);
+
+        default void attribute(String name, long value) { attribute(name, (Object) value); }
+
+        default void attribute(String name, double value) { attribute(name, (Object) value); }
+    }
+
+    /** A metric limited to some of its attributes; the output formats that don't support that write all */
+    public static class Selection implements Metric {
+        private final Metric metric;
+        private final Set<String> attributes;
+
+        public Selection(Metric metric, Set<String> attributes) {
+            this.metric = metric;
+            this.attributes = attributes;
+        }
+
+        public Metric getMetric() { return metric; }
+
+        public Set<String> getAttributes() { return attributes; }
+
+        @Override public String toString() { return metric.toString(); }
+    }
+
+    private static final List<String> SNAPSHOT = asList(
+            "min", "mean", "max", "stddev", "p50", "p75", "p95", "p98", "p99", "p999");
+
+    /** All attribute names, in the order they are visited */
+    public static final List<String> NAMES = Collections.unmodifiableList(asList(
+            "count", "value", "mean_rate", "m1_rate", "m5_rate", "m15_rate",
+            "min", "mean", "max", "stddev", "p50", "p75", "p95", "p98", "p99", "p999"));
+
+    private MetricAttributes() {}
+
+    /** The metric itself, if it's a {@link Selection} */
+    public static Metric unwrap(Metric metric) {
+        return (metric instanceof Selection) ? ((Selection) metric).getMetric() : metric;
+    }
+
+    /** The number of attributes {@link #visit(Metric, Visitor) visited}, without reading any */
+    public static int count(Metric metric) {
+        if (metric instanceof Selection) {
+            Metric selected = ((Selection) metric).getMetric();
+            int count = 0;
+            for (String attribute : ((Selection) metric).getAttributes())
+                if (has(selected, attribute))
+                    count++;
+            return count;
+        }
+        int count = 0;
+        if (metric instanceof Counting)
+            count++;
+        if (metric instanceof Gauge)
+            count++;
+        if (metric instanceof Metered)
+            count += 4;
+        if (metric instanceof Sampling)
+            count += 10;
+        return count;
+    }
+
+    /** Will the attribute be {@link #visit(Metric, Visitor) visited}? */
+    public static boolean has(Metric metric, String attribute) {
+        if (metric instanceof Selection)
+            return ((Selection) metric).getAttributes().contains(attribute)
+                    && has(((Selection) metric).getMetric(), attribute);
+        switch (attribute) {
+        case "count":
+            return metric instanceof Counting;
+        case "value":
+            return metric instanceof Gauge;
+        case "mean_rate":
+        case "m1_rate":
+        case "m5_rate":
+        case "m15_rate":
+            return metric instanceof Metered;
+        default:
+            return metric instanceof Sampling && SNAPSHOT.contains(attribute);
+        }
+    }
+
+    public static void visit(Metric metric, Visitor visitor) {
+        if (metric instanceof Selection) {
+            Set<String> attributes = ((Selection) metric).getAttributes();
+            visit(((Selection) metric).getMetric(), !Collections.disjoint(attributes, SNAPSHOT), new Visitor() {
+                @Override public void attribute(String name, Object value) {
+                    if (attributes.contains(name))
+                        visitor.attribute(name, value);
+                }
+
+                @Override public void attribute(String name, long value) {
+                    if (attributes.contains(name))
+                        visitor.attribute(name, value);
+                }
+
+                @Override public void attribute(String name, double value) {
+                    if (attributes.contains(name))
+                        visitor.attribute(name, value);
+                }
+            });
+        } else {
+            visit(metric, true, visitor);
+        }
+    }
+
+    @SuppressWarnings("ChainOfInstanceofChecks")
+    private static void visit(Metric metric, boolean withSnapshot, Visitor visitor) {
+        if (metric instanceof Counting)
+            visitor.attribute("count", ((Counting) metric).getCount());
+        if (metric instanceof Gauge)
+            visitor.attribute("value", ((Gauge) metric).getValue());
+        if (metric instanceof Metered) {
+            Metered metered = (Metered) metric;
+            visitor.attribute("mean_rate", metered.getMeanRate());
+            visitor.attribute("m1_rate", metered.getOneMinuteRate());
+            visitor.attribute("m5_rate", metered.getFiveMinuteRate());
+            visitor.attribute("m15_rate", metered.getFifteenMinuteRate());
+        }
+        if (metric instanceof Sampling && withSnapshot) {
+            Snapshot snapshot = ((Sampling) metric).getSnapshot();
+            visitor.attribute("min", snapshot.getMin());
+            visitor.attribute("mean", snapshot.getMean());
+            visitor.attribute("max", snapshot.getMax());
+            visitor.attribute("stddev", snapshot.getStdDev());
+            visitor.attribute("p50", snapshot.getMedian());
+            visitor.attribute("p75", snapshot.get75thPercentile());
+            visitor.attribute("p95", snapshot.get95thPercentile());
+            visitor.attribute("p98", snapshot.get98thPercentile());
+            visitor.attribute("p99", snapshot.get99thPercentile());
+            visitor.attribute("p999", snapshot.get999thPercentile());
+        }
+    }
+}
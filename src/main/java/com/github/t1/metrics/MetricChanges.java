@@ -0,0 +1,179 @@
+package com.github.t1.metrics;
+
+import com.codahale.metrics.*;
+import com.codahale.metrics.Timer;
+
+import java.util.*;
+
+/**
+ * Tracks which metrics changed between scrapes. Every scan stamps a metric with the sequence number of the scan,
+ * when it was added or when its count changed. A client passes the cursor (i.e. the sequence number) of its previous
+ * scan to get only the metrics stamped later, and the names removed since then. The removals are taken from the
+ * events of the {@link MetricRegistry}. When {@link StatusMeters} are removed, the names of the meters that clients
+ * actually got are reported as removed, not the name of the status meters themselves.
+ * <p>
+ * Gauges are always returned: reading their values to find out if they changed would cost as much as returning
+ * them, and would compute expensive gauges on every scan, even those no client asked for.
+ * <p>
+ * Only the last {@value #MAX_REMOVED} removals are remembered; older cursors, cursors from before a restart (the
+ * sequence starts at the current time), and cursors from the future are reset, i.e. they get all metrics.
+ */
+public class MetricChanges {
+    static final int MAX_REMOVED = 10_000;
+
+    private final Map<String, Stamp> stamps = new HashMap<>();
+    /** The sequence number when the metric was removed, oldest first */
+    private final LinkedHashMap<String, Long> removed = new LinkedHashMap<>();
+    /** The status meters by the name they are registered with */
+    private final Map<String, StatusMeters> statusMeters = new HashMap<>();
+    private long sequence;
+    /** Cursors before this may have missed a removal that is not remembered any more */
+    private long horizon;
+
+    public MetricChanges(MetricRegistry metrics) { this(metrics, System.currentTimeMillis() << 20); }
+
+    MetricChanges(MetricRegistry metrics, long start) {
+        this.sequence = this.horizon = start;
+        metrics.addListener(new Listener());
+    }
+
+    private static class Stamp {
+        private long count;
+        private long modified;
+
+        private Stamp(long count, long modified) {
+            this.count = count;
+            this.modified = modified;
+        }
+    }
+
+    public static class Delta {
+        private final long cursor;
+        private final boolean reset;
+        private final SortedMap<String, Metric> metrics;
+        private final SortedSet<String> removed;
+
+        private Delta(long cursor, boolean reset, SortedMap<String, Metric> metrics, SortedSet<String> removed) {
+            this.cursor = cursor;
+            this.reset = reset;
+            this.metrics = metrics;
+            this.removed = removed;
+        }
+
+        /** Pass this to get the changes after this delta */
+        public long getCursor() { return cursor; }
+
+        /** The cursor was unknown, so the metrics are all metrics */
+        public boolean isReset() { return reset; }
+
+        public SortedMap<String, Metric> getMetrics() { return metrics; }
+
+        public SortedSet<String> getRemoved() { return removed; }
+    }
+
+    /** The changes of the <code>metrics</code> since the <code>cursor</code> */
+    public synchronized Delta since(long cursor, SortedMap<String, Metric> metrics) {
+        long scan = ++sequence;
+        boolean reset = cursor < horizon || cursor >= scan;
+        SortedMap<String, Metric> changed = new TreeMap<>();
+        metrics.forEach((name, metric) -> {
+            Metric unwrapped = unwrap(metric);
+            long modified = (unwrapped instanceof Counting)
+                    ? stamp(name, ((Counting) unwrapped).getCount(), scan)
+                    : scan; // gauges
+            if (reset || modified > cursor)
+                changed.put(name, metric);
+        });
+        SortedSet<String> removedSince = new TreeSet<>();
+        if (!reset)
+            removed.forEach((name, stamp) -> {
+                if (stamp > cursor)
+                    removedSince.add(name);
+            });
+        return new Delta(scan, reset, changed, removedSince);
+    }
+
+    /** @return the sequence number of the scan that saw the count for the first time */
+    private long stamp(String name, long count, long scan) {
+        Stamp stamp = stamps.get(name);
+        if (stamp == null) {
+            stamps.put(name, new Stamp(count, scan));
+            return scan;
+        }
+        if (stamp.count != count) {
+            stamp.count = count;
+            stamp.modified = scan;
+        }
+        return stamp.modified;
+    }
+
+    private static Metric unwrap(Metric metric) {
+        return (metric instanceof MetricAttributes.Selection)
+                ? ((MetricAttributes.Selection) metric).getMetric() : metric;
+    }
+
+    /** A metric added again is stamped as new by the next scan, even if it has the same count as the old one */
+    private synchronized void added(String name) {
+        stamps.remove(name);
+        removed.remove(name);
+    }
+
+    /** The meters of status meters added again are not removed, just like other metrics added again */
+    private synchronized void added(String name, StatusMeters meters) {
+        added(name);
+        statusMeters.put(name, meters);
+        removed.keySet().removeIf(meters::isMeter);
+    }
+
+    /** Status meters are expanded, so their meters that were scanned are removed instead */
+    private synchronized void removed(String name) {
+        StatusMeters meters = statusMeters.remove(name);
+        if (meters == null) {
+            remove(name);
+        } else {
+            List<String> scanned = new ArrayList<>();
+            for (String stamped : stamps.keySet())
+                if (meters.isMeter(stamped))
+                    scanned.add(stamped);
+            scanned.forEach(this::remove);
+        }
+    }
+
+    /** The next scan is the first that doesn't contain the metric */
+    private void remove(String name) {
+        stamps.remove(name);
+        removed.remove(name);
+        removed.put(name, sequence + 1);
+        for (Iterator<Long> removals = removed.values().iterator(); removed.size() > MAX_REMOVED; ) {
+            horizon = removals.next();
+            removals.remove();
+        }
+    }
+
+    private class Listener implements MetricRegistryListener {
+        @Override public void onGaugeAdded(String name, Gauge<?> gauge) {
+            if (gauge instanceof StatusMeters)
+                added(name, (StatusMeters) gauge);
+            else
+                added(name);
+        }
+
+        @Override public void onGaugeRemoved(String name) { removed(name); }
+
+        @Override public void onCounterAdded(String name, Counter counter) { added(name); }
+
+        @Override public void onCounterRemoved(String name) { removed(name); }
+
+        @Override public void onHistogramAdded(String name, Histogram histogram) { added(name); }
+
+        @Override public void onHistogramRemoved(String name) { removed(name); }
+
+        @Override public void onMeterAdded(String name, Meter meter) { added(name); }
+
+        @Override public void onMeterRemoved(String name) { removed(name); }
+
+        @Override public void onTimerAdded(String name, Timer timer) { added(name); }
+
+        @Override public void onTimerRemoved(String name) { removed(name); }
+    }
+}
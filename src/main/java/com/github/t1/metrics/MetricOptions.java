@@ -0,0 +1,39 @@
+package com.github.t1.metrics;
+
+import javax.enterprise.util.Nonbinding;
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.*;
+
+/**
+ * Qualifies an injected <code>Counter</code>, <code>Meter</code>, <code>Histogram</code>, or <code>Timer</code>,
+ * to configure its name and, for histograms and timers, its {@link ReservoirType reservoir}, e.g.
+ * <code>@Inject @MetricOptions(name = "orders.size", reservoir = HDR_HISTOGRAM, digits = 3) Histogram sizes;</code>
+ * <p>
+ * The reservoir only applies when the metric is created; a metric injected at several places is created only once.
+ */
+@Qualifier
+@Retention(RUNTIME)
+@Target({ FIELD, METHOD, PARAMETER })
+public @interface MetricOptions {
+    /** Relative to the declaring class, unless {@link #absolute()}. Default: the name of the field or method */
+    @Nonbinding String name() default "";
+
+    @Nonbinding boolean absolute() default false;
+
+    @Nonbinding ReservoirType reservoir() default ReservoirType.EXPONENTIALLY_DECAYING;
+
+    /** The number of values in a {@link ReservoirType#SLIDING_WINDOW} or {@link ReservoirType#UNIFORM} reservoir */
+    @Nonbinding int size() default 1028;
+
+    /** The time covered by a {@link ReservoirType#SLIDING_TIME_WINDOW} or {@link ReservoirType#HDR_HISTOGRAM} */
+    @Nonbinding long window() default 60;
+
+    @Nonbinding TimeUnit unit() default TimeUnit.SECONDS;
+
+    /** The significant digits of a {@link ReservoirType#HDR_HISTOGRAM}, 0 to 5 */
+    @Nonbinding int digits() default 2;
+}
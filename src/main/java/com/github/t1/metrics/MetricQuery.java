@@ -0,0 +1,122 @@
+package com.github.t1.metrics;
+
+import com.codahale.metrics.*;
+import com.codahale.metrics.Timer;
+
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import static java.util.Arrays.*;
+import static java.util.stream.Collectors.*;
+
+/**
+ * Selects metrics by name <code>prefix</code>, by <code>name</code> glob (with <code>*</code> and <code>?</code>)
+ * or regex (enclosed in slashes), and by <code>type</code> (<code>counter</code>, <code>gauge</code>,
+ * <code>histogram</code>, <code>meter</code>, or <code>timer</code>), and limits them to some
+ * <code>attributes</code>. The prefix and the literal start of a glob are read as a range from a
+ * {@link SortedMetricRegistry}; other registries are scanned.
+ * <p>
+ * The {@link StatusMeters} are expanded, so they are selected and rendered like any other meter.
+ */
+class MetricQuery {
+    private final String prefix;
+    private final Predicate<String> name;
+    private final Set<String> types;
+    private final Set<String> attributes;
+
+    /** All parameters are optional; the types and attributes may be comma separated lists */
+    MetricQuery(String prefix, String name, List<String> types, String attributes) {
+        String range = (prefix == null) ? "" : prefix;
+        Predicate<String> predicate = n -> true;
+        if (name != null && !name.isEmpty()) {
+            if (name.length() > 1 && name.startsWith("/") && name.endsWith("/")) {
+                Pattern pattern = Pattern.compile(name.substring(1, name.length() - 1));
+                predicate = n -> pattern.matcher(n).matches();
+            } else {
+                Pattern pattern = glob(name);
+                predicate = n -> pattern.matcher(n).matches();
+                String literal = literalPrefix(name);
+                if (literal.startsWith(range))
+                    range = literal;
+                else if (!range.startsWith(literal))
+                    predicate = n -> false;
+            }
+        }
+        this.prefix = range;
+        this.name = predicate;
+        this.types = split(types);
+        this.attributes = split((attributes == null) ? null : singletonList(attributes));
+    }
+
+    private static List<String> singletonList(String value) { return Collections.singletonList(value); }
+
+    private static Set<String> split(List<String> values) {
+        if (values == null || values.isEmpty())
+            return null;
+        Set<String> set = values.stream()
+                                .flatMap(value -> stream(value.split(",")))
+                                .map(String::trim)
+                                .filter(value -> !value.isEmpty())
+                                .collect(toCollection(LinkedHashSet::new));
+        return set.isEmpty() ? null : set;
+    }
+
+    static Pattern glob(String glob) {
+        StringBuilder regex = new StringBuilder();
+        for (String literal : glob.split("(?=[*?])|(?<=[*?])"))
+            if (literal.equals("*"))
+                regex.append(".*");
+            else if (literal.equals("?"))
+                regex.append('.');
+            else if (!literal.isEmpty())
+                regex.append(Pattern.quote(literal));
+        return Pattern.compile(regex.toString());
+    }
+
+    private static String literalPrefix(String glob) {
+        for (int i = 0; i < glob.length(); i++)
+            if (glob.charAt(i) == '*' || glob.charAt(i) == '?')
+                return glob.substring(0, i);
+        return glob;
+    }
+
+    SortedMap<String, Metric> select(MetricRegistry metrics) {
+        SortedMap<String, Metric> result = new TreeMap<>();
+        source(metrics).forEach((name, metric) -> {
+            if (metric instanceof StatusMeters)
+                ((StatusMeters) metric).getMeters().forEach((n, m) -> add(result, n, m));
+            else
+                add(result, name, metric);
+        });
+        return result;
+    }
+
+    private Map<String, Metric> source(MetricRegistry metrics) {
+        if (!(metrics instanceof SortedMetricRegistry))
+            return metrics.getMetrics();
+        // the status meters are registered as `|status`, but expanded to `|200`, etc.
+        int pipe = prefix.lastIndexOf('|');
+        return ((SortedMetricRegistry) metrics).getMetrics((pipe < 0) ? prefix : prefix.substring(0, pipe + 1));
+    }
+
+    private void add(SortedMap<String, Metric> result, String name, Metric metric) {
+        if (name.startsWith(prefix) && this.name.test(name) && (types == null || types.contains(type(metric))))
+            result.put(name, (attributes == null) ? metric : new MetricAttributes.Selection(metric, attributes));
+    }
+
+    @SuppressWarnings("ChainOfInstanceofChecks")
+    private static String type(Metric metric) {
+        if (metric instanceof Timer)
+            return "timer";
+        if (metric instanceof Meter)
+            return "meter";
+        if (metric instanceof Histogram)
+            return "histogram";
+        if (metric instanceof Counter)
+            return "counter";
+        if (metric instanceof Gauge)
+            return "gauge";
+        return "other";
+    }
+}
@@ -13,41 +13,187 @@ import java.util.*;
 import static javax.ws.rs.core.MediaType.*;
 import static javax.ws.rs.core.Response.Status.*;
 
+/**
+ * The metrics and health checks, compressed if the client accepts it, and with a weak <code>ETag</code> that changes
+ * when metrics are added or removed or their counts or gauge values change, so clients polling with
+ * <code>If-None-Match</code> get a <code>304 Not Modified</code> when nothing changed. Rates and snapshot statistics
+ * can drift with time even when nothing happens; that doesn't change the <code>ETag</code>.
+ * <p>
+ * When the health checks run in the background (see {@link ParallelHealthCheckRegistry}), the
+ * <code>Metrics-Health-Age-Millis</code> header contains the milliseconds since the oldest result was taken. It's not
+ * the HTTP <code>Age</code> header, as the response doesn't come from a cache.
+ */
 @Path("/")
+@Compressed
 public class MetricsBoundary {
     private static final MediaType DEFAULT_MEDIA_TYPE = APPLICATION_JSON_TYPE;
 
+    public static final String CURSOR = "Metrics-Cursor";
+    public static final String REMOVED = "Metrics-Removed";
+    public static final String RESET = "Metrics-Reset";
+    public static final String HEALTH_AGE = "Metrics-Health-Age-Millis";
+
     @Inject MetricRegistry metrics;
+    @Inject MetricChanges changes;
     @Inject HealthCheckRegistry healthChecks;
 
     @Context HttpHeaders headers;
+    @Context Request request;
+
+    public Response getMetrics() { return getMetrics(null, null, null, null); }
 
+    /** All parameters are optional; see {@link MetricQuery} */
     @GET
     @Path("/-metrics")
-    public Response getMetrics() {
+    public Response getMetrics(
+            @QueryParam("prefix") String prefix,
+            @QueryParam("name") String name,
+            @QueryParam("type") List<String> types,
+            @QueryParam("attributes") String attributes) {
+        MetricQuery query = new MetricQuery(prefix, name, types, attributes);
+        SortedMap<String, Metric> selected = readGauges(query.select(metrics));
+        MediaType type = responseType();
+        EntityTag tag = metricsTag(selected, type);
+        Response.ResponseBuilder notModified = request.evaluatePreconditions(tag);
+        if (notModified != null)
+            return notModified.build();
         return Response.status(OK)
-                       .entity(new GenericEntity<SortedMap<String, Metric>>(new TreeMap<>(metrics.getMetrics())) {})
-                       .type(responseType())
+                       .entity(new GenericEntity<SortedMap<String, Metric>>(selected) {})
+                       .type(type)
+                       .tag(tag)
                        .build();
     }
 
+    /**
+     * Only the metrics added or changed since the <code>cursor</code> of a previous response; see
+     * {@link MetricChanges}. The next cursor is in the <code>Metrics-Cursor</code> header, every metric removed in a
+     * <code>Metrics-Removed</code> header, and <code>Metrics-Reset: true</code> means that the cursor was unknown, so
+     * all metrics are returned.
+     */
+    @GET
+    @Path("/-metrics/changes")
+    public Response getMetricChanges(@QueryParam("cursor") @DefaultValue("0") long cursor) {
+        MetricChanges.Delta delta = changes.since(cursor, new MetricQuery(null, null, null, null).select(metrics));
+        Response.ResponseBuilder response = Response.status(OK)
+                .entity(new GenericEntity<SortedMap<String, Metric>>(delta.getMetrics()) {})
+                .type(responseType())
+                .header(CURSOR, delta.getCursor());
+        if (delta.isReset())
+            response.header(RESET, true);
+        for (String name : delta.getRemoved())
+            response.header(REMOVED, name);
+        return response.build();
+    }
+
     @GET
     @Path("/-healthchecks")
     public Response getHealthChecks() {
         SortedMap<String, Result> results = healthChecks.runHealthChecks();
         boolean healthy = results.values().stream().allMatch(Result::isHealthy);
-        return Response.status(healthy ? OK : INTERNAL_SERVER_ERROR)
-                       .entity(new GenericEntity<SortedMap<String, Result>>(new TreeMap<>(results)) {})
-                       .type(responseType()).build();
+        MediaType type = responseType();
+        EntityTag tag = healthTag(results, type);
+        if (healthy) { // preconditions only apply to successful responses; a failure must never be `304`
+            Response.ResponseBuilder notModified = request.evaluatePreconditions(tag);
+            if (notModified != null)
+                return notModified.build();
+        }
+        Response.ResponseBuilder response = Response.status(healthy ? OK : INTERNAL_SERVER_ERROR)
+                .entity(new GenericEntity<SortedMap<String, Result>>(new TreeMap<>(results)) {})
+                .type(type)
+                .tag(tag);
+        if (healthChecks instanceof ParallelHealthCheckRegistry) {
+            ParallelHealthCheckRegistry parallel = (ParallelHealthCheckRegistry) healthChecks;
+            if (parallel.isScheduled()) // otherwise the checks just ran for this request
+                response.header(HEALTH_AGE, parallel.getAgeMillis());
+        }
+        return response.build();
+    }
+
+    /**
+     * Replace the gauges with their current values, so the tag and the entity use the same values, and expensive
+     * gauges are computed only once per request.
+     */
+    private static SortedMap<String, Metric> readGauges(SortedMap<String, Metric> selected) {
+        selected.replaceAll((name, metric) -> {
+            if (metric instanceof MetricAttributes.Selection) {
+                MetricAttributes.Selection selection = (MetricAttributes.Selection) metric;
+                if (!(selection.getMetric() instanceof Gauge))
+                    return selection;
+                return new MetricAttributes.Selection(new GaugeValue(selection.getMetric()),
+                        selection.getAttributes());
+            }
+            return (metric instanceof Gauge) ? new GaugeValue(metric) : metric;
+        });
+        return selected;
+    }
+
+    private static class GaugeValue implements Gauge<Object> {
+        private final Object value;
+
+        private GaugeValue(Metric gauge) { this.value = ((Gauge<?>) gauge).getValue(); }
+
+        @Override public Object getValue() { return value; }
+
+        @Override public String toString() { return String.valueOf(value); }
+    }
+
+    private EntityTag metricsTag(SortedMap<String, Metric> selected, MediaType type) {
+        long hash = (metrics instanceof SortedMetricRegistry) ? ((SortedMetricRegistry) metrics).getGeneration() : 0;
+        hash = 31 * hash + type.hashCode();
+        for (Map.Entry<String, Metric> entry : selected.entrySet()) {
+            hash = 31 * hash + entry.getKey().hashCode();
+            hash = 31 * hash + valueHash(entry.getValue());
+        }
+        return new EntityTag(Long.toHexString(hash), true);
+    }
+
+    private static long valueHash(Metric metric) {
+        long hash = 0;
+        if (metric instanceof MetricAttributes.Selection) {
+            hash = ((MetricAttributes.Selection) metric).getAttributes().hashCode();
+            metric = ((MetricAttributes.Selection) metric).getMetric();
+        }
+        if (metric instanceof Counting)
+            return 31 * hash + ((Counting) metric).getCount();
+        if (metric instanceof Gauge)
+            return 31 * hash + Objects.hashCode(((Gauge) metric).getValue());
+        return hash;
+    }
+
+    private static EntityTag healthTag(SortedMap<String, Result> results, MediaType type) {
+        long hash = type.hashCode();
+        for (Map.Entry<String, Result> entry : results.entrySet()) {
+            hash = 31 * hash + entry.getKey().hashCode();
+            hash = 31 * hash + Boolean.hashCode(entry.getValue().isHealthy());
+            hash = 31 * hash + Objects.hashCode(entry.getValue().getMessage());
+        }
+        return new EntityTag(Long.toHexString(hash), true);
     }
 
+    /** The acceptable type with the highest quality that is not a wildcard, without the quality parameter */
     private MediaType responseType() {
         String headerString = headers.getHeaderString(HttpHeaders.ACCEPT);
         if (headerString == null)
             return DEFAULT_MEDIA_TYPE;
-        MediaType mediaType = MediaType.valueOf(headerString);
-        if (mediaType.isWildcardType())
+        MediaType best = null;
+        double bestQuality = 0;
+        for (String item : headerString.split(",")) {
+            MediaType mediaType = MediaType.valueOf(item.trim());
+            double quality = quality(mediaType);
+            if (!mediaType.isWildcardType() && quality > bestQuality) {
+                best = mediaType;
+                bestQuality = quality;
+            }
+        }
+        if (best == null)
             return DEFAULT_MEDIA_TYPE;
-        return mediaType;
+        Map<String, String> parameters = new LinkedHashMap<>(best.getParameters());
+        parameters.remove("q");
+        return new MediaType(best.getType(), best.getSubtype(), parameters);
+    }
+
+    private static double quality(MediaType mediaType) {
+        String q = mediaType.getParameters().get("q");
+        return (q == null) ? 1.0 : Double.parseDouble(q);
     }
 }
@@ -0,0 +1,43 @@
+package com.github.t1.metrics;
+
+import java.util.*;
+
+/**
+ * The settings of metrics-ee, taken from properties with the prefix <code>metrics-ee.</code>,
+ * e.g. the system property <code>-Dmetrics-ee.resources.naming=template</code>.
+ */
+public class MetricsConfig {
+    static final String PREFIX = "metrics-ee.";
+
+    private final Properties properties;
+
+    public MetricsConfig(Properties properties) { this.properties = properties; }
+
+    public String get(String key, String defaultValue) { return properties.getProperty(PREFIX + key, defaultValue); }
+
+    /** All properties with keys starting with the <code>key</code> and a dot, mapped by the rest of the key */
+    public Map<String, String> getAll(String key) {
+        String prefix = PREFIX + key + ".";
+        Map<String, String> map = new LinkedHashMap<>();
+        for (String name : properties.stringPropertyNames())
+            if (name.startsWith(prefix))
+                map.put(name.substring(prefix.length()), properties.getProperty(name));
+        return map;
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        String value = get(key, null);
+        return (value == null) ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+
+    public int getInt(String key, int defaultValue) {
+        String value = get(key, null);
+        return (value == null) ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    public <E extends Enum<E>> E getEnum(String key, E defaultValue) {
+        String value = get(key, null);
+        return (value == null) ? defaultValue
+                : Enum.valueOf(defaultValue.getDeclaringClass(), value.trim().toUpperCase().replace('-', '_'));
+    }
+}
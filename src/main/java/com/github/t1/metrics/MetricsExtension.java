@@ -0,0 +1,103 @@
+package com.github.t1.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.annotation.*;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.enterprise.event.Observes;
+import javax.enterprise.inject.spi.*;
+import javax.ws.rs.Path;
+import javax.ws.rs.container.Suspended;
+import java.lang.reflect.Method;
+import java.util.*;
+
+/**
+ * Binds the {@link AsyncTrackedInterceptor} to all JAX-RS resources with a <code>@Suspended</code> parameter, and the
+ * {@link InstrumentedInterceptor} to all beans with methods annotated with the Dropwizard metrics annotations. The
+ * names of those metrics are derived when the bean types are processed, and the metrics are resolved after the
+ * deployment is validated, so the interceptor only has to look up the method.
+ */
+@Slf4j
+public class MetricsExtension implements Extension {
+    private final Map<Method, InstrumentedMethod.Names> names = new HashMap<>();
+    private final Map<Class<?>, List<InstrumentedGauge>> gauges = new HashMap<>();
+
+    private volatile Map<Method, InstrumentedMethod> methods = Collections.emptyMap();
+    private volatile MetricRegistry metrics;
+
+    <T> void processAnnotatedType(@Observes @WithAnnotations(Path.class) ProcessAnnotatedType<T> event) {
+        AnnotatedType<T> type = event.getAnnotatedType();
+        if (hasSuspendedParameter(type)) {
+            log.debug("track async responses of {}", type.getJavaClass().getName());
+            event.setAnnotatedType(new AnnotatedTypeDecorator<>(type, AsyncTracked.Literal.INSTANCE));
+        }
+    }
+
+    <T> void processInstrumented(@Observes @WithAnnotations({ Timed.class, Metered.class, Counted.class,
+            ExceptionMetered.class, Gauge.class }) ProcessAnnotatedType<T> event) {
+        AnnotatedType<T> type = event.getAnnotatedType();
+        boolean instrumented = false;
+        for (AnnotatedMethod<? super T> method : type.getMethods()) {
+            InstrumentedMethod.Names names = InstrumentedMethod.Names.of(type, method);
+            if (names != null) {
+                this.names.put(method.getJavaMember(), names);
+                instrumented = true;
+            }
+            Gauge gauge = method.getAnnotation(Gauge.class);
+            if (gauge != null) {
+                InstrumentedGauge instrumentedGauge = new InstrumentedGauge(type, method, gauge);
+                log.debug("gauge {}", instrumentedGauge.getName());
+                gauges.computeIfAbsent(type.getJavaClass(), c -> new ArrayList<>()).add(instrumentedGauge);
+                instrumented = true;
+            }
+        }
+        if (instrumented) {
+            log.debug("instrument {}", type.getJavaClass().getName());
+            event.setAnnotatedType(new AnnotatedTypeDecorator<>(type, Instrumented.Literal.INSTANCE));
+        }
+    }
+
+    void resolveInstrumented(@Observes AfterDeploymentValidation event, BeanManager beanManager) {
+        if (names.isEmpty() && gauges.isEmpty())
+            return;
+        Bean<?> bean = beanManager.resolve(beanManager.getBeans(MetricRegistry.class));
+        MetricRegistry metrics = (MetricRegistry) beanManager.getReference(bean, MetricRegistry.class,
+                beanManager.createCreationalContext(bean));
+        resolve(metrics);
+    }
+
+    void resolve(MetricRegistry metrics) {
+        Map<Method, InstrumentedMethod> methods = new HashMap<>();
+        names.forEach((method, names) -> methods.put(method, new InstrumentedMethod(names, metrics)));
+        this.metrics = metrics;
+        this.methods = methods;
+    }
+
+    InstrumentedMethod getMethod(Method method) { return methods.get(method); }
+
+    synchronized void registerGauges(Object target) {
+        for (InstrumentedGauge gauge : gauges(target.getClass()))
+            gauge.register(metrics, target);
+    }
+
+    synchronized void removeGauges(Object target) {
+        for (InstrumentedGauge gauge : gauges(target.getClass()))
+            gauge.remove(metrics, target);
+    }
+
+    /** The target may be a subclass generated by the container */
+    private List<InstrumentedGauge> gauges(Class<?> type) {
+        for (Class<?> c = type; c != null; c = c.getSuperclass())
+            if (gauges.containsKey(c))
+                return gauges.get(c);
+        return Collections.emptyList();
+    }
+
+    private static boolean hasSuspendedParameter(AnnotatedType<?> type) {
+        for (AnnotatedMethod<?> method : type.getMethods())
+            for (AnnotatedParameter<?> parameter : method.getParameters())
+                if (parameter.isAnnotationPresent(Suspended.class))
+                    return true;
+        return false;
+    }
+}
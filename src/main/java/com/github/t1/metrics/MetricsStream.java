@@ -0,0 +1,185 @@
+package com.github.t1.metrics;
+
+import com.codahale.metrics.*;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import static java.nio.charset.StandardCharsets.*;
+import static java.util.concurrent.TimeUnit.*;
+
+/**
+ * Pushes snapshots of the metrics to {@link Subscriber}s as Server-Sent Events. All subscribers with the same query and
+ * interval share one feed, which selects and serializes the metrics once per interval and offers the same frame to all
+ * of them, so many subscribers cost about the same as one. A feed is started with its first subscriber and stopped
+ * with its last. The feeds are triggered by the scheduler but serialized on the executor, and a feed skips its turn
+ * while its previous frame is still being serialized.
+ * <p>
+ * The interval is at least <code>metrics-ee.stream.min-interval-millis</code> (default 100). There are at most
+ * <code>metrics-ee.stream.max-feeds</code> (default 10) feeds and <code>metrics-ee.stream.max-subscribers</code>
+ * (default 100) subscribers; more are rejected. Subscribers that can't keep up only write the latest frame; the frames
+ * they skip are metered as <code>metrics-ee.stream.dropped</code>.
+ */
+@Slf4j
+public class MetricsStream {
+    /** Receives the frames of a feed; must not block */
+    interface Subscriber {
+        void offer(byte[] frame);
+    }
+
+    private final MetricRegistry metrics;
+    private final ObjectMapper mapper = new JacksonMagic().getContext(Object.class);
+    private final long minIntervalMillis;
+    private final int maxFeeds;
+    private final int maxSubscribers;
+    private final Meter dropped;
+    private final Map<Key, Feed> feeds = new HashMap<>();
+
+    private ScheduledExecutorService scheduler;
+    private Executor executor;
+    private int subscriberCount;
+
+    public MetricsStream(MetricRegistry metrics, MetricsConfig config) {
+        this.metrics = metrics;
+        this.minIntervalMillis = config.getInt("stream.min-interval-millis", 100);
+        this.maxFeeds = config.getInt("stream.max-feeds", 10);
+        this.maxSubscribers = config.getInt("stream.max-subscribers", 100);
+        this.dropped = metrics.meter("metrics-ee.stream.dropped");
+    }
+
+    public synchronized void start(ScheduledExecutorService scheduler, Executor executor) {
+        this.scheduler = scheduler;
+        this.executor = executor;
+    }
+
+    public synchronized void stop() {
+        feeds.values().forEach(Feed::cancel);
+        feeds.clear();
+        subscriberCount = 0;
+        this.scheduler = null;
+        this.executor = null;
+    }
+
+    long getIntervalMillis(long requested) { return Math.max(requested, minIntervalMillis); }
+
+    void drop(long frames) { dropped.mark(frames); }
+
+    /**
+     * Subscribers with equal <code>query</code> strings and intervals share a feed of the <code>metricQuery</code>.
+     *
+     * @return <code>false</code> if there are already too many feeds or subscribers
+     */
+    synchronized boolean subscribe(String query, MetricQuery metricQuery, long intervalMillis, Subscriber subscriber) {
+        if (scheduler == null)
+            throw new IllegalStateException("metrics stream not started");
+        if (subscriberCount >= maxSubscribers) {
+            log.debug("reject subscriber: {} subscribers already", subscriberCount);
+            return false;
+        }
+        Key key = new Key(query, getIntervalMillis(intervalMillis));
+        Feed feed = feeds.get(key);
+        if (feed == null) {
+            if (feeds.size() >= maxFeeds) {
+                log.debug("reject feed {}: {} feeds already", key, feeds.size());
+                return false;
+            }
+            log.debug("start feed {}", key);
+            feeds.put(key, feed = new Feed(metricQuery, executor));
+            feed.future = scheduler.scheduleAtFixedRate(feed::trigger, 0, key.intervalMillis, MILLISECONDS);
+        }
+        if (feed.subscribers.add(subscriber))
+            subscriberCount++;
+        return true;
+    }
+
+    synchronized void unsubscribe(Subscriber subscriber) {
+        for (Iterator<Map.Entry<Key, Feed>> entries = feeds.entrySet().iterator(); entries.hasNext(); ) {
+            Map.Entry<Key, Feed> entry = entries.next();
+            Feed feed = entry.getValue();
+            if (feed.subscribers.remove(subscriber)) {
+                subscriberCount--;
+                if (feed.subscribers.isEmpty()) {
+                    log.debug("stop feed {}", entry.getKey());
+                    feed.cancel();
+                    entries.remove();
+                }
+            }
+        }
+    }
+
+    private static class Key {
+        private final String query;
+        private final long intervalMillis;
+
+        private Key(String query, long intervalMillis) {
+            this.query = query;
+            this.intervalMillis = intervalMillis;
+        }
+
+        @Override public boolean equals(Object that) {
+            return that instanceof Key
+                    && ((Key) that).query.equals(query) && ((Key) that).intervalMillis == intervalMillis;
+        }
+
+        @Override public int hashCode() { return 31 * query.hashCode() + Long.hashCode(intervalMillis); }
+
+        @Override public String toString() { return "[" + query + "] every " + intervalMillis + "ms"; }
+    }
+
+    private class Feed {
+        private final MetricQuery query;
+        private final Executor executor;
+        private final Set<Subscriber> subscribers = new CopyOnWriteArraySet<>();
+        private final AtomicLong sequence = new AtomicLong();
+        private final AtomicBoolean publishing = new AtomicBoolean();
+        private ScheduledFuture<?> future;
+
+        private Feed(MetricQuery query, Executor executor) {
+            this.query = query;
+            this.executor = executor;
+        }
+
+        /** Runs on the scheduler, so it only hands the serialization over to the executor */
+        private void trigger() {
+            if (!publishing.compareAndSet(false, true))
+                return;
+            try {
+                executor.execute(this::publish);
+            } catch (RejectedExecutionException e) {
+                publishing.set(false);
+                log.warn("failed to publish metrics: {}", e.toString()); // don't let the scheduler cancel the feed
+            }
+        }
+
+        private void publish() {
+            try {
+                byte[] frame = frame(sequence.incrementAndGet(), mapper.writeValueAsBytes(query.select(metrics)));
+                for (Subscriber subscriber : subscribers)
+                    subscriber.offer(frame);
+            } catch (RuntimeException | IOException e) {
+                log.warn("failed to publish metrics", e);
+            } finally {
+                publishing.set(false);
+            }
+        }
+
+        private void cancel() {
+            if (future != null)
+                future.cancel(false);
+        }
+    }
+
+    /** A Server-Sent Event; the JSON doesn't contain line breaks, so it fits into one data line */
+    static byte[] frame(long id, byte[] json) {
+        byte[] head = ("id: " + id + "\nevent: metrics\ndata: ").getBytes(UTF_8);
+        byte[] frame = Arrays.copyOf(head, head.length + json.length + 2);
+        System.arraycopy(json, 0, frame, head.length, json.length);
+        frame[frame.length - 2] = '\n';
+        frame[frame.length - 1] = '\n';
+        return frame;
+    }
+}
@@ -0,0 +1,139 @@
+package com.github.t1.metrics;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.inject.Inject;
+import javax.servlet.*;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.*;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.Arrays.*;
+import static javax.servlet.http.HttpServletResponse.*;
+
+/**
+ * Streams the metrics as Server-Sent Events from <code>/-metrics/stream</code> (relative to the web application, not to
+ * the JAX-RS application), selected with the same query parameters as the <code>/-metrics</code> of the
+ * {@link MetricsBoundary}, every <code>interval</code> milliseconds (default 1000); see {@link MetricsStream}.
+ * <p>
+ * This is a servlet, as JAX-RS 2.0 can't stream events. It's asynchronous and writes with non-blocking I/O, so the
+ * subscribers don't hold any threads. When there are too many feeds or subscribers, it responds with
+ * <code>503 Service Unavailable</code>.
+ */
+@Slf4j
+@WebServlet(urlPatterns = "/-metrics/stream", asyncSupported = true)
+public class MetricsStreamServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+
+    public static final String TEXT_EVENT_STREAM = "text/event-stream";
+
+    private static final long DEFAULT_INTERVAL_MILLIS = 1000;
+
+    @Inject MetricsStream stream;
+
+    @Override protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String prefix = request.getParameter("prefix");
+        String name = request.getParameter("name");
+        String[] types = request.getParameterValues("type");
+        String attributes = request.getParameter("attributes");
+        long interval;
+        try {
+            String value = request.getParameter("interval");
+            interval = (value == null) ? DEFAULT_INTERVAL_MILLIS : Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            response.sendError(SC_BAD_REQUEST, "interval must be a number of milliseconds");
+            return;
+        }
+        MetricQuery query = new MetricQuery(prefix, name, (types == null) ? null : asList(types), attributes);
+        String key = prefix + "\n" + name + "\n" + Arrays.toString(types) + "\n" + attributes;
+
+        AsyncContext async = request.startAsync();
+        async.setTimeout(0);
+        Subscription subscription = new Subscription(stream, async, response.getOutputStream());
+        if (!stream.subscribe(key, query, interval, subscription)) {
+            response.sendError(SC_SERVICE_UNAVAILABLE, "too many metrics streams");
+            async.complete();
+            return;
+        }
+        async.addListener(subscription);
+
+        response.setContentType(TEXT_EVENT_STREAM);
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+        response.flushBuffer();
+        response.getOutputStream().setWriteListener(subscription);
+    }
+
+    /**
+     * Writes only the latest frame offered, when the client is ready for it; the frames in between are dropped.
+     * Nothing is written before the container called {@link #onWritePossible()} for the first time.
+     */
+    static class Subscription implements MetricsStream.Subscriber, WriteListener, AsyncListener {
+        private final MetricsStream stream;
+        private final AsyncContext async;
+        private final ServletOutputStream out;
+        private final AtomicReference<byte[]> pending = new AtomicReference<>();
+        private volatile boolean listening;
+        private volatile boolean closed;
+
+        Subscription(MetricsStream stream, AsyncContext async, ServletOutputStream out) {
+            this.stream = stream;
+            this.async = async;
+            this.out = out;
+        }
+
+        @Override public void offer(byte[] frame) {
+            if (pending.getAndSet(frame) != null)
+                stream.drop(1);
+            write();
+        }
+
+        @Override public void onWritePossible() {
+            listening = true;
+            write();
+        }
+
+        private synchronized void write() {
+            try {
+                while (listening && !closed && out.isReady()) {
+                    byte[] frame = pending.getAndSet(null);
+                    if (frame == null)
+                        return;
+                    out.write(frame);
+                    if (out.isReady())
+                        out.flush();
+                }
+            } catch (IOException e) {
+                log.debug("metrics stream subscriber gone: {}", e.toString());
+                close();
+            }
+        }
+
+        @Override public void onError(Throwable throwable) {
+            log.debug("metrics stream failed: {}", throwable.toString());
+            close();
+        }
+
+        @Override public void onComplete(AsyncEvent event) { close(); }
+
+        @Override public void onTimeout(AsyncEvent event) { close(); }
+
+        @Override public void onError(AsyncEvent event) { close(); }
+
+        @Override public void onStartAsync(AsyncEvent event) {}
+
+        private void close() {
+            if (closed)
+                return;
+            closed = true;
+            stream.unsubscribe(this);
+            try {
+                async.complete();
+            } catch (IllegalStateException e) {
+                log.debug("metrics stream already completed");
+            }
+        }
+    }
+}
@@ -11,10 +11,15 @@ import java.io.*;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Type;
 import java.util.*;
-import java.util.function.Function;
 
 import static com.github.t1.metrics.MetricsYamlMessageBodyWriter.*;
+import static java.nio.charset.StandardCharsets.*;
 
+/**
+ * Writes the metrics as a YAML tree: the names are split at dots, slashes, and pipes. The lines for the names and the
+ * indentation of the attributes are prepared once for a set of names, and the last few are kept in a
+ * {@link LayoutCache}. The values are streamed into a buffered UTF-8 sink.
+ */
 @Provider
 @Produces(APPLICATION_YAML)
 @Slf4j
@@ -24,6 +29,8 @@ public class MetricsYamlMessageBodyWriter implements MessageBodyWriter<SortedMap
 
     public static final GenericType METRICS_MAP = new GenericType<SortedMap<String, Metric>>() {};
 
+    private final LayoutCache<Layout> layouts = new LayoutCache<>(
+            metrics -> new Layout(metrics.keySet()), (layout, metrics) -> layout.matches(metrics.keySet()));
 
     @Override
     public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
@@ -37,102 +44,125 @@ public class MetricsYamlMessageBodyWriter implements MessageBodyWriter<SortedMap
     public void writeTo(SortedMap<String, Metric> metrics, Class<?> type, Type genericType, Annotation[] annotations,
             MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream)
             throws IOException, WebApplicationException {
-        try (Writer out = new OutputStreamWriter(entityStream)) {
-            new MetricsWriter(out).write(metrics);
-        }
+        Utf8Sink sink = Utf8Sink.of(entityStream);
+        new MetricsWriter(sink, layouts.get(metrics)).write(metrics);
+        sink.flush();
     }
 
-    @RequiredArgsConstructor
-    private class MetricsWriter {
-        private final Writer out;
-
-        private String lastPath;
-
-        public void write(SortedMap<String, Metric> metrics) {
-            for (Map.Entry<String, Metric> entry : metrics.entrySet()) {
-                String padding = writeKey(entry.getKey());
-                writeValue(padding, entry.getValue());
+    /** The lines for the keys and the padding of the attributes, prepared for one sorted set of names */
+    private static class Layout {
+        private final String[] names;
+        private final byte[][] keys;
+        private final byte[][] paddings;
+
+        private Layout(Set<String> names) {
+            this.names = names.toArray(new String[0]);
+            this.keys = new byte[this.names.length][];
+            this.paddings = new byte[this.names.length][];
+            String lastPath = null;
+            for (int i = 0; i < this.names.length; i++) {
+                StringBuilder key = new StringBuilder();
+                StringBuilder padding = new StringBuilder("\n");
+                lastPath = prepareKey(this.names[i], lastPath, key, padding);
+                this.keys[i] = key.toString().getBytes(UTF_8);
+                this.paddings[i] = padding.toString().getBytes(UTF_8);
             }
-            write("\n");
         }
 
-        private String writeKey(String key) {
-            String padding = "\n";
+        private static String prepareKey(String name, String lastPath, StringBuilder key, StringBuilder padding) {
             String path = "";
-            String[] slashItems = key.split("/", 2);
+            String[] slashItems = name.split("/", 2);
             for (String dotItem : slashItems[0].split("\\.")) {
                 path += dotItem + ".";
                 if (lastPath == null || !lastPath.startsWith(path))
-                    write(padding + dotItem + ":");
-                padding += "  ";
+                    key.append(padding).append(dotItem).append(":");
+                padding.append("  ");
             }
             if (slashItems.length == 2) {
                 String[] pipeItems = slashItems[1].split("\\|", 2);
                 for (String slashItem : pipeItems[0].split("/")) {
                     path += slashItem + "|";
                     if (lastPath == null || !lastPath.startsWith(path))
-                        write(padding + "/" + slashItem + ":");
-                    padding += "  ";
+                        key.append(padding).append("/").append(slashItem).append(":");
+                    padding.append("  ");
                 }
                 if (pipeItems.length == 2) {
                     for (String pipeItem : pipeItems[1].split("\\|")) {
                         path += pipeItem + "|";
                         if (lastPath == null || !lastPath.startsWith(path))
-                            write(padding + pipeItem + ":");
-                        padding += "  ";
+                            key.append(padding).append(pipeItem).append(":");
+                        padding.append("  ");
                     }
                 }
             }
-            lastPath = path;
-            return padding;
+            return path;
         }
 
-        private void writeValue(String padding, Metric value) {
-            writeAttributes(padding, value, getAttributes(value));
+        private boolean matches(Set<String> names) {
+            if (names.size() != this.names.length)
+                return false;
+            int i = 0;
+            for (String name : names)
+                if (!name.equals(this.names[i++]))
+                    return false;
+            return true;
         }
+    }
 
-        @SuppressWarnings("ChainOfInstanceofChecks")
-        private Map<String, Function<Metric, Object>> getAttributes(Metric value) {
-            Map<String, Function<Metric, Object>> attributes = new LinkedHashMap<>();
-            if (value instanceof Counting)
-                attributes.put("count", v -> ((Counting) v).getCount());
-            if (value instanceof Gauge)
-                attributes.put("value", v -> ((Gauge) v).getValue());
-            if (value instanceof Metered) {
-                attributes.put("mean_rate", v -> ((Metered) v).getMeanRate());
-                attributes.put("m1_rate", v -> ((Metered) v).getOneMinuteRate());
-                attributes.put("m5_rate", v -> ((Metered) v).getFiveMinuteRate());
-                attributes.put("m15_rate", v -> ((Metered) v).getFifteenMinuteRate());
-            }
-            if (value instanceof Sampling) {
-                attributes.put("min", v -> ((Sampling) v).getSnapshot().getMin());
-                attributes.put("mean", v -> ((Sampling) v).getSnapshot().getMean());
-                attributes.put("max", v -> ((Sampling) v).getSnapshot().getMax());
-                attributes.put("stddev", v -> ((Sampling) v).getSnapshot().getStdDev());
-                attributes.put("p50", v -> ((Sampling) v).getSnapshot().getMedian());
-                attributes.put("p75", v -> ((Sampling) v).getSnapshot().get75thPercentile());
-                attributes.put("p95", v -> ((Sampling) v).getSnapshot().get95thPercentile());
-                attributes.put("p98", v -> ((Sampling) v).getSnapshot().get98thPercentile());
-                attributes.put("p99", v -> ((Sampling) v).getSnapshot().get99thPercentile());
-                attributes.put("p999", v -> ((Sampling) v).getSnapshot().get999thPercentile());
+    @RequiredArgsConstructor
+    private static class MetricsWriter implements MetricAttributes.Visitor {
+        private static final byte[] COLON = ": ".getBytes(UTF_8);
+
+        private final Utf8Sink out;
+        private final Layout layout;
+
+        private byte[] padding;
+        private boolean inline;
+
+        public void write(SortedMap<String, Metric> metrics) throws IOException {
+            int i = 0;
+            for (Metric metric : metrics.values()) {
+                out.write(layout.keys[i]);
+                padding = layout.paddings[i++];
+                writeValue(metric);
             }
-            return attributes;
+            out.write("\n");
         }
 
-        private void writeAttributes(String padding, Metric value, Map<String, Function<Metric, Object>> attributes) {
-            switch (attributes.size()) {
-            case 0:
-                write(" " + value.toString());
-                break;
-            case 1:
-                write(" " + attributes.values().iterator().next().apply(value));
-                break;
-            default:
-                attributes.forEach((n, f) -> write(padding + n + ": " + f.apply(value)));
-                break;
+        private void writeValue(Metric value) throws IOException {
+            int count = MetricAttributes.count(value);
+            if (count == 0) {
+                out.write(" ").write(value.toString());
+            } else {
+                inline = (count == 1);
+                MetricAttributes.visit(value, this);
             }
         }
 
-        @SneakyThrows(IOException.class) private void write(String str) { out.write(str); }
+        @SneakyThrows(IOException.class)
+        private void name(String name) {
+            if (inline)
+                out.write(" ");
+            else
+                out.write(padding).write(name).write(COLON);
+        }
+
+        @SneakyThrows(IOException.class)
+        @Override public void attribute(String name, Object value) {
+            name(name);
+            out.write(String.valueOf(value));
+        }
+
+        @SneakyThrows(IOException.class)
+        @Override public void attribute(String name, long value) {
+            name(name);
+            out.write(value);
+        }
+
+        @SneakyThrows(IOException.class)
+        @Override public void attribute(String name, double value) {
+            name(name);
+            out.write(value);
+        }
     }
 }
@@ -0,0 +1,245 @@
+package com.github.t1.metrics;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.health.HealthCheck;
+import com.codahale.metrics.health.HealthCheck.Result;
+import com.codahale.metrics.health.HealthCheckRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.util.concurrent.TimeUnit.*;
+
+/**
+ * A {@link HealthCheckRegistry} that runs all health checks concurrently on an executor, so running them takes as long
+ * as the slowest check, not as long as all checks together. A check that takes longer than
+ * <code>metrics-ee.health.timeout-millis</code> (default 5000), or <code>metrics-ee.health.timeout-millis.NAME</code>
+ * for the check with that name, is interrupted and reported as unhealthy. Without an executor, the checks run one
+ * after the other on the calling thread.
+ * <p>
+ * With <code>metrics-ee.health.scheduled=true</code>, the checks run in the background every
+ * <code>metrics-ee.health.interval-millis</code> (default 10000), or
+ * <code>metrics-ee.health.interval-millis.NAME</code>, and running the health checks only returns the latest results,
+ * which are unhealthy until the first run is done.
+ * Checks annotated as {@link ProbeDriven} or with an interval of 0 still run every time.
+ */
+@Slf4j
+public class ParallelHealthCheckRegistry extends HealthCheckRegistry {
+    private final Clock clock;
+    private final boolean scheduled;
+    private final long defaultTimeoutMillis;
+    private final Map<String, Long> timeoutMillis = new HashMap<>();
+    private final long defaultIntervalMillis;
+    private final Map<String, Long> intervalMillis = new HashMap<>();
+    private final ConcurrentMap<String, HealthCheck> healthChecks = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Schedule> schedules = new ConcurrentHashMap<>();
+
+    private volatile ExecutorService executor;
+    private ScheduledExecutorService scheduler;
+
+    public ParallelHealthCheckRegistry(MetricsConfig config) { this(config, Clock.defaultClock()); }
+
+    public ParallelHealthCheckRegistry(MetricsConfig config, Clock clock) {
+        this.clock = clock;
+        this.scheduled = config.getBoolean("health.scheduled", false);
+        this.defaultTimeoutMillis = config.getInt("health.timeout-millis", 5000);
+        config.getAll("health.timeout-millis").forEach((name, value) -> timeoutMillis.put(name, Long.valueOf(value)));
+        this.defaultIntervalMillis = config.getInt("health.interval-millis", 10_000);
+        config.getAll("health.interval-millis").forEach((name, value) -> intervalMillis.put(name, Long.valueOf(value)));
+    }
+
+    public void start(ExecutorService executor) { start(executor, null); }
+
+    /** Without a scheduler, the checks are not scheduled, even when configured */
+    public synchronized void start(ExecutorService executor, ScheduledExecutorService scheduler) {
+        this.executor = executor;
+        this.scheduler = (scheduled && executor != null) ? scheduler : null;
+        healthChecks.forEach(this::schedule);
+    }
+
+    private synchronized void schedule(String name, HealthCheck healthCheck) {
+        if (scheduler == null || healthCheck.getClass().isAnnotationPresent(ProbeDriven.class))
+            return;
+        long interval = getIntervalMillis(name);
+        if (interval <= 0)
+            return;
+        log.debug("schedule health check {} every {} ms", name, interval);
+        Schedule schedule = new Schedule(name);
+        Schedule previous = schedules.put(name, schedule);
+        if (previous != null)
+            previous.cancel();
+        schedule.future = scheduler.scheduleWithFixedDelay(schedule::trigger, 0, interval, MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        schedules.values().forEach(Schedule::cancel);
+        schedules.clear();
+        this.scheduler = null;
+        this.executor = null;
+    }
+
+    @Override public void register(String name, HealthCheck healthCheck) {
+        super.register(name, healthCheck);
+        healthChecks.put(name, healthCheck);
+        schedule(name, healthCheck);
+    }
+
+    @Override public void unregister(String name) {
+        super.unregister(name);
+        healthChecks.remove(name);
+        Schedule schedule = schedules.remove(name);
+        if (schedule != null)
+            schedule.cancel();
+    }
+
+    public long getTimeoutMillis(String name) { return timeoutMillis.getOrDefault(name, defaultTimeoutMillis); }
+
+    public long getIntervalMillis(String name) { return intervalMillis.getOrDefault(name, defaultIntervalMillis); }
+
+    /** Are there checks that run in the background, so some results come from the cache? */
+    public boolean isScheduled() { return !schedules.isEmpty(); }
+
+    /** The time since the oldest result of a scheduled check was taken, or 0 if no check is scheduled */
+    public long getAgeMillis() {
+        long now = clock.getTick();
+        return schedules.values().stream().mapToLong(schedule -> schedule.ageMillis(now)).max().orElse(0);
+    }
+
+    @Override public SortedMap<String, Result> runHealthChecks() {
+        ExecutorService executor = this.executor;
+        if (executor == null && schedules.isEmpty())
+            return super.runHealthChecks();
+        long start = System.nanoTime();
+        SortedMap<String, Result> results = new TreeMap<>();
+        Map<String, Future<Result>> futures = new LinkedHashMap<>();
+        for (String name : getNames()) {
+            Schedule schedule = schedules.get(name);
+            if (schedule != null)
+                results.put(name, schedule.result());
+            else if (executor == null)
+                results.put(name, runHealthCheck(name));
+            else
+                submit(executor, name, futures, results);
+        }
+        futures.forEach((name, future) -> results.put(name, await(name, future, start)));
+        return results;
+    }
+
+    private void submit(ExecutorService executor, String name, Map<String, Future<Result>> futures,
+            Map<String, Result> results) {
+        try {
+            futures.put(name, executor.submit(() -> runHealthCheck(name)));
+        } catch (RejectedExecutionException e) {
+            log.warn("health check {} rejected: {}", name, e.toString());
+            results.put(name, Result.unhealthy("rejected by executor"));
+        }
+    }
+
+    private Result await(String name, Future<Result> future, long start) {
+        long timeout = getTimeoutMillis(name);
+        try {
+            return future.get(MILLISECONDS.toNanos(timeout) - (System.nanoTime() - start), NANOSECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            return timedOut(timeout);
+        } catch (ExecutionException e) {
+            return Result.unhealthy(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            return Result.unhealthy("interrupted");
+        }
+    }
+
+    private static Result timedOut(long timeout) { return Result.unhealthy("timed out after %d ms", timeout); }
+
+    /**
+     * The latest result of one check running in the background. A run is skipped while the previous is still running,
+     * unless that timed out: then it's abandoned, i.e. interrupted, and its result ignored. Every run gets a new
+     * generation, and only a run of the current generation publishes its result, so an abandoned run finishing late
+     * can't overwrite the result or the running state of a newer one.
+     */
+    private class Schedule {
+        private final String name;
+        private final long timeoutNanos;
+        private final AtomicBoolean running = new AtomicBoolean();
+        private ScheduledFuture<?> future;
+        private volatile Future<?> run;
+        private volatile long startedAt;
+        private long generation; // guarded by this
+        private volatile Result result = Result.unhealthy("not checked yet");
+        private volatile long checkedAt = clock.getTick();
+
+        private Schedule(String name) {
+            this.name = name;
+            this.timeoutNanos = MILLISECONDS.toNanos(getTimeoutMillis(name));
+        }
+
+        private synchronized void trigger() {
+            ExecutorService executor = ParallelHealthCheckRegistry.this.executor;
+            if (executor == null || !running.compareAndSet(false, true))
+                return;
+            long current = ++generation;
+            startedAt = clock.getTick();
+            try {
+                run = executor.submit(() -> run(current));
+            } catch (RejectedExecutionException e) {
+                running.set(false);
+                log.debug("health check {} rejected: {}", name, e.toString());
+            }
+        }
+
+        private void run(long runGeneration) {
+            Result result = null;
+            try {
+                result = runHealthCheck(name);
+            } catch (NoSuchElementException e) {
+                log.debug("health check {} unregistered", name);
+            } finally {
+                publish(runGeneration, result);
+            }
+        }
+
+        /** @param result <code>null</code> if there is none */
+        private synchronized void publish(long runGeneration, Result result) {
+            if (runGeneration != generation)
+                return; // abandoned
+            if (result != null) {
+                this.checkedAt = clock.getTick();
+                this.result = result;
+            }
+            running.set(false);
+        }
+
+        private Result result() {
+            if (running.get() && clock.getTick() - startedAt > timeoutNanos)
+                abandon();
+            return result;
+        }
+
+        private synchronized void abandon() {
+            long now = clock.getTick();
+            if (!running.get() || now - startedAt <= timeoutNanos)
+                return; // already abandoned
+            generation++;
+            Future<?> run = this.run;
+            if (run != null)
+                run.cancel(true);
+            result = timedOut(NANOSECONDS.toMillis(timeoutNanos));
+            checkedAt = now;
+            running.set(false);
+        }
+
+        private long ageMillis(long now) { return NANOSECONDS.toMillis(now - checkedAt); }
+
+        private void cancel() {
+            if (future != null)
+                future.cancel(false);
+            Future<?> run = this.run;
+            if (run != null)
+                run.cancel(true);
+        }
+    }
+}
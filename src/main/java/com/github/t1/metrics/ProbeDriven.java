@@ -0,0 +1,17 @@
+package com.github.t1.metrics;
+
+import java.lang.annotation.*;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.*;
+
+/**
+ * Marks a {@link com.codahale.metrics.health.HealthCheck} to run whenever the health checks are requested, even when
+ * the {@link ParallelHealthCheckRegistry} schedules the other checks in the background, e.g. because it's cheap or must
+ * be current.
+ */
+@Inherited
+@Documented
+@Retention(RUNTIME)
+@Target(TYPE)
+public @interface ProbeDriven {}
@@ -0,0 +1,298 @@
+package com.github.t1.metrics;
+
+import com.codahale.metrics.*;
+import com.codahale.metrics.Timer;
+
+import javax.ws.rs.*;
+import javax.ws.rs.core.*;
+import javax.ws.rs.core.Response.Status.Family;
+import javax.ws.rs.ext.*;
+import java.io.*;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.*;
+
+import static com.github.t1.metrics.MetricsYamlMessageBodyWriter.*;
+import static com.github.t1.metrics.PrometheusMessageBodyWriter.*;
+import static java.nio.charset.StandardCharsets.*;
+import static java.util.Arrays.*;
+import static java.util.Collections.*;
+import static javax.ws.rs.core.HttpHeaders.*;
+import static javax.ws.rs.core.MediaType.*;
+
+/**
+ * Writes the metrics in the Prometheus text format (version 0.0.4) or as OpenMetrics. The endpoint metrics are
+ * written with labels, e.g. <code>resources/orders/{id}|GET|timer</code> as the summary
+ * <code>resources_seconds{path="/orders/{id}",method="GET"}</code> and <code>resources/orders/{id}|GET|200</code>
+ * as the counter <code>resources_responses_total{path="/orders/{id}",method="GET",status="200"}</code>; the status
+ * families are left out, as Prometheus can sum the status codes. Other names only have the characters not allowed
+ * replaced by underscores.
+ * <p>
+ * Timers are written as summaries in seconds, histograms as summaries, meters as counters, counters and numeric or
+ * boolean gauges as gauges; the rates are left out, as Prometheus derives them from the counts. Gauges with other
+ * values are left out, and so is the <code># TYPE</code> line of a family without samples. The <code>_sum</code> of a
+ * summary is estimated as the mean of the reservoir times the count, as the Dropwizard metrics don't keep the sum.
+ * <p>
+ * When different names are sanitized to the same series, e.g. <code>a.b</code> and <code>a_b</code>, only the first
+ * name in sort order is written.
+ * <p>
+ * A {@link MetricAttributes.Selection} of attributes is ignored, as the series of a family need the same samples.
+ * <p>
+ * The samples are grouped by metric family, which is prepared once for a set of names, like the YAML layout.
+ */
+@Provider
+@Produces({ TEXT_PLAIN_PROMETHEUS, APPLICATION_OPENMETRICS })
+public class PrometheusMessageBodyWriter implements MessageBodyWriter<SortedMap<String, Metric>> {
+    public static final String TEXT_PLAIN_PROMETHEUS = "text/plain; version=0.0.4";
+    public static final String APPLICATION_OPENMETRICS = "application/openmetrics-text; version=1.0.0";
+    public static final MediaType APPLICATION_OPENMETRICS_TYPE = MediaType.valueOf(APPLICATION_OPENMETRICS);
+
+    private static final double[] QUANTILES = { 0.5, 0.75, 0.95, 0.98, 0.99, 0.999 };
+    private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+
+    private enum Kind {COUNTER, GAUGE, SUMMARY, TIMER, NONE}
+
+    private final LayoutCache<Layout> layouts = new LayoutCache<>(Layout::new, Layout::matches);
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return METRICS_MAP.getType().equals(genericType)
+                && (mediaType.isCompatible(TEXT_PLAIN_TYPE) || mediaType.isCompatible(APPLICATION_OPENMETRICS_TYPE));
+    }
+
+    @Override
+    public long getSize(SortedMap<String, Metric> r, Class<?> c, Type g, Annotation[] a, MediaType t) { return -1; }
+
+    @Override
+    public void writeTo(SortedMap<String, Metric> metrics, Class<?> type, Type genericType, Annotation[] annotations,
+            MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream)
+            throws IOException, WebApplicationException {
+        boolean openMetrics = !mediaType.isWildcardType() && mediaType.isCompatible(APPLICATION_OPENMETRICS_TYPE);
+        if (httpHeaders != null)
+            httpHeaders.putSingle(CONTENT_TYPE,
+                    (openMetrics ? APPLICATION_OPENMETRICS : TEXT_PLAIN_PROMETHEUS) + "; charset=utf-8");
+        Utf8Sink sink = Utf8Sink.of(entityStream);
+        write(layouts.get(metrics), metrics.values().toArray(new Metric[0]), openMetrics, sink);
+        sink.flush();
+    }
+
+    private static void write(Layout layout, Metric[] metrics, boolean openMetrics, Utf8Sink out)
+            throws IOException {
+        Series family = null;
+        for (int i : layout.order) {
+            Series series = layout.series[i];
+            Metric metric = MetricAttributes.unwrap(metrics[i]);
+            Number value = null;
+            if (series.kind == Kind.GAUGE && !(metric instanceof Counter)) {
+                value = number(((Gauge<?>) metric).getValue());
+                if (value == null)
+                    continue;
+            }
+            if (family == null || !family.family.equals(series.family)) {
+                out.write(openMetrics ? series.openMetricsType : series.type);
+                family = series;
+            }
+            switch (series.kind) {
+            case COUNTER:
+                out.write(series.sample).write(((Counting) metric).getCount()).write("\n");
+                break;
+            case GAUGE:
+                if (value == null)
+                    out.write(series.sample).write(((Counter) metric).getCount()).write("\n");
+                else
+                    value(out.write(series.sample), value.doubleValue()).write("\n");
+                break;
+            case SUMMARY:
+            case TIMER:
+                Snapshot snapshot = ((Sampling) metric).getSnapshot();
+                double scale = (series.kind == Kind.TIMER) ? NANOS_PER_SECOND : 1.0;
+                for (int q = 0; q < QUANTILES.length; q++)
+                    value(out.write(series.quantiles[q]), snapshot.getValue(QUANTILES[q]) / scale).write("\n");
+                long count = ((Counting) metric).getCount();
+                value(out.write(series.sum), snapshot.getMean() * count / scale).write("\n");
+                out.write(series.count).write(count).write("\n");
+                break;
+            case NONE:
+                break;
+            }
+        }
+        if (openMetrics)
+            out.write("# EOF\n");
+    }
+
+    /** @return <code>null</code> if the value can't be written as a sample */
+    private static Number number(Object value) {
+        if (value instanceof Boolean)
+            return ((Boolean) value) ? 1 : 0;
+        return (value instanceof Number) ? (Number) value : null;
+    }
+
+    private static Utf8Sink value(Utf8Sink out, double value) throws IOException {
+        if (value == Double.POSITIVE_INFINITY)
+            return out.write("+Inf");
+        if (value == Double.NEGATIVE_INFINITY)
+            return out.write("-Inf");
+        return out.write(value);
+    }
+
+    /** The series for one sorted set of names and types, and the order to write them grouped by family */
+    private static class Layout {
+        private final String[] names;
+        private final Class<?>[] types;
+        private final Series[] series;
+        private final int[] order;
+
+        private Layout(SortedMap<String, Metric> metrics) {
+            this.names = new String[metrics.size()];
+            this.types = new Class<?>[metrics.size()];
+            this.series = new Series[metrics.size()];
+            Map<String, List<Integer>> families = new LinkedHashMap<>();
+            Map<String, Kind> kinds = new HashMap<>();
+            Set<String> samples = new HashSet<>();
+            int i = 0;
+            for (Map.Entry<String, Metric> entry : metrics.entrySet()) {
+                names[i] = entry.getKey();
+                types[i] = entry.getValue().getClass();
+                series[i] = Series.of(entry.getKey(), entry.getValue());
+                if (series[i].kind != Kind.NONE && isUnique(series[i], kinds, samples))
+                    families.computeIfAbsent(series[i].family, f -> new ArrayList<>()).add(i);
+                i++;
+            }
+            this.order = families.values().stream().flatMap(List::stream).mapToInt(Integer::intValue).toArray();
+        }
+
+        /** Different names can be sanitized to the same family, but it must have one kind and distinct samples */
+        private static boolean isUnique(Series series, Map<String, Kind> kinds, Set<String> samples) {
+            Kind kind = kinds.putIfAbsent(series.family, series.kind);
+            if (kind != null && kind != series.kind)
+                return false;
+            for (String sample : series.samples)
+                if (samples.contains(sample))
+                    return false;
+            samples.addAll(series.samples);
+            return true;
+        }
+
+        private boolean matches(SortedMap<String, Metric> metrics) {
+            if (metrics.size() != names.length)
+                return false;
+            int i = 0;
+            for (Map.Entry<String, Metric> entry : metrics.entrySet()) {
+                if (!entry.getKey().equals(names[i]) || entry.getValue().getClass() != types[i])
+                    return false;
+                i++;
+            }
+            return true;
+        }
+    }
+
+    /** The prepared lines of one metric */
+    private static class Series {
+        private static final Set<String> FAMILIES = new HashSet<>();
+
+        static {
+            for (Family family : Family.values())
+                FAMILIES.add(family.name());
+        }
+
+        private final String family;
+        private final Kind kind;
+        private final byte[] type;
+        private final byte[] openMetricsType;
+        private final byte[] sample;
+        private final byte[][] quantiles = new byte[QUANTILES.length][];
+        private final byte[] sum;
+        private final byte[] count;
+        /** The names and labels of the samples, to detect collisions */
+        private final List<String> samples;
+
+        private static Series of(String name, Metric metric) {
+            Kind kind = kind(MetricAttributes.unwrap(metric));
+            int slash = name.indexOf('/');
+            String type = (slash < 0) ? null : name.substring(0, slash);
+            if (!Endpoints.RESOURCES.equals(type) && !Endpoints.CALLS.equals(type))
+                return new Series(sanitize(name), kind, "");
+            String[] items = name.substring(slash).split("\\|");
+            StringBuilder labels = new StringBuilder();
+            label(labels, "path", items[0]);
+            if (items.length > 2)
+                label(labels, "method", items[1]);
+            String suffix = (items.length > 1) ? items[items.length - 1] : "";
+            if (suffix.equals("timer"))
+                return new Series(type, kind, labels.toString());
+            if (FAMILIES.contains(suffix))
+                return new Series(type, Kind.NONE, "");
+            if (!suffix.isEmpty() && suffix.chars().allMatch(Character::isDigit)) {
+                label(labels, "status", suffix);
+                return new Series(type + "_responses", kind, labels.toString());
+            }
+            return new Series(type + (suffix.isEmpty() ? "" : "_" + sanitize(suffix)), kind, labels.toString());
+        }
+
+        @SuppressWarnings("ChainOfInstanceofChecks")
+        private static Kind kind(Metric metric) {
+            if (metric instanceof Timer)
+                return Kind.TIMER;
+            if (metric instanceof Sampling && metric instanceof Counting)
+                return Kind.SUMMARY;
+            if (metric instanceof Metered)
+                return Kind.COUNTER;
+            if (metric instanceof Counter || metric instanceof Gauge)
+                return Kind.GAUGE;
+            return Kind.NONE;
+        }
+
+        private static String sanitize(String name) {
+            StringBuilder out = new StringBuilder(name.length() + 1);
+            for (int i = 0; i < name.length(); i++) {
+                char c = name.charAt(i);
+                boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == ':'
+                        || (c >= '0' && c <= '9' && i > 0);
+                if (c >= '0' && c <= '9' && i == 0)
+                    out.append('_').append(c);
+                else
+                    out.append(valid ? c : '_');
+            }
+            return out.toString();
+        }
+
+        private static void label(StringBuilder labels, String name, String value) {
+            if (labels.length() > 0)
+                labels.append(',');
+            labels.append(name).append("=\"");
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '\\' || c == '"')
+                    labels.append('\\').append(c);
+                else if (c == '\n')
+                    labels.append("\\n");
+                else
+                    labels.append(c);
+            }
+            labels.append('"');
+        }
+
+        private Series(String base, Kind kind, String labels) {
+            this.family = (kind == Kind.TIMER) ? base + "_seconds" : base;
+            this.kind = kind;
+            String typeName = (kind == Kind.TIMER) ? "summary" : kind.name().toLowerCase(Locale.ROOT);
+            String sampleName = (kind == Kind.COUNTER) ? family + "_total" : family;
+            this.type = bytes("# TYPE " + sampleName + " " + typeName + "\n");
+            this.openMetricsType = bytes("# TYPE " + family + " " + typeName + "\n");
+            this.sample = bytes(sampleName + braces(labels) + " ");
+            String separator = labels.isEmpty() ? "" : ",";
+            for (int q = 0; q < QUANTILES.length; q++)
+                this.quantiles[q] = bytes(family + "{" + labels + separator + "quantile=\"" + QUANTILES[q] + "\"} ");
+            this.sum = bytes(family + "_sum" + braces(labels) + " ");
+            this.count = bytes(family + "_count" + braces(labels) + " ");
+            this.samples = (kind == Kind.SUMMARY || kind == Kind.TIMER)
+                    ? asList(family + braces(labels), family + "_sum" + braces(labels),
+                    family + "_count" + braces(labels))
+                    : singletonList(sampleName + braces(labels));
+        }
+
+        private static String braces(String labels) { return labels.isEmpty() ? "" : "{" + labels + "}"; }
+
+        private static byte[] bytes(String string) { return string.getBytes(UTF_8); }
+    }
+}
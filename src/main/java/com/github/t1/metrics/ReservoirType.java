@@ -0,0 +1,40 @@
+package com.github.t1.metrics;
+
+import com.codahale.metrics.*;
+
+import java.util.concurrent.TimeUnit;
+
+/** The kinds of {@link Reservoir}s that can be configured for timers and histograms */
+public enum ReservoirType {
+    /** The Dropwizard default, biased to the last five minutes */
+    EXPONENTIALLY_DECAYING,
+    /** All values of the last <code>window</code>; precise, but unbounded under load */
+    SLIDING_TIME_WINDOW,
+    /** The last <code>size</code> values; cheap, but forgets quickly under load */
+    SLIDING_WINDOW,
+    /** A uniform sample of <code>size</code> values since the start, i.e. without any recency */
+    UNIFORM,
+    /** Lock-free updates and bounded relative error; see {@link HdrHistogramReservoir} */
+    HDR_HISTOGRAM;
+
+    /**
+     * @param size    for {@link #SLIDING_WINDOW} and {@link #UNIFORM}
+     * @param window  for {@link #SLIDING_TIME_WINDOW} and {@link #HDR_HISTOGRAM}
+     * @param digits  the significant digits for {@link #HDR_HISTOGRAM}
+     */
+    public Reservoir create(int size, long window, TimeUnit unit, int digits) {
+        switch (this) {
+        case EXPONENTIALLY_DECAYING:
+            return new ExponentiallyDecayingReservoir();
+        case SLIDING_TIME_WINDOW:
+            return new SlidingTimeWindowReservoir(window, unit);
+        case SLIDING_WINDOW:
+            return new SlidingWindowReservoir(size);
+        case UNIFORM:
+            return new UniformReservoir(size);
+        case HDR_HISTOGRAM:
+            return new HdrHistogramReservoir(digits, window, unit);
+        }
+        throw new UnsupportedOperationException("unknown reservoir type " + this);
+    }
+}
@@ -0,0 +1,114 @@
+package com.github.t1.metrics;
+
+import com.codahale.metrics.Counter;
+import com.github.t1.metrics.EndpointTimer.SampledReservoir;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Striped, bounded, lock-free ring buffers of the durations recorded by {@link EndpointTimer}s. Request threads only
+ * append to the stripe picked by their thread id; a single drainer moves the samples into the reservoirs in batches.
+ * Neither side allocates. When a stripe is full, the sample is dropped and counted.
+ */
+@Slf4j
+class SampleBuffers {
+    private final Ring[] stripes;
+    private final int mask;
+    private final Counter dropped;
+    private final ReentrantLock draining = new ReentrantLock();
+
+    SampleBuffers(int stripes, int capacity, Counter dropped) {
+        int size = powerOfTwo(stripes);
+        this.stripes = new Ring[size];
+        for (int i = 0; i < size; i++)
+            this.stripes[i] = new Ring(capacity);
+        this.mask = size - 1;
+        this.dropped = dropped;
+    }
+
+    private static int powerOfTwo(int n) { return (n <= 1) ? 1 : Integer.highestOneBit(n - 1) << 1; }
+
+    void offer(SampledReservoir reservoir, long nanos) {
+        if (!stripes[(int) Thread.currentThread().getId() & mask].offer(reservoir, nanos))
+            dropped.inc();
+    }
+
+    /** Moves all samples into the reservoirs; does nothing, if another thread is already draining */
+    void drain() {
+        if (!draining.tryLock())
+            return;
+        try {
+            for (Ring stripe : stripes)
+                stripe.drain();
+        } finally {
+            draining.unlock();
+        }
+    }
+
+    ScheduledFuture<?> schedule(ScheduledExecutorService scheduler, long period, TimeUnit unit) {
+        log.debug("drain sample buffers every {} {}", period, unit);
+        return scheduler.scheduleWithFixedDelay(this::drain, period, period, unit);
+    }
+
+    /**
+     * A bounded multi-producer/single-consumer queue of reservoir/duration pairs, using the sequence numbers of the
+     * slots to publish them, as described by Dmitry Vyukov.
+     */
+    private static class Ring {
+        private final int capacity;
+        private final int mask;
+        private final AtomicLongArray sequences;
+        private final SampledReservoir[] reservoirs;
+        private final long[] values;
+        private final AtomicLong tail = new AtomicLong();
+        private long head; // only accessed by the drainer
+
+        private Ring(int capacity) {
+            this.capacity = powerOfTwo(capacity);
+            this.mask = this.capacity - 1;
+            this.sequences = new AtomicLongArray(this.capacity);
+            for (int i = 0; i < this.capacity; i++)
+                sequences.set(i, i);
+            this.reservoirs = new SampledReservoir[this.capacity];
+            this.values = new long[this.capacity];
+        }
+
+        private boolean offer(SampledReservoir reservoir, long value) {
+            long position = tail.get();
+            while (true) {
+                int index = (int) position & mask;
+                long available = sequences.get(index) - position;
+                if (available == 0) {
+                    if (tail.compareAndSet(position, position + 1)) {
+                        reservoirs[index] = reservoir;
+                        values[index] = value;
+                        sequences.lazySet(index, position + 1); // publish
+                        return true;
+                    }
+                    position = tail.get();
+                } else if (available < 0) {
+                    return false; // full
+                } else {
+                    position = tail.get();
+                }
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                int index = (int) head & mask;
+                if (sequences.get(index) != head + 1)
+                    return; // empty or not yet published
+                SampledReservoir reservoir = reservoirs[index];
+                long value = values[index];
+                reservoirs[index] = null;
+                sequences.lazySet(index, head + capacity); // release the slot
+                head++;
+                reservoir.record(value);
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.github.t1.metrics;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/** Decides which durations an {@link EndpointTimer} records in its reservoir; it counts all of them anyway. */
+@FunctionalInterface
+interface Sampler {
+    /**
+     * Parse the <code>rate</code> once, e.g. when starting, but create a new sampler for every timer, as a
+     * {@link PerSecond} sampler limits only one timer.
+     *
+     * @param rate <code>N</code> for every N-th on average, or <code>N/s</code> for at most N per second
+     * @throws NumberFormatException if the rate is invalid
+     */
+    static Supplier<Sampler> parse(String rate) {
+        rate = rate.trim();
+        if (rate.endsWith("/s")) {
+            int limit = Integer.parseInt(rate.substring(0, rate.length() - 2).trim());
+            return () -> new PerSecond(limit);
+        }
+        int n = Integer.parseInt(rate);
+        Sampler sampler = (n <= 1) ? () -> true : () -> ThreadLocalRandom.current().nextInt(n) == 0;
+        return () -> sampler;
+    }
+
+    boolean sample();
+
+    class PerSecond implements Sampler {
+        private static final long SECOND = 1_000_000_000L;
+
+        private final int limit;
+        private final AtomicInteger count = new AtomicInteger();
+        private volatile long start = System.nanoTime();
+
+        PerSecond(int limit) { this.limit = limit; }
+
+        /** Races at the start of a second can let a few more samples through, which is okay */
+        @Override public boolean sample() {
+            long now = System.nanoTime();
+            if (now - start >= SECOND) {
+                start = now;
+                count.set(0);
+            }
+            return count.get() < limit && count.incrementAndGet() <= limit;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.github.t1.metrics;
+
+import com.codahale.metrics.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link MetricRegistry} that keeps the metrics sorted by name, so the metrics with a common prefix can be read as
+ * a range, without scanning or copying all of them. The generation counts the metrics registered and removed.
+ */
+public class SortedMetricRegistry extends MetricRegistry {
+    private final AtomicLong generation = new AtomicLong();
+
+    /** Set by the super constructor calling {@link #buildMap()}, i.e. before any initializer runs */
+    private ConcurrentSkipListMap<String, Metric> sorted;
+
+    @Override protected ConcurrentMap<String, Metric> buildMap() {
+        sorted = new ConcurrentSkipListMap<>();
+        return sorted;
+    }
+
+    @Override public <T extends Metric> T register(String name, T metric) throws IllegalArgumentException {
+        T registered = super.register(name, metric);
+        generation.incrementAndGet();
+        return registered;
+    }
+
+    @Override public boolean remove(String name) {
+        boolean removed = super.remove(name);
+        if (removed)
+            generation.incrementAndGet();
+        return removed;
+    }
+
+    public long getGeneration() { return generation.get(); }
+
+    /** A live, read-only view of the metrics with names starting with the <code>prefix</code> */
+    public SortedMap<String, Metric> getMetrics(String prefix) {
+        return Collections.unmodifiableSortedMap(prefix.isEmpty() ? sorted
+                : sorted.subMap(prefix, prefix + Character.MAX_VALUE));
+    }
+}
@@ -0,0 +1,189 @@
+package com.github.t1.metrics;
+
+import com.codahale.metrics.*;
+
+import javax.ws.rs.core.Response.Status.Family;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+import static java.util.concurrent.TimeUnit.*;
+
+/**
+ * The http status codes of one endpoint, counted in an array with a {@link LongAdder} per status code, allocated when
+ * the code is first seen. Marking a status is just an array access and an increment, plus ticking the moving averages
+ * once every five seconds, just like a {@link Meter} does on mark and on read, so the rates don't depend on how often
+ * they are {@link #getMeters() read}.
+ * <p>
+ * The meters read are named like separate meters, i.e. <code>|SUCCESSFUL</code>, <code>|200</code>, etc. appended
+ * to the endpoint name, so they render just like those. Codes below 100 or above 599 only count for the
+ * <code>|OTHER</code> family.
+ * <p>
+ * It's a {@link Gauge} of the counts by status code and family, as registry listeners, e.g. the reporters, only know
+ * the standard metric types.
+ */
+class StatusMeters implements Gauge<Map<String, Long>> {
+    private static final int MIN_STATUS = 100;
+    private static final int MAX_STATUS = 599;
+    private static final int OTHER = MAX_STATUS - MIN_STATUS + 1;
+    private static final long TICK_INTERVAL = SECONDS.toNanos(5);
+
+    private final String name;
+    private final Clock clock;
+    private final long startTime;
+    private final AtomicReferenceArray<Status> statuses = new AtomicReferenceArray<>(OTHER + 1);
+    private final AtomicLong lastTick;
+
+    StatusMeters(String name) { this(name, Clock.defaultClock()); }
+
+    StatusMeters(String name, Clock clock) {
+        this.name = name;
+        this.clock = clock;
+        this.startTime = clock.getTick();
+        this.lastTick = new AtomicLong(startTime);
+    }
+
+    public void mark(int statusCode) {
+        tickIfNecessary();
+        int index = (statusCode < MIN_STATUS || statusCode > MAX_STATUS) ? OTHER : statusCode - MIN_STATUS;
+        Status status = statuses.get(index);
+        if (status == null) {
+            statuses.compareAndSet(index, null, new Status());
+            status = statuses.get(index);
+        }
+        status.count.increment();
+    }
+
+    @Override public Map<String, Long> getValue() {
+        Map<String, Long> map = new TreeMap<>();
+        for (int i = 0; i < statuses.length(); i++) {
+            Status status = statuses.get(i);
+            if (status == null)
+                continue;
+            long count = status.count.sum();
+            Family family = (i == OTHER) ? Family.OTHER : Family.familyOf(MIN_STATUS + i);
+            map.merge(family.name(), count, Long::sum);
+            if (i != OTHER)
+                map.put(Integer.toString(MIN_STATUS + i), count);
+        }
+        return map;
+    }
+
+    /** A meter for every family and status code marked, by their full name */
+    public synchronized Map<String, Meter> getMeters() {
+        tickIfNecessary();
+        double seconds = (double) (clock.getTick() - startTime) / SECONDS.toNanos(1);
+        Map<String, Meter> meters = new TreeMap<>();
+        StatusMeter[] families = new StatusMeter[Family.values().length];
+        for (int i = 0; i < statuses.length(); i++) {
+            Status status = statuses.get(i);
+            if (status == null)
+                continue;
+            StatusMeter meter = new StatusMeter(status.count.sum(), seconds, status.rates);
+            Family family = (i == OTHER) ? Family.OTHER : Family.familyOf(MIN_STATUS + i);
+            if (families[family.ordinal()] == null)
+                families[family.ordinal()] = new StatusMeter(0, seconds, null);
+            families[family.ordinal()].add(meter);
+            if (i != OTHER)
+                meters.put(name + "|" + (MIN_STATUS + i), meter);
+        }
+        for (Family family : Family.values())
+            if (families[family.ordinal()] != null)
+                meters.put(name + "|" + family, families[family.ordinal()]);
+        return meters;
+    }
+
+    /** Is the <code>name</code> one of the {@link #getMeters() meters}, i.e. a family or status code of this one */
+    public boolean isMeter(String name) {
+        if (!name.startsWith(this.name + "|"))
+            return false;
+        String suffix = name.substring(this.name.length() + 1);
+        for (Family family : Family.values())
+            if (family.name().equals(suffix))
+                return true;
+        if (suffix.length() != 3 || !suffix.chars().allMatch(Character::isDigit))
+            return false;
+        int code = Integer.parseInt(suffix);
+        return code >= MIN_STATUS && code <= MAX_STATUS;
+    }
+
+    /** Only the thread that moves the last tick ticks, like in a {@link Meter} */
+    private void tickIfNecessary() {
+        long oldTick = lastTick.get();
+        long newTick = clock.getTick();
+        long age = newTick - oldTick;
+        if (age > TICK_INTERVAL && lastTick.compareAndSet(oldTick, newTick - age % TICK_INTERVAL))
+            tick(age / TICK_INTERVAL);
+    }
+
+    private synchronized void tick(long ticks) {
+        for (int i = 0; i < statuses.length(); i++) {
+            Status status = statuses.get(i);
+            if (status != null)
+                status.rates.tick(status.count.sum(), ticks);
+        }
+    }
+
+    private static class Status {
+        private final LongAdder count = new LongAdder();
+        private final Rates rates = new Rates(count.sum());
+    }
+
+    private static class Rates {
+        private final EWMA m1 = EWMA.oneMinuteEWMA();
+        private final EWMA m5 = EWMA.fiveMinuteEWMA();
+        private final EWMA m15 = EWMA.fifteenMinuteEWMA();
+        /** The count at the last tick, seeded with the count when created, so older counts don't show as a spike */
+        private long count;
+
+        private Rates(long count) { this.count = count; }
+
+        private void tick(long newCount, long ticks) {
+            long delta = newCount - count;
+            count = newCount;
+            m1.update(delta);
+            m5.update(delta);
+            m15.update(delta);
+            for (long i = 0; i < ticks; i++) {
+                m1.tick();
+                m5.tick();
+                m15.tick();
+            }
+        }
+    }
+
+    /** The values read; a {@link Meter}, as that's what the writers know how to render */
+    private static class StatusMeter extends Meter {
+        private long count;
+        private double meanRate, m1Rate, m5Rate, m15Rate;
+
+        private StatusMeter(long count, double seconds, Rates rates) {
+            this.count = count;
+            this.meanRate = (seconds > 0) ? count / seconds : 0.0;
+            if (rates != null) {
+                this.m1Rate = rates.m1.getRate(SECONDS);
+                this.m5Rate = rates.m5.getRate(SECONDS);
+                this.m15Rate = rates.m15.getRate(SECONDS);
+            }
+        }
+
+        private void add(StatusMeter that) {
+            this.count += that.count;
+            this.meanRate += that.meanRate;
+            this.m1Rate += that.m1Rate;
+            this.m5Rate += that.m5Rate;
+            this.m15Rate += that.m15Rate;
+        }
+
+        @Override public void mark(long n) { throw new UnsupportedOperationException("read only"); }
+
+        @Override public long getCount() { return count; }
+
+        @Override public double getMeanRate() { return meanRate; }
+
+        @Override public double getOneMinuteRate() { return m1Rate; }
+
+        @Override public double getFiveMinuteRate() { return m5Rate; }
+
+        @Override public double getFifteenMinuteRate() { return m15Rate; }
+    }
+}
@@ -0,0 +1,96 @@
+package com.github.t1.metrics;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.ws.rs.ServiceUnavailableException;
+import javax.ws.rs.container.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delegates to the {@link AsyncResponse} of the container, but marks the request when it times out or is cancelled,
+ * so the {@link JaxRsBinding} can meter those separately. And it registers callbacks, so the request is not counted
+ * as in flight any more when it completes or the client disconnects, even if the response filters never run.
+ */
+@Slf4j
+class TrackedAsyncResponse implements AsyncResponse {
+    /** The property (i.e. servlet request attribute) with the request, as the interceptor can't inject it */
+    static final String REQUEST = TrackedAsyncResponse.class + "#REQUEST";
+    static final String OUTCOME = TrackedAsyncResponse.class + "#OUTCOME";
+
+    enum Outcome { TIMED_OUT, CANCELLED }
+
+    private final AsyncResponse delegate;
+    private final ContainerRequestContext request;
+    private volatile TimeoutHandler timeoutHandler;
+
+    TrackedAsyncResponse(AsyncResponse delegate, ContainerRequestContext request) {
+        this.delegate = delegate;
+        this.request = request;
+        delegate.setTimeoutHandler(this::timedOut);
+        delegate.register(new Completion());
+    }
+
+    private class Completion implements CompletionCallback, ConnectionCallback {
+        @Override public void onComplete(Throwable throwable) { JaxRsBinding.completed(request::getProperty); }
+
+        @Override public void onDisconnect(AsyncResponse disconnected) { JaxRsBinding.completed(request::getProperty); }
+    }
+
+    private void timedOut(AsyncResponse asyncResponse) {
+        outcome(Outcome.TIMED_OUT);
+        TimeoutHandler handler = this.timeoutHandler;
+        if (handler == null)
+            delegate.resume(new ServiceUnavailableException()); // the default behavior
+        else
+            handler.handleTimeout(this);
+    }
+
+    private void outcome(Outcome outcome) {
+        if (request.getProperty(OUTCOME) == null) {
+            log.debug("{} {}", outcome, request.getUriInfo().getPath());
+            request.setProperty(OUTCOME, outcome);
+        }
+    }
+
+    @Override public boolean resume(Object response) { return delegate.resume(response); }
+
+    @Override public boolean resume(Throwable response) { return delegate.resume(response); }
+
+    @Override public boolean cancel() {
+        outcome(Outcome.CANCELLED);
+        return delegate.cancel();
+    }
+
+    @Override public boolean cancel(int retryAfter) {
+        outcome(Outcome.CANCELLED);
+        return delegate.cancel(retryAfter);
+    }
+
+    @Override public boolean cancel(Date retryAfter) {
+        outcome(Outcome.CANCELLED);
+        return delegate.cancel(retryAfter);
+    }
+
+    @Override public boolean isSuspended() { return delegate.isSuspended(); }
+
+    @Override public boolean isCancelled() { return delegate.isCancelled(); }
+
+    @Override public boolean isDone() { return delegate.isDone(); }
+
+    @Override public boolean setTimeout(long time, TimeUnit unit) { return delegate.setTimeout(time, unit); }
+
+    @Override public void setTimeoutHandler(TimeoutHandler handler) { this.timeoutHandler = handler; }
+
+    @Override public Collection<Class<?>> register(Class<?> callback) { return delegate.register(callback); }
+
+    @Override public Map<Class<?>, Collection<Class<?>>> register(Class<?> callback, Class<?>... callbacks) {
+        return delegate.register(callback, callbacks);
+    }
+
+    @Override public Collection<Class<?>> register(Object callback) { return delegate.register(callback); }
+
+    @Override public Map<Class<?>, Collection<Class<?>>> register(Object callback, Object... callbacks) {
+        return delegate.register(callback, callbacks);
+    }
+}
@@ -0,0 +1,24 @@
+package com.github.t1.metrics;
+
+import java.net.URI;
+import java.util.regex.Pattern;
+
+/**
+ * Maps the uri of a client call to the path that the <code>calls</code> metrics are named after. Implement this as a
+ * CDI bean to replace the default, e.g. to keep ids in the path from creating new metrics for every call.
+ */
+@FunctionalInterface
+public interface UriNormalizer {
+    /** The default: the plain path of the uri */
+    UriNormalizer PATH = URI::getPath;
+
+    /** Replaces path segments that are numbers or UUIDs with <code>{id}</code> */
+    UriNormalizer IDS = new UriNormalizer() {
+        private final Pattern ID = Pattern.compile(
+                "(?<=/)(\\d+|\\p{XDigit}{8}-\\p{XDigit}{4}-\\p{XDigit}{4}-\\p{XDigit}{4}-\\p{XDigit}{12})(?=/|$)");
+
+        @Override public String normalize(URI uri) { return ID.matcher(uri.getPath()).replaceAll("{id}"); }
+    };
+
+    String normalize(URI uri);
+}
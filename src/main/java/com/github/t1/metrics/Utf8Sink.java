@@ -0,0 +1,139 @@
+package com.github.t1.metrics;
+
+import java.io.*;
+
+/**
+ * A buffered sink writing UTF-8 to an {@link OutputStream}, with methods to write strings, numbers, and prepared
+ * bytes without creating intermediate strings or byte arrays; and some to write binary numbers. Not thread safe;
+ * reuse it with {@link #reset}.
+ */
+class Utf8Sink {
+    private static final int SIZE = 8192;
+
+    /**
+     * A new sink writing to the <code>out</code> stream. It's not cached in a thread local, as that would pin the
+     * class loader of the application and the last stream to the container threads; the buffer is cheap compared to
+     * the response.
+     */
+    static Utf8Sink of(OutputStream out) { return new Utf8Sink(SIZE).reset(out); }
+
+    private final byte[] buffer;
+    private final byte[] digits = new byte[20];
+    private int position;
+    private OutputStream out;
+
+    Utf8Sink(int size) { this.buffer = new byte[size]; }
+
+    Utf8Sink reset(OutputStream out) {
+        this.out = out;
+        this.position = 0;
+        return this;
+    }
+
+    Utf8Sink write(byte[] bytes) throws IOException {
+        if (bytes.length > buffer.length - position) {
+            flushBuffer();
+            if (bytes.length > buffer.length) {
+                out.write(bytes);
+                return this;
+            }
+        }
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+        return this;
+    }
+
+    Utf8Sink write(CharSequence string) throws IOException {
+        for (int i = 0, length = string.length(); i < length; i++) {
+            char c = string.charAt(i);
+            if (c < 0x80) {
+                put(c);
+            } else if (c < 0x800) {
+                put(0xc0 | c >> 6);
+                put(0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(string.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, string.charAt(++i));
+                put(0xf0 | codePoint >> 18);
+                put(0x80 | codePoint >> 12 & 0x3f);
+                put(0x80 | codePoint >> 6 & 0x3f);
+                put(0x80 | codePoint & 0x3f);
+            } else if (Character.isSurrogate(c)) {
+                put('?');
+            } else {
+                put(0xe0 | c >> 12);
+                put(0x80 | c >> 6 & 0x3f);
+                put(0x80 | c & 0x3f);
+            }
+        }
+        return this;
+    }
+
+    Utf8Sink write(long value) throws IOException {
+        if (value == Long.MIN_VALUE)
+            return write(Long.toString(value));
+        if (value < 0) {
+            put('-');
+            value = -value;
+        }
+        int i = digits.length;
+        do {
+            digits[--i] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        while (i < digits.length)
+            put(digits[i++]);
+        return this;
+    }
+
+    /** Same format as {@link Double#toString(double)} */
+    Utf8Sink write(double value) throws IOException {
+        if (value == (long) value && Math.abs(value) < 1e7 && !(value == 0 && 1 / value < 0)) {
+            write((long) value);
+            put('.');
+            put('0');
+            return this;
+        }
+        return write(Double.toString(value));
+    }
+
+    Utf8Sink writeByte(int b) throws IOException {
+        put(b);
+        return this;
+    }
+
+    /** Unsigned LEB128 of the zigzag encoded value, so small negative values are short, too */
+    Utf8Sink writeVarLong(long value) throws IOException {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7fL) != 0) {
+            put((int) (zigzag & 0x7f) | 0x80);
+            zigzag >>>= 7;
+        }
+        put((int) zigzag);
+        return this;
+    }
+
+    /** Big endian IEEE 754 */
+    Utf8Sink writeBinary(double value) throws IOException {
+        long bits = Double.doubleToRawLongBits(value);
+        for (int shift = 56; shift >= 0; shift -= 8)
+            put((int) (bits >>> shift));
+        return this;
+    }
+
+    private void put(int b) throws IOException {
+        if (position == buffer.length)
+            flushBuffer();
+        buffer[position++] = (byte) b;
+    }
+
+    private void flushBuffer() throws IOException {
+        out.write(buffer, 0, position);
+        position = 0;
+    }
+
+    void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+}
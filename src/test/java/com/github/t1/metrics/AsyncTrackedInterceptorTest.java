@@ -0,0 +1,72 @@
+package com.github.t1.metrics;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.*;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import javax.enterprise.context.ContextNotActiveException;
+import javax.interceptor.InvocationContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.container.*;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.Silent.class)
+public class AsyncTrackedInterceptorTest {
+    @InjectMocks AsyncTrackedInterceptor interceptor;
+    @Mock HttpServletRequest servletRequest;
+
+    @Mock InvocationContext context;
+    @Mock ContainerRequestContext request;
+    @Mock AsyncResponse asyncResponse;
+    @Captor ArgumentCaptor<Object[]> parameters;
+
+    private void givenParameters(Object... parameters) { when(context.getParameters()).thenReturn(parameters); }
+
+    @Test
+    public void shouldWrapAsyncResponse() throws Exception {
+        givenParameters("foo", asyncResponse);
+        when(servletRequest.getAttribute(TrackedAsyncResponse.REQUEST)).thenReturn(request);
+
+        interceptor.aroundInvoke(context);
+
+        verify(context).setParameters(parameters.capture());
+        assertThat(parameters.getValue()[0]).isEqualTo("foo");
+        assertThat(parameters.getValue()[1]).isInstanceOf(TrackedAsyncResponse.class);
+        verify(context).proceed();
+    }
+
+    @Test
+    public void shouldNotWrapWithoutRequest() throws Exception {
+        givenParameters(asyncResponse);
+
+        interceptor.aroundInvoke(context);
+
+        verify(context, never()).setParameters(any());
+        verify(context).proceed();
+    }
+
+    @Test
+    public void shouldNotWrapOutsideOfHttpRequest() throws Exception {
+        givenParameters(asyncResponse);
+        when(servletRequest.getAttribute(anyString())).thenThrow(new ContextNotActiveException());
+
+        interceptor.aroundInvoke(context);
+
+        verify(context, never()).setParameters(any());
+        verify(context).proceed();
+    }
+
+    @Test
+    public void shouldNotLookUpRequestWithoutAsyncResponse() throws Exception {
+        givenParameters("foo");
+
+        interceptor.aroundInvoke(context);
+
+        verifyZeroInteractions(servletRequest);
+        verify(context).proceed();
+    }
+}
@@ -0,0 +1,106 @@
+package com.github.t1.metrics;
+
+import com.codahale.metrics.*;
+import com.codahale.metrics.Timer;
+import org.junit.Test;
+
+import java.io.*;
+import java.lang.annotation.Annotation;
+import java.util.*;
+
+import static com.github.t1.metrics.BinaryMessageBodyWriter.*;
+import static com.github.t1.metrics.MetricsYamlMessageBodyWriter.*;
+import static java.util.Arrays.*;
+import static java.util.concurrent.TimeUnit.*;
+import static javax.ws.rs.core.MediaType.*;
+import static org.assertj.core.api.Assertions.*;
+
+public class BinaryMessageBodyWriterTest {
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final BinaryMessageBodyWriter writer = new BinaryMessageBodyWriter();
+
+    private byte[] write(SortedMap<String, Metric> map) throws IOException {
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            Class<MetricRegistry> type = MetricRegistry.class;
+            writer.writeTo(map, type, type, new Annotation[0], APPLICATION_METRICS_BINARY_TYPE, null, out);
+            return out.toByteArray();
+        }
+    }
+
+    private SortedMap<String, Map<String, Object>> roundTrip() throws IOException {
+        return new BinaryMetricsDecoder(write(new TreeMap<>(metrics.getMetrics()))).decode();
+    }
+
+    @Test
+    public void shouldBeWritable() throws Exception {
+        assertThat(writer.isWriteable(Map.class, METRICS_MAP.getType(), null, APPLICATION_METRICS_BINARY_TYPE))
+                .isTrue();
+        assertThat(writer.isWriteable(Map.class, METRICS_MAP.getType(), null, APPLICATION_JSON_TYPE)).isFalse();
+    }
+
+    @Test
+    public void shouldRoundTripEmptyMetrics() throws Exception {
+        assertThat(roundTrip()).isEmpty();
+    }
+
+    @Test
+    public void shouldRoundTripCountersAndGauges() throws Exception {
+        metrics.counter("a.counter").dec(3);
+        metrics.register("a.long", (Gauge<Long>) () -> Long.MAX_VALUE);
+        metrics.register("a.double", (Gauge<Double>) () -> 0.25);
+        metrics.register("a.true", (Gauge<Boolean>) () -> true);
+        metrics.register("a.null", (Gauge<Object>) () -> null);
+        metrics.register("a.string", (Gauge<String>) () -> "größe 😀");
+
+        SortedMap<String, Map<String, Object>> decoded = roundTrip();
+
+        assertThat(decoded).containsOnlyKeys("a.counter", "a.long", "a.double", "a.true", "a.null", "a.string");
+        assertThat(decoded.get("a.counter")).containsOnly(entry("count", -3L));
+        assertThat(decoded.get("a.long")).containsOnly(entry("value", Long.MAX_VALUE));
+        assertThat(decoded.get("a.double")).containsOnly(entry("value", 0.25));
+        assertThat(decoded.get("a.true")).containsOnly(entry("value", true));
+        assertThat(decoded.get("a.null")).containsOnly(entry("value", null));
+        assertThat(decoded.get("a.string")).containsOnly(entry("value", "größe 😀"));
+    }
+
+    @Test
+    public void shouldRoundTripTimer() throws Exception {
+        Timer timer = new Timer(new SlidingWindowReservoir(10));
+        timer.update(3, MILLISECONDS);
+        timer.update(5, MILLISECONDS);
+        metrics.register("resources/orders|GET|timer", timer);
+        Snapshot snapshot = timer.getSnapshot();
+
+        Map<String, Object> decoded = roundTrip().get("resources/orders|GET|timer");
+
+        assertThat(decoded.keySet()).containsExactlyElementsOf(asList(
+                "count", "mean_rate", "m1_rate", "m5_rate", "m15_rate",
+                "min", "mean", "max", "stddev", "p50", "p75", "p95", "p98", "p99", "p999"));
+        assertThat(decoded.get("count")).isEqualTo(2L);
+        assertThat(decoded.get("min")).isEqualTo(3_000_000L);
+        assertThat(decoded.get("max")).isEqualTo(5_000_000L);
+        assertThat(decoded.get("p99")).isEqualTo(snapshot.get99thPercentile());
+    }
+
+    @Test
+    public void shouldFrontCodeNames() throws Exception {
+        for (int i = 0; i < 10; i++)
+            metrics.counter("resources/some/rather/long/path/" + i + "|GET|in-flight");
+
+        byte[] bytes = write(new TreeMap<>(metrics.getMetrics()));
+
+        assertThat(new BinaryMetricsDecoder(bytes).decode()).hasSize(10);
+        int rawNames = metrics.getNames().stream().mapToInt(String::length).sum();
+        assertThat(bytes.length).isLessThan(rawNames / 2);
+    }
+
+    @Test
+    public void shouldRoundTripSelection() throws Exception {
+        metrics.timer("foo").update(1, SECONDS);
+        SortedMap<String, Metric> selected = new MetricQuery(null, null, null, "count,p99").select(metrics);
+
+        Map<String, Object> decoded = new BinaryMetricsDecoder(write(selected)).decode().get("foo");
+
+        assertThat(decoded).containsOnly(entry("count", 1L), entry("p99", 1e9));
+    }
+}
@@ -0,0 +1,90 @@
+package com.github.t1.metrics;
+
+import java.io.*;
+import java.util.*;
+
+import static com.github.t1.metrics.BinaryMessageBodyWriter.*;
+import static java.nio.charset.StandardCharsets.*;
+
+/** Decodes the format of the {@link BinaryMessageBodyWriter} into maps of the attributes by metric name */
+public class BinaryMetricsDecoder {
+    private final DataInputStream in;
+
+    public BinaryMetricsDecoder(byte[] bytes) { this.in = new DataInputStream(new ByteArrayInputStream(bytes)); }
+
+    public SortedMap<String, Map<String, Object>> decode() throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC))
+            throw new IOException("unknown format " + Arrays.toString(magic));
+        SortedMap<String, Map<String, Object>> metrics = new TreeMap<>();
+        String name = "";
+        for (long count = readVarLong(); count > 0; count--) {
+            name = name.substring(0, (int) readVarLong()) + readString();
+            metrics.put(name, readAttributes());
+        }
+        if (in.read() >= 0)
+            throw new IOException("unexpected trailing bytes");
+        return metrics;
+    }
+
+    private Map<String, Object> readAttributes() throws IOException {
+        long mask = readVarLong();
+        Map<String, Object> attributes = new LinkedHashMap<>();
+        for (int i = 0; i < MetricAttributes.NAMES.size(); i++) {
+            if ((mask & 1L << i) == 0)
+                continue;
+            String attribute = MetricAttributes.NAMES.get(i);
+            switch (attribute) {
+            case "count":
+            case "min":
+            case "max":
+                attributes.put(attribute, readVarLong());
+                break;
+            case "value":
+                attributes.put(attribute, readValue());
+                break;
+            default:
+                attributes.put(attribute, in.readDouble());
+            }
+        }
+        return attributes;
+    }
+
+    private Object readValue() throws IOException {
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+        case NULL:
+            return null;
+        case LONG:
+            return readVarLong();
+        case DOUBLE:
+            return in.readDouble();
+        case FALSE:
+            return false;
+        case TRUE:
+            return true;
+        case STRING:
+            return readString();
+        default:
+            throw new IOException("unknown value tag " + tag);
+        }
+    }
+
+    private String readString() throws IOException {
+        byte[] bytes = new byte[(int) readVarLong()];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private long readVarLong() throws IOException {
+        long zigzag = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            zigzag |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                break;
+        }
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+}
@@ -0,0 +1,160 @@
+package com.github.t1.metrics;
+
+import com.codahale.metrics.Gauge;
+import org.junit.*;
+import org.junit.runner.RunWith;
+import org.mockito.*;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.TimeUnit.*;
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.Silent.class)
+public class CachingGaugeTest {
+    private final MockClock clock = new MockClock();
+    private final AtomicInteger computations = new AtomicInteger();
+    private final Gauge<Integer> counting = computations::incrementAndGet;
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @Mock ScheduledExecutorService scheduler;
+    @Mock ScheduledFuture<?> future;
+    @Captor ArgumentCaptor<Runnable> trigger;
+
+    @Before
+    public void mockScheduler() {
+        doReturn(future).when(scheduler).scheduleWithFixedDelay(any(), anyLong(), anyLong(), any());
+    }
+
+    @After
+    public void shutdown() { executor.shutdownNow(); }
+
+    private CachingGauge<Integer> lazy(Gauge<Integer> gauge) {
+        return new CachingGauge<>(gauge, 10, SECONDS, false, clock);
+    }
+
+    private CachingGauge<Integer> background() {
+        CachingGauge<Integer> gauge = new CachingGauge<>(counting, 10, SECONDS, true, clock);
+        gauge.start(scheduler, Runnable::run);
+        verify(scheduler).scheduleWithFixedDelay(trigger.capture(), eq(0L), eq(SECONDS.toNanos(10)), eq(NANOSECONDS));
+        return gauge;
+    }
+
+    @Test
+    public void shouldComputeOncePerTtl() throws Exception {
+        CachingGauge<Integer> gauge = lazy(counting);
+
+        assertThat(gauge.getValue()).isEqualTo(1);
+        clock.plus(9, ChronoUnit.SECONDS);
+        assertThat(gauge.getValue()).isEqualTo(1);
+        clock.plus(1, ChronoUnit.SECONDS);
+        assertThat(gauge.getValue()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldCoalesceConcurrentReaders() throws Exception {
+        CountDownLatch computing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CachingGauge<Integer> gauge = lazy(() -> {
+            computing.countDown();
+            try {
+                release.await(5, SECONDS);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return computations.incrementAndGet();
+        });
+
+        Future<Integer> first = executor.submit(gauge::getValue);
+        assertThat(computing.await(5, SECONDS)).isTrue();
+        Future<Integer> second = executor.submit(gauge::getValue);
+        Future<Integer> third = executor.submit(gauge::getValue);
+        release.countDown();
+
+        assertThat(first.get(5, SECONDS)).isEqualTo(1);
+        assertThat(second.get(5, SECONDS)).isEqualTo(1);
+        assertThat(third.get(5, SECONDS)).isEqualTo(1);
+        assertThat(computations.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldNotCacheFailure() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CachingGauge<Integer> gauge = lazy(() -> {
+            if (calls.incrementAndGet() == 1)
+                throw new IllegalStateException("database down");
+            return 42;
+        });
+
+        Throwable thrown = catchThrowable(gauge::getValue);
+
+        assertThat(thrown).isInstanceOf(IllegalStateException.class);
+        assertThat(gauge.getValue()).isEqualTo(42);
+        assertThat(gauge.getAgeMillis()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldExposeAge() throws Exception {
+        CachingGauge<Integer> gauge = lazy(counting);
+        assertThat(gauge.getAgeMillis()).isEqualTo(-1);
+
+        gauge.getValue();
+        clock.plus(2, ChronoUnit.SECONDS);
+
+        assertThat(gauge.getAgeMillis()).isEqualTo(2000);
+    }
+
+    @Test
+    public void shouldRejectNonPositiveTtl() throws Exception {
+        Throwable thrown = catchThrowable(() -> new CachingGauge<>(counting, 0, SECONDS, true, clock));
+
+        assertThat(thrown).isInstanceOf(IllegalArgumentException.class)
+                          .hasMessage("the ttl of the cached gauge " + counting.getClass().getName()
+                                  + " must be positive, but is 0 SECONDS");
+    }
+
+    @Test
+    public void shouldNotScheduleLazyGauge() throws Exception {
+        lazy(counting).start(scheduler, executor);
+
+        verifyZeroInteractions(scheduler);
+    }
+
+    @Test
+    public void shouldRefreshInBackground() throws Exception {
+        CachingGauge<Integer> gauge = background();
+
+        trigger.getValue().run();
+        clock.plus(1, ChronoUnit.HOURS);
+
+        assertThat(gauge.getValue()).isEqualTo(1);
+        assertThat(gauge.getAgeMillis()).isEqualTo(HOURS.toMillis(1));
+
+        trigger.getValue().run();
+
+        assertThat(gauge.getValue()).isEqualTo(2);
+        assertThat(gauge.getAgeMillis()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldComputeFirstValueOnReadBeforeBackgroundRefresh() throws Exception {
+        CachingGauge<Integer> gauge = background();
+
+        assertThat(gauge.getValue()).isEqualTo(1);
+        assertThat(gauge.getValue()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldStopRefreshing() throws Exception {
+        CachingGauge<Integer> gauge = background();
+
+        gauge.stop();
+
+        verify(future).cancel(false);
+    }
+}
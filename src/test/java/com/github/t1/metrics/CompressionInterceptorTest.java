@@ -0,0 +1,97 @@
+package com.github.t1.metrics;
+
+import org.junit.*;
+import org.junit.runner.RunWith;
+import org.mockito.*;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import javax.ws.rs.core.*;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.*;
+import java.util.zip.*;
+
+import static com.github.t1.metrics.CompressionInterceptor.*;
+import static java.nio.charset.StandardCharsets.*;
+import static javax.ws.rs.core.HttpHeaders.*;
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.Silent.class)
+public class CompressionInterceptorTest {
+    private static final String ENTITY = "foo: 1\nbar: 2\n";
+
+    @InjectMocks CompressionInterceptor interceptor;
+    @Mock HttpHeaders requestHeaders;
+    @Mock WriterInterceptorContext context;
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final MultivaluedMap<String, Object> headers = new MultivaluedHashMap<>();
+    private OutputStream current;
+
+    @Before
+    public void setUp() throws Exception {
+        current = out;
+        when(context.getHeaders()).thenReturn(headers);
+        when(context.getOutputStream()).then(i -> current);
+        doAnswer(i -> current = i.getArgument(0)).when(context).setOutputStream(any());
+        doAnswer(i -> {
+            current.write(ENTITY.getBytes(UTF_8));
+            current.close();
+            return null;
+        }).when(context).proceed();
+    }
+
+    private void givenAcceptEncoding(String value) {
+        when(requestHeaders.getHeaderString(ACCEPT_ENCODING)).thenReturn(value);
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        for (int n; (n = in.read(buffer)) > 0; )
+            bytes.write(buffer, 0, n);
+        return new String(bytes.toByteArray(), UTF_8);
+    }
+
+    @Test
+    public void shouldNotCompressWithoutAcceptEncoding() throws Exception {
+        interceptor.aroundWriteTo(context);
+
+        assertThat(out.toString("UTF-8")).isEqualTo(ENTITY);
+        assertThat(headers).doesNotContainKey(CONTENT_ENCODING);
+        assertThat(headers.getFirst(VARY)).isEqualTo(ACCEPT_ENCODING);
+    }
+
+    @Test
+    public void shouldGzip() throws Exception {
+        givenAcceptEncoding("gzip, deflate");
+
+        interceptor.aroundWriteTo(context);
+
+        assertThat(headers.getFirst(CONTENT_ENCODING)).isEqualTo(GZIP);
+        assertThat(read(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())))).isEqualTo(ENTITY);
+    }
+
+    @Test
+    public void shouldDeflate() throws Exception {
+        givenAcceptEncoding("gzip;q=0.5, deflate");
+
+        interceptor.aroundWriteTo(context);
+
+        assertThat(headers.getFirst(CONTENT_ENCODING)).isEqualTo(DEFLATE);
+        assertThat(read(new InflaterInputStream(new ByteArrayInputStream(out.toByteArray())))).isEqualTo(ENTITY);
+    }
+
+    @Test
+    public void shouldPickEncoding() throws Exception {
+        assertThat(encoding(null)).isNull();
+        assertThat(encoding("identity")).isNull();
+        assertThat(encoding("br")).isNull();
+        assertThat(encoding("*")).isEqualTo(GZIP);
+        assertThat(encoding("deflate, gzip")).isEqualTo(GZIP);
+        assertThat(encoding("br, deflate")).isEqualTo(DEFLATE);
+        assertThat(encoding("gzip;q=0, deflate;q=0.1")).isEqualTo(DEFLATE);
+        assertThat(encoding("GZIP;q=0")).isNull();
+    }
+}
@@ -0,0 +1,65 @@
+package com.github.t1.metrics;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class ConcurrencyLimiterTest {
+    private final ConcurrencyLimiter limiter = new ConcurrencyLimiter(20, 5, 100);
+
+    private void interval(int inFlight, long nanos) {
+        assertThat(limiter.admit(inFlight)).isTrue();
+        limiter.sample(nanos);
+        limiter.adjust();
+    }
+
+    @Test
+    public void shouldAdmitUpToLimit() throws Exception {
+        assertThat(limiter.admit(20)).isTrue();
+        assertThat(limiter.admit(21)).isFalse();
+    }
+
+    @Test
+    public void shouldGrowWithStableLatencyWhenUsed() throws Exception {
+        for (int i = 0; i < 10; i++)
+            interval(limiter.getLimit(), 1_000_000);
+
+        assertThat(limiter.getLimit()).isGreaterThan(20);
+    }
+
+    @Test
+    public void shouldNotGrowWhenNotUsed() throws Exception {
+        for (int i = 0; i < 10; i++)
+            interval(1, 1_000_000);
+
+        assertThat(limiter.getLimit()).isEqualTo(20);
+    }
+
+    @Test
+    public void shouldShrinkWhenLatencyRises() throws Exception {
+        interval(20, 1_000_000);
+        int before = limiter.getLimit();
+
+        for (int i = 0; i < 5; i++)
+            interval(1, 10_000_000);
+
+        assertThat(limiter.getLimit()).isLessThan(before);
+    }
+
+    @Test
+    public void shouldNotShrinkBelowMin() throws Exception {
+        long nanos = 1_000_000;
+        for (int i = 0; i < 60; i++, nanos = nanos * 3 / 2)
+            interval(1, nanos);
+
+        assertThat(limiter.getLimit()).isEqualTo(5);
+    }
+
+    @Test
+    public void shouldNotGrowBeyondMax() throws Exception {
+        for (int i = 0; i < 100; i++)
+            interval(limiter.getLimit(), 1_000_000);
+
+        assertThat(limiter.getLimit()).isEqualTo(100);
+    }
+}
@@ -0,0 +1,140 @@
+package com.github.t1.metrics;
+
+import org.junit.Test;
+
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.*;
+
+import static java.util.concurrent.TimeUnit.*;
+import static org.assertj.core.api.Assertions.*;
+
+public class GaugedHealthCheckTest {
+    private final MockClock clock = new MockClock();
+
+    private class SwitchableHealthCheck extends GaugedHealthCheck {
+        private volatile boolean healthy = true;
+
+        private SwitchableHealthCheck() { super(clock); }
+
+        @Override protected Result check() { return healthy ? Result.healthy() : Result.unhealthy("down"); }
+    }
+
+    private final SwitchableHealthCheck check = new SwitchableHealthCheck();
+
+    private void run(int times) {
+        for (int i = 0; i < times; i++)
+            check.execute();
+    }
+
+    @Test
+    public void shouldBeNaNWithoutResults() throws Exception {
+        assertThat(check.getValue()).isNaN();
+        assertThat(check.getRatio(1)).isNaN();
+    }
+
+    @Test
+    public void shouldGaugeRatioSinceStart() throws Exception {
+        run(3);
+        check.healthy = false;
+        run(1);
+
+        assertThat(check.getValue()).isEqualTo(0.75);
+        assertThat(check.getRatio(1)).isEqualTo(0.75);
+    }
+
+    @Test
+    public void shouldGaugeOnlyRecentResultsInWindow() throws Exception {
+        check.healthy = false;
+        run(10);
+        clock.plus(2, ChronoUnit.MINUTES);
+        check.healthy = true;
+        run(10);
+
+        assertThat(check.getValue()).isEqualTo(0.5);
+        assertThat(check.getRatio(1)).isEqualTo(1.0);
+        assertThat(check.getRatio(5)).isEqualTo(0.5);
+        assertThat(check.getRatio(15)).isEqualTo(0.5);
+    }
+
+    @Test
+    public void shouldForgetResultsOlderThanWindow() throws Exception {
+        check.healthy = false;
+        run(10);
+        clock.plus(16, ChronoUnit.MINUTES);
+        check.healthy = true;
+        run(1);
+
+        assertThat(check.getRatio(15)).isEqualTo(1.0);
+        assertThat(check.getValue()).isEqualTo(1 / 11.0);
+    }
+
+    @Test
+    public void shouldNotReuseStaleBucketAfterFullRing() throws Exception {
+        check.healthy = false;
+        run(10);
+        clock.plus(15, ChronoUnit.MINUTES); // same index in the ring
+        check.healthy = true;
+        run(1);
+
+        assertThat(check.getRatio(1)).isEqualTo(1.0);
+    }
+
+    @Test
+    public void shouldNotCountStaleResultInLaterBucket() throws Exception {
+        run(1);
+        clock.plus(-15, ChronoUnit.MINUTES); // same index in the ring, but an earlier epoch
+        check.healthy = false;
+        run(1);
+        clock.plus(15, ChronoUnit.MINUTES);
+
+        assertThat(check.getRatio(1)).isEqualTo(1.0);
+        assertThat(check.getValue()).isEqualTo(0.5);
+    }
+
+    @Test
+    public void shouldExposeWindowGauges() throws Exception {
+        run(1);
+
+        assertThat(check.getWindowGauges()).containsOnlyKeys("|1m", "|5m", "|15m");
+        assertThat(check.getWindowGauges().get("|5m").getValue()).isEqualTo(1.0);
+    }
+
+    @Test
+    public void shouldRejectUnsupportedWindow() throws Exception {
+        Throwable thrown = catchThrowable(() -> check.getRatio(16));
+
+        assertThat(thrown).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void shouldNotLoseConcurrentUpdates() throws Exception {
+        ThreadLocal<int[]> runs = ThreadLocal.withInitial(() -> new int[1]);
+        GaugedHealthCheck alternating = new GaugedHealthCheck(clock) {
+            @Override protected Result check() {
+                return (runs.get()[0]++ % 2 == 0) ? Result.healthy() : Result.unhealthy("odd");
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            for (int i = 0; i < 8; i++)
+                executor.execute(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < 10_000; j++)
+                        alternating.execute();
+                });
+            start.countDown();
+            executor.shutdown();
+            assertThat(executor.awaitTermination(10, SECONDS)).isTrue();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(alternating.getValue()).isEqualTo(0.5);
+        assertThat(alternating.getRatio(1)).isEqualTo(0.5);
+    }
+}
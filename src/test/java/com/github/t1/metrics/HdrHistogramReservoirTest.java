@@ -0,0 +1,100 @@
+package com.github.t1.metrics;
+
+import com.codahale.metrics.Snapshot;
+import org.junit.Test;
+
+import static java.time.temporal.ChronoUnit.SECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.assertj.core.api.Assertions.*;
+
+public class HdrHistogramReservoirTest {
+    private final MockClock clock = new MockClock();
+    private final HdrHistogramReservoir reservoir = new HdrHistogramReservoir(3, 1, MINUTES, clock);
+
+    @Test
+    public void shouldBeEmpty() throws Exception {
+        Snapshot snapshot = reservoir.getSnapshot();
+
+        assertThat(snapshot.size()).isEqualTo(0);
+        assertThat(snapshot.getMin()).isEqualTo(0);
+        assertThat(snapshot.getMax()).isEqualTo(0);
+        assertThat(snapshot.getValues()).isEmpty();
+    }
+
+    @Test
+    public void shouldRecordAllValues() throws Exception {
+        for (int i = 1; i <= 1000; i++)
+            reservoir.update(i * 1_000L);
+
+        Snapshot snapshot = reservoir.getSnapshot();
+
+        assertThat(snapshot.size()).isEqualTo(1000);
+        assertThat(snapshot.getMin()).isEqualTo(1_000);
+        assertThat((double) snapshot.getMax()).isCloseTo(1_000_000, withinPercentage(0.1));
+        assertThat(snapshot.getMean()).isCloseTo(500_500, withinPercentage(0.1));
+        assertThat(snapshot.getMedian()).isCloseTo(500_000, withinPercentage(0.1));
+        assertThat(snapshot.get99thPercentile()).isCloseTo(990_000, withinPercentage(0.1));
+        assertThat(snapshot.get999thPercentile()).isCloseTo(999_000, withinPercentage(0.1));
+    }
+
+    @Test
+    public void shouldIgnoreNegativeValues() throws Exception {
+        reservoir.update(-1);
+
+        assertThat(reservoir.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldKeepPreviousWindow() throws Exception {
+        reservoir.update(10);
+        reservoir.getSnapshot();
+        clock.plus(90, SECONDS);
+        reservoir.update(20);
+
+        Snapshot snapshot = reservoir.getSnapshot();
+
+        assertThat(snapshot.size()).isEqualTo(2);
+        assertThat(snapshot.getMin()).isEqualTo(10);
+        assertThat(snapshot.getMax()).isEqualTo(20);
+    }
+
+    @Test
+    public void shouldDropExpiredWindows() throws Exception {
+        reservoir.update(10);
+        reservoir.getSnapshot();
+        clock.plus(60, SECONDS);
+        reservoir.getSnapshot();
+        clock.plus(60, SECONDS);
+        reservoir.update(20);
+
+        Snapshot snapshot = reservoir.getSnapshot();
+
+        assertThat(snapshot.size()).isEqualTo(1);
+        assertThat(snapshot.getMin()).isEqualTo(20);
+    }
+
+    @Test
+    public void shouldDropExpiredWindowsWithoutSnapshot() throws Exception {
+        reservoir.update(10);
+        clock.plus(150, SECONDS);
+        reservoir.update(20);
+
+        Snapshot snapshot = reservoir.getSnapshot();
+
+        assertThat(snapshot.size()).isEqualTo(1);
+        assertThat(snapshot.getMin()).isEqualTo(20);
+    }
+
+    @Test
+    public void shouldRotateOnUpdate() throws Exception {
+        reservoir.update(10);
+        clock.plus(60, SECONDS);
+        reservoir.update(20);
+        clock.plus(60, SECONDS);
+
+        Snapshot snapshot = reservoir.getSnapshot();
+
+        assertThat(snapshot.size()).isEqualTo(1);
+        assertThat(snapshot.getMin()).isEqualTo(20);
+    }
+}
@@ -9,12 +9,14 @@ import org.mockito.*;
 import org.mockito.junit.MockitoJUnitRunner;
 
 import javax.ws.rs.core.*;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.*;
 
 import static javax.ws.rs.core.HttpHeaders.*;
 import static javax.ws.rs.core.MediaType.*;
 import static javax.ws.rs.core.Response.Status.*;
 import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -22,6 +24,7 @@ public class HealthChecksBoundaryTest {
     @InjectMocks MetricsBoundary resource;
     @Spy HealthCheckRegistry healthChecks;
     @Mock HttpHeaders headers;
+    @Mock Request request;
 
     private static HealthCheck check(Result result) {
         return new HealthCheck() {
@@ -85,6 +88,27 @@ public class HealthChecksBoundaryTest {
         assertThatHealthChecks(response).containsOnly(entry("foo", Result.unhealthy("bar")));
     }
 
+    @Test
+    public void shouldNotReturnUnmodifiedHealthyChecks() throws Exception {
+        healthChecks.register("foo", check(Result.healthy()));
+        when(request.evaluatePreconditions(any(EntityTag.class))).thenReturn(Response.notModified());
+
+        Response response = resource.getHealthChecks();
+
+        assertThat(response.getStatus()).isEqualTo(304);
+    }
+
+    @Test
+    public void shouldReturnUnhealthyCheckEvenWithMatchingTag() throws Exception {
+        healthChecks.register("foo", check(Result.unhealthy("bar")));
+
+        Response response = resource.getHealthChecks();
+
+        verify(request, never()).evaluatePreconditions(any(EntityTag.class)); // so a matching tag can't be `304`
+        assertThat(response.getStatusInfo()).isEqualTo(INTERNAL_SERVER_ERROR);
+        assertThatHealthChecks(response).containsOnly(entry("foo", Result.unhealthy("bar")));
+    }
+
     @Test
     public void shouldGetTwoHealthyChecks() throws Exception {
         healthChecks.register("foo", check(Result.healthy()));
@@ -106,4 +130,30 @@ public class HealthChecksBoundaryTest {
                 entry("foo", Result.unhealthy("foo-x")),
                 entry("bar", Result.unhealthy("bar-x")));
     }
+
+    @Test
+    public void shouldNotReportAgeOfUnscheduledHealthChecks() throws Exception {
+        resource.healthChecks = new ParallelHealthCheckRegistry(new MetricsConfig(new Properties()));
+        resource.healthChecks.register("foo", check(Result.healthy()));
+
+        Response response = resource.getHealthChecks();
+
+        assertThat(response.getHeaderString(MetricsBoundary.HEALTH_AGE)).isNull();
+    }
+
+    @Test
+    public void shouldReportAgeOfScheduledHealthChecks() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("metrics-ee.health.scheduled", "true");
+        ParallelHealthCheckRegistry registry = new ParallelHealthCheckRegistry(new MetricsConfig(properties));
+        ScheduledExecutorService scheduler = mock(ScheduledExecutorService.class);
+        registry.start(mock(ExecutorService.class), scheduler);
+        registry.register("foo", check(Result.healthy()));
+        resource.healthChecks = registry;
+
+        Response response = resource.getHealthChecks();
+
+        assertThat(response.getHeaderString(MetricsBoundary.HEALTH_AGE)).isNotNull();
+        assertThat(response.getHeaderString("Age")).isNull();
+    }
 }
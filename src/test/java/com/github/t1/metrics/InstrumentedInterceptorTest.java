@@ -0,0 +1,255 @@
+package com.github.t1.metrics;
+
+import com.codahale.metrics.*;
+import com.codahale.metrics.annotation.*;
+import com.codahale.metrics.annotation.Gauge;
+import com.codahale.metrics.annotation.Metered;
+import org.junit.*;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import javax.enterprise.inject.spi.*;
+import javax.enterprise.inject.spi.AnnotatedType;
+import javax.interceptor.InvocationContext;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.*;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.Callable;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.Silent.class)
+public class InstrumentedInterceptorTest {
+    public static class Sample {
+        private int size = 3;
+
+        @Timed public String timed() { return "timed"; }
+
+        @Metered(name = "marks") public void metered() {}
+
+        @Counted(name = "active", absolute = true)
+        public void counted(Callable<?> body) throws Exception { body.call(); }
+
+        @Counted(monotonic = true) public void total() {}
+
+        @ExceptionMetered(cause = IllegalStateException.class) public void fail(RuntimeException e) { throw e; }
+
+        public void plain() {}
+
+        @Gauge public int size() { return size; }
+    }
+
+    @Timed(name = "all")
+    public static class TypeTimed {
+        public void foo() {}
+
+        void hidden() {}
+    }
+
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final MetricsExtension extension = new MetricsExtension();
+    private final InstrumentedInterceptor interceptor = new InstrumentedInterceptor();
+
+    @Before
+    public void setUp() {
+        interceptor.extension = extension;
+    }
+
+    private <T> AnnotatedType<T> process(Class<T> type) {
+        AnnotatedType<T> annotatedType = annotated(type);
+        @SuppressWarnings("unchecked")
+        ProcessAnnotatedType<T> event = mock(ProcessAnnotatedType.class);
+        when(event.getAnnotatedType()).thenReturn(annotatedType);
+        extension.processInstrumented(event);
+        verify(event).setAnnotatedType(argThat(decorated -> decorated.isAnnotationPresent(Instrumented.class)));
+        return annotatedType;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> AnnotatedType<T> annotated(Class<T> type) {
+        AnnotatedType<T> annotatedType = mock(AnnotatedType.class);
+        when(annotatedType.getJavaClass()).thenReturn(type);
+        when(annotatedType.getAnnotation(any())).then(i -> type.getAnnotation(i.getArgument(0)));
+        when(annotatedType.isAnnotationPresent(any())).then(i -> type.isAnnotationPresent(i.getArgument(0)));
+        when(annotatedType.getAnnotations()).thenReturn(new HashSet<>(Arrays.asList(type.getAnnotations())));
+        Set<AnnotatedMethod<? super T>> methods = new HashSet<>();
+        for (Method method : type.getDeclaredMethods()) {
+            AnnotatedMethod<T> annotatedMethod = mock(AnnotatedMethod.class);
+            when(annotatedMethod.getJavaMember()).thenReturn(method);
+            when(annotatedMethod.getAnnotation(any())).then(i -> method.getAnnotation(i.getArgument(0)));
+            when(annotatedMethod.isAnnotationPresent(any()))
+                    .then(i -> method.isAnnotationPresent(i.<Class<Annotation>>getArgument(0)));
+            methods.add(annotatedMethod);
+        }
+        when(annotatedType.getMethods()).thenReturn(methods);
+        return annotatedType;
+    }
+
+    private Object invoke(Object target, String name, Object... args) throws Exception {
+        Method method = Arrays.stream(target.getClass().getMethods())
+                              .filter(m -> m.getName().equals(name))
+                              .findFirst().orElseThrow(() -> new AssertionError("no method " + name));
+        InvocationContext context = mock(InvocationContext.class);
+        when(context.getMethod()).thenReturn(method);
+        when(context.getTarget()).thenReturn(target);
+        when(context.proceed()).then(i -> {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+        return interceptor.aroundInvoke(context);
+    }
+
+    private static String name(String name) { return MetricRegistry.name(Sample.class, name); }
+
+    @Test
+    public void shouldTime() throws Exception {
+        process(Sample.class);
+        extension.resolve(metrics);
+
+        Object result = invoke(new Sample(), "timed");
+
+        assertThat(result).isEqualTo("timed");
+        assertThat(metrics.timer(name("timed")).getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldMeterWithRelativeName() throws Exception {
+        process(Sample.class);
+        extension.resolve(metrics);
+
+        invoke(new Sample(), "metered");
+        invoke(new Sample(), "metered");
+
+        assertThat(metrics.meter(name("marks")).getCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldCountActiveCallsWithAbsoluteName() throws Exception {
+        process(Sample.class);
+        extension.resolve(metrics);
+        long[] during = new long[1];
+
+        invoke(new Sample(), "counted", (Callable<?>) () -> during[0] = metrics.counter("active").getCount());
+
+        assertThat(during[0]).isEqualTo(1);
+        assertThat(metrics.counter("active").getCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldCountMonotonically() throws Exception {
+        process(Sample.class);
+        extension.resolve(metrics);
+
+        invoke(new Sample(), "total");
+
+        assertThat(metrics.counter(name("total")).getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldMeterMatchingExceptions() throws Exception {
+        process(Sample.class);
+        extension.resolve(metrics);
+        Sample sample = new Sample();
+
+        Throwable matching = catchThrowable(() -> invoke(sample, "fail", new IllegalStateException("bad")));
+        Throwable other = catchThrowable(() -> invoke(sample, "fail", new IllegalArgumentException("worse")));
+
+        assertThat(matching).isInstanceOf(IllegalStateException.class);
+        assertThat(other).isInstanceOf(IllegalArgumentException.class);
+        assertThat(metrics.meter(name("fail.exceptions")).getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldNotInstrumentPlainMethod() throws Exception {
+        process(Sample.class);
+        extension.resolve(metrics);
+
+        invoke(new Sample(), "plain");
+
+        assertThat(metrics.getNames()).doesNotContain(name("plain"));
+    }
+
+    @Test
+    public void shouldResolveMetricsOnlyOnce() throws Exception {
+        process(Sample.class);
+        MetricRegistry spy = spy(metrics);
+        extension.resolve(spy);
+        reset(spy);
+
+        invoke(new Sample(), "timed");
+        invoke(new Sample(), "metered");
+
+        verifyZeroInteractions(spy);
+    }
+
+    @Test
+    public void shouldTimePublicMethodsOfAnnotatedType() throws Exception {
+        process(TypeTimed.class);
+        extension.resolve(metrics);
+
+        invoke(new TypeTimed(), "foo");
+
+        assertThat(metrics.timer(MetricRegistry.name(TypeTimed.class, "all", "foo")).getCount()).isEqualTo(1);
+        assertThat(metrics.getNames()).doesNotContain(MetricRegistry.name(TypeTimed.class, "all", "hidden"));
+    }
+
+    @Test
+    public void shouldNotDecorateUninstrumentedType() {
+        @SuppressWarnings("unchecked")
+        ProcessAnnotatedType<Object> event = mock(ProcessAnnotatedType.class);
+        AnnotatedType<Object> type = annotated(Object.class);
+        when(event.getAnnotatedType()).thenReturn(type);
+
+        extension.processInstrumented(event);
+
+        verify(event, never()).setAnnotatedType(any());
+    }
+
+    @Test
+    public void shouldRegisterGaugeOfLatestInstanceAndRemoveItWhenDestroyed() throws Exception {
+        process(Sample.class);
+        extension.resolve(metrics);
+        Sample first = new Sample();
+        Sample second = new Sample();
+        second.size = 5;
+
+        interceptor.postConstruct(context(first));
+        interceptor.postConstruct(context(second));
+
+        assertThat(metrics.getGauges().get(name("size")).getValue()).isEqualTo(5);
+
+        interceptor.preDestroy(context(first));
+        assertThat(metrics.getGauges()).containsKey(name("size"));
+
+        interceptor.preDestroy(context(second));
+        assertThat(metrics.getGauges()).doesNotContainKey(name("size"));
+    }
+
+    @Test
+    public void shouldRegisterGaugeOnlyOnceForAllInstances() throws Exception {
+        process(Sample.class);
+        MetricRegistry spy = spy(metrics);
+        extension.resolve(spy);
+        Sample second = new Sample();
+        second.size = 5;
+
+        interceptor.postConstruct(context(new Sample()));
+        reset(spy);
+        interceptor.postConstruct(context(second));
+
+        verifyZeroInteractions(spy);
+        assertThat(metrics.getGauges().get(name("size")).getValue()).isEqualTo(5);
+    }
+
+    private static InvocationContext context(Object target) {
+        InvocationContext context = mock(InvocationContext.class);
+        when(context.getTarget()).thenReturn(target);
+        return context;
+    }
+}
@@ -0,0 +1,470 @@
+package com.github.t1.metrics;
+
+import com.codahale.metrics.*;
+import org.junit.*;
+import org.junit.runner.RunWith;
+import org.mockito.*;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import javax.servlet.*;
+import javax.ws.rs.*;
+import javax.ws.rs.client.*;
+import javax.ws.rs.container.*;
+import javax.ws.rs.core.*;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static java.util.concurrent.TimeUnit.*;
+import static javax.ws.rs.core.Response.Status.*;
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.Silent.class)
+public class JaxRsBindingTest {
+    @Spy MetricRegistry metrics;
+    @InjectMocks JaxRsBinding binding;
+
+    @Mock ContainerRequestContext containerRequest;
+    @Mock ContainerResponseContext containerResponse;
+    @Mock UriInfo uriInfo;
+    @Mock ResourceInfo resourceInfo;
+    @Mock ClientRequestContext clientRequest;
+    @Mock ClientResponseContext clientResponse;
+
+    private final Map<String, Object> properties = new HashMap<>();
+    private final Properties config = new Properties();
+
+    @Path("/orders")
+    public static class OrdersResource {
+        @GET @Path("/{id: [0-9]+}") public String get() { return null; }
+
+        @POST public void post(@Suspended AsyncResponse asyncResponse) {}
+    }
+
+    @Path("/special-orders")
+    public static class SpecialOrdersResource extends OrdersResource {}
+
+    @Before
+    public void setUp() {
+        binding.endpoints = new Endpoints(metrics, new MetricsConfig(config));
+
+        when(containerRequest.getUriInfo()).thenReturn(uriInfo);
+        when(uriInfo.getPath()).thenReturn("foo");
+        when(containerRequest.getMethod()).thenReturn("GET");
+        doAnswer(i -> properties.put(i.getArgument(0), i.getArgument(1)))
+                .when(containerRequest).setProperty(anyString(), any());
+        when(containerRequest.getProperty(anyString())).then(i -> properties.get(i.<String>getArgument(0)));
+        when(containerResponse.getStatusInfo()).thenReturn(OK);
+
+        when(clientRequest.getUri()).thenReturn(URI.create("http://example.org/bar"));
+        when(clientRequest.getMethod()).thenReturn("POST");
+        doAnswer(i -> properties.put(i.getArgument(0), i.getArgument(1)))
+                .when(clientRequest).setProperty(anyString(), any());
+        when(clientRequest.getProperty(anyString())).then(i -> properties.get(i.<String>getArgument(0)));
+        when(clientResponse.getStatusInfo()).thenReturn(CREATED);
+    }
+
+    private void givenTemplateNaming() throws NoSuchMethodException {
+        config.setProperty("metrics-ee.resources.naming", "template");
+        binding.endpoints = new Endpoints(metrics, new MetricsConfig(config));
+        doReturn(OrdersResource.class).when(resourceInfo).getResourceClass();
+        when(resourceInfo.getResourceMethod()).thenReturn(OrdersResource.class.getMethod("get"));
+    }
+
+    private void givenAsync() throws NoSuchMethodException {
+        doReturn(OrdersResource.class).when(resourceInfo).getResourceClass();
+        when(resourceInfo.getResourceMethod()).thenReturn(OrdersResource.class.getMethod("post", AsyncResponse.class));
+    }
+
+    private Meter status(String name) {
+        String endpoint = name.substring(0, name.lastIndexOf('|'));
+        return ((StatusMeters) metrics.getMetrics().get(endpoint + "|status")).getMeters().get(name);
+    }
+
+    private void serve() {
+        binding.filter(containerRequest);
+        binding.filter(containerRequest, containerResponse);
+    }
+
+    private void call() {
+        binding.filter(clientRequest);
+        binding.filter(clientRequest, clientResponse);
+    }
+
+    @Test
+    public void shouldTimeResource() throws Exception {
+        serve();
+
+        assertThat(metrics.getNames()).containsOnly("metrics-ee.in-flight",
+                "resources/foo|GET|timer", "resources/foo|GET|status", "resources/foo|GET|in-flight");
+        assertThat(metrics.timer("resources/foo|GET|timer").getCount()).isEqualTo(1);
+        assertThat(status("resources/foo|GET|SUCCESSFUL").getCount()).isEqualTo(1);
+        assertThat(status("resources/foo|GET|200").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldTimeCall() throws Exception {
+        call();
+
+        assertThat(metrics.getNames()).containsOnly("metrics-ee.in-flight",
+                "calls/bar|POST|timer", "calls/bar|POST|status");
+        assertThat(metrics.timer("calls/bar|POST|timer").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldResolveMetricsOnlyOnce() throws Exception {
+        serve();
+        serve();
+        serve();
+
+        verify(metrics, times(1)).timer(anyString());
+        verify(metrics, times(1)).register(eq("resources/foo|GET|status"), any());
+        assertThat(metrics.timer("resources/foo|GET|timer").getCount()).isEqualTo(3);
+        assertThat(status("resources/foo|GET|200").getCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldResolveAgainAfterRemoval() throws Exception {
+        serve();
+        metrics.remove("resources/foo|GET|timer");
+
+        serve();
+
+        assertThat(metrics.timer("resources/foo|GET|timer").getCount()).isEqualTo(1);
+        assertThat(status("resources/foo|GET|200").getCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldNameResourceByTemplate() throws Exception {
+        givenTemplateNaming();
+        when(uriInfo.getPath()).thenReturn("orders/1", "orders/2");
+
+        serve();
+        serve();
+
+        assertThat(metrics.getNames()).containsOnly("metrics-ee.in-flight",
+                "resources/orders/{id}|GET|in-flight",
+                "resources/orders/{id}|GET|timer",
+                "resources/orders/{id}|GET|status");
+        assertThat(metrics.timer("resources/orders/{id}|GET|timer").getCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldFoldUnmatchedResourcesWithTemplateNaming() throws Exception {
+        givenTemplateNaming();
+        when(resourceInfo.getResourceMethod()).thenReturn(null);
+        when(uriInfo.getPath()).thenReturn("foo", "bar");
+
+        serve();
+        serve();
+
+        assertThat(metrics.getTimers().keySet()).containsOnly("resources/<unmatched>|GET|timer");
+        assertThat(metrics.timer("resources/<unmatched>|GET|timer").getCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldNameInheritedResourceMethodByTemplateOfResourceClass() throws Exception {
+        givenTemplateNaming();
+        doReturn(SpecialOrdersResource.class).when(resourceInfo).getResourceClass();
+        when(uriInfo.getPath()).thenReturn("special-orders/1", "special-orders/2");
+
+        serve();
+        serve();
+
+        verify(metrics, times(1)).timer(anyString());
+        assertThat(metrics.timer("resources/special-orders/{id}|GET|timer").getCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldNormalizeCallUri() throws Exception {
+        binding.endpoints.setUriNormalizer(UriNormalizer.IDS);
+        when(clientRequest.getUri()).thenReturn(
+                URI.create("http://example.org/orders/123"),
+                URI.create("http://example.org/orders/0b5b3b7e-5f4a-4c4e-9a5e-2b8c6f0a1d2e/items"));
+
+        call();
+        call();
+
+        assertThat(metrics.getNames()).contains("calls/orders/{id}|POST|timer", "calls/orders/{id}/items|POST|timer");
+    }
+
+    @Test
+    public void shouldOnlyCountStatusWithoutStart() throws Exception {
+        binding.filter(containerRequest, containerResponse);
+
+        assertThat(metrics.getNames()).containsOnly("metrics-ee.in-flight",
+                "resources/foo|GET|timer", "resources/foo|GET|status");
+        assertThat(metrics.timer("resources/foo|GET|timer").getCount()).isEqualTo(0);
+        assertThat(status("resources/foo|GET|200").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldTimeInNanoseconds() throws Exception {
+        properties.put(JaxRsBinding.class + "#START_NANOS", System.nanoTime() - 1_234);
+
+        binding.filter(containerRequest, containerResponse);
+
+        assertThat(metrics.timer("resources/foo|GET|timer").getSnapshot().getMin()).isBetween(1_234L, 1_000_000L);
+    }
+
+    @Test
+    public void shouldUseHdrHistogramReservoir() throws Exception {
+        config.setProperty("metrics-ee.endpoints.reservoir", "hdr-histogram");
+        binding.endpoints = new Endpoints(metrics, new MetricsConfig(config));
+
+        serve();
+
+        assertThat(metrics.timer("resources/foo|GET|timer").getSnapshot().getClass().getEnclosingClass())
+                .isEqualTo(HdrHistogramReservoir.class);
+    }
+
+    @Test
+    public void shouldFoldEndpointsBeyondBudgetIntoOverflow() throws Exception {
+        config.setProperty("metrics-ee.endpoints.budget", "3");
+        config.setProperty("metrics-ee.endpoints.budget.resources", "2");
+        binding.endpoints = new Endpoints(metrics, new MetricsConfig(config));
+        when(uriInfo.getPath()).thenReturn("a", "b", "c", "d", "a");
+
+        serve();
+        serve();
+        serve();
+        serve();
+        serve();
+        call();
+
+        assertThat(metrics.getTimers().keySet()).containsOnly(
+                "resources/a|GET|timer", "resources/b|GET|timer",
+                "resources/__overflow__|timer", "calls/bar|POST|timer");
+        assertThat(metrics.timer("resources/a|GET|timer").getCount()).isEqualTo(2);
+        assertThat(metrics.timer("resources/__overflow__|timer").getCount()).isEqualTo(2);
+        assertThat(status("resources/__overflow__|200").getCount()).isEqualTo(2);
+        assertThat(metrics.counter("resources/__overflow__|dropped").getCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldCreateOverflowOnlyOnceForConcurrentRequests() throws Exception {
+        config.setProperty("metrics-ee.endpoints.budget.calls", "0");
+        binding.endpoints = new Endpoints(metrics, new MetricsConfig(config));
+        CountDownLatch registering = new CountDownLatch(2);
+        doAnswer(i -> {
+            registering.countDown();
+            registering.await(500, MILLISECONDS); // give a concurrent request the chance to register, too
+            return i.callRealMethod();
+        }).when(metrics).register(eq("calls/__overflow__|status"), any());
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<Endpoint>> endpoints = new ArrayList<>();
+            for (int i = 0; i < 2; i++)
+                endpoints.add(executor.submit(() -> binding.endpoints.call(clientRequest)));
+
+            assertThat(endpoints.get(0).get(5, SECONDS)).isSameAs(endpoints.get(1).get(5, SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        verify(metrics, times(1)).register(eq("calls/__overflow__|status"), any());
+        assertThat(metrics.counter("calls/__overflow__|dropped").getCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldReleaseBudgetOnlyOfRemovedEndpoint() throws Exception {
+        config.setProperty("metrics-ee.endpoints.budget.resources", "2");
+        binding.endpoints = new Endpoints(metrics, new MetricsConfig(config));
+        when(uriInfo.getPath()).thenReturn("a", "b", "c", "b", "d");
+
+        serve();
+        serve();
+        metrics.remove("resources/a|GET|timer");
+        serve();
+        serve();
+        serve();
+
+        verify(metrics, times(1)).timer("resources/b|GET|timer");
+        assertThat(metrics.getTimers().keySet()).containsOnly(
+                "resources/b|GET|timer", "resources/c|GET|timer", "resources/__overflow__|timer");
+        assertThat(metrics.timer("resources/b|GET|timer").getCount()).isEqualTo(2);
+        assertThat(metrics.timer("resources/__overflow__|timer").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldSampleOneInN() throws Exception {
+        config.setProperty("metrics-ee.endpoints.sampling.resources", "1000000");
+        config.setProperty("metrics-ee.endpoints.sampling.resources/foo", "1");
+        binding.endpoints = new Endpoints(metrics, new MetricsConfig(config));
+        when(uriInfo.getPath()).thenReturn("foo", "foo", "bar", "bar");
+
+        serve();
+        serve();
+        serve();
+        serve();
+
+        assertThat(metrics.timer("resources/foo|GET|timer").getCount()).isEqualTo(2);
+        assertThat(metrics.timer("resources/foo|GET|timer").getSnapshot().size()).isEqualTo(2);
+        assertThat(metrics.getGauges().get("resources/foo|GET|sampled").getValue()).isEqualTo(1.0);
+        assertThat(metrics.timer("resources/bar|GET|timer").getCount()).isEqualTo(2);
+        assertThat(metrics.timer("resources/bar|GET|timer").getSnapshot().size()).isLessThan(2);
+        assertThat(metrics.getGauges()).doesNotContainKey("calls/bar|POST|sampled");
+    }
+
+    @Test
+    public void shouldRejectInvalidSamplingOnStart() throws Exception {
+        config.setProperty("metrics-ee.endpoints.sampling.resources/foo", "often");
+
+        Throwable thrown = catchThrowable(() -> new Endpoints(metrics, new MetricsConfig(config)));
+
+        assertThat(thrown).isInstanceOf(IllegalArgumentException.class)
+                          .hasMessageContaining("metrics-ee.endpoints.sampling.resources/foo");
+    }
+
+    @Test
+    public void shouldSamplePerSecond() throws Exception {
+        config.setProperty("metrics-ee.endpoints.sampling.calls", "2/s");
+        binding.endpoints = new Endpoints(metrics, new MetricsConfig(config));
+
+        for (int i = 0; i < 10; i++)
+            call();
+
+        assertThat(metrics.timer("calls/bar|POST|timer").getCount()).isEqualTo(10);
+        assertThat(metrics.timer("calls/bar|POST|timer").getSnapshot().size()).isBetween(2, 4);
+        assertThat((double) metrics.getGauges().get("calls/bar|POST|sampled").getValue()).isBetween(0.2, 0.4);
+    }
+
+    @Test
+    public void shouldCountRequestsInFlight() throws Exception {
+        binding.filter(containerRequest);
+
+        assertThat(metrics.counter("resources/foo|GET|in-flight").getCount()).isEqualTo(1);
+        assertThat(metrics.getGauges().get("metrics-ee.in-flight").getValue()).isEqualTo(1);
+
+        binding.filter(containerRequest, containerResponse);
+
+        assertThat(metrics.counter("resources/foo|GET|in-flight").getCount()).isEqualTo(0);
+        assertThat(metrics.getGauges().get("metrics-ee.in-flight").getValue()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldRejectRequestsBeyondLimit() throws Exception {
+        config.setProperty("metrics-ee.limiter.enabled", "true");
+        config.setProperty("metrics-ee.limiter.initial", "1");
+        config.setProperty("metrics-ee.limiter.retry-after-seconds", "3");
+        binding.endpoints = new Endpoints(metrics, new MetricsConfig(config));
+        ContainerRequestContext second = mock(ContainerRequestContext.class);
+        when(second.getUriInfo()).thenReturn(uriInfo);
+        when(second.getMethod()).thenReturn("GET");
+        ArgumentCaptor<Response> rejection = ArgumentCaptor.forClass(Response.class);
+
+        binding.filter(containerRequest);
+        binding.filter(second);
+
+        verify(containerRequest, never()).abortWith(any());
+        verify(second).abortWith(rejection.capture());
+        assertThat(rejection.getValue().getStatus()).isEqualTo(503);
+        assertThat(rejection.getValue().getHeaderString("Retry-After")).isEqualTo("3");
+        assertThat(metrics.meter("metrics-ee.limiter.rejected").getCount()).isEqualTo(1);
+        assertThat(metrics.counter("resources/foo|GET|in-flight").getCount()).isEqualTo(1);
+
+        when(containerResponse.getStatusInfo()).thenReturn(SERVICE_UNAVAILABLE);
+        binding.filter(second, containerResponse);
+
+        assertThat(status("resources/foo|GET|503").getCount()).isEqualTo(1);
+        assertThat(metrics.counter("resources/foo|GET|in-flight").getCount()).isEqualTo(1);
+        assertThat(metrics.timer("resources/foo|GET|timer").getCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldCountSuspendedRequests() throws Exception {
+        givenAsync();
+
+        binding.filter(containerRequest);
+
+        assertThat(metrics.counter("resources/foo|GET|suspended").getCount()).isEqualTo(1);
+        assertThat(properties.get(TrackedAsyncResponse.REQUEST)).isSameAs(containerRequest);
+
+        binding.filter(containerRequest, containerResponse);
+
+        assertThat(metrics.counter("resources/foo|GET|suspended").getCount()).isEqualTo(0);
+        assertThat(metrics.timer("resources/foo|GET|timer").getCount()).isEqualTo(1);
+        assertThat(metrics.getMeters().keySet()).doesNotContain("resources/foo|GET|timeouts");
+    }
+
+    @Test
+    public void shouldMeterTimeouts() throws Exception {
+        givenAsync();
+        AsyncResponse asyncResponse = mock(AsyncResponse.class);
+        ArgumentCaptor<TimeoutHandler> timeoutHandler = ArgumentCaptor.forClass(TimeoutHandler.class);
+        binding.filter(containerRequest);
+        new TrackedAsyncResponse(asyncResponse, containerRequest);
+        verify(asyncResponse).setTimeoutHandler(timeoutHandler.capture());
+
+        timeoutHandler.getValue().handleTimeout(asyncResponse);
+        binding.filter(containerRequest, containerResponse);
+
+        verify(asyncResponse).resume(any(ServiceUnavailableException.class));
+        assertThat(metrics.meter("resources/foo|GET|timeouts").getCount()).isEqualTo(1);
+        assertThat(metrics.counter("resources/foo|GET|suspended").getCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldMeterCancellations() throws Exception {
+        givenAsync();
+        AsyncResponse asyncResponse = mock(AsyncResponse.class);
+        binding.filter(containerRequest);
+
+        new TrackedAsyncResponse(asyncResponse, containerRequest).cancel();
+        binding.filter(containerRequest, containerResponse);
+
+        verify(asyncResponse).cancel();
+        assertThat(metrics.meter("resources/foo|GET|cancellations").getCount()).isEqualTo(1);
+    }
+
+    private void destroyServletRequest() {
+        ServletRequest servletRequest = mock(ServletRequest.class);
+        when(servletRequest.getAttribute(anyString())).then(i -> properties.get(i.<String>getArgument(0)));
+        new InFlightListener().requestDestroyed(new ServletRequestEvent(mock(ServletContext.class), servletRequest));
+    }
+
+    @Test
+    public void shouldExitOnCompletionWhenResponseFilterDoesNotRun() throws Exception {
+        config.setProperty("metrics-ee.limiter.enabled", "true");
+        config.setProperty("metrics-ee.limiter.initial", "1");
+        binding.endpoints = new Endpoints(metrics, new MetricsConfig(config));
+
+        binding.filter(containerRequest); // e.g. an unmapped exception propagates to the container
+        destroyServletRequest();
+
+        assertThat(metrics.counter("resources/foo|GET|in-flight").getCount()).isEqualTo(0);
+        assertThat(metrics.getGauges().get("metrics-ee.in-flight").getValue()).isEqualTo(0);
+
+        properties.clear();
+        binding.filter(containerRequest);
+
+        verify(containerRequest, never()).abortWith(any());
+    }
+
+    @Test
+    public void shouldExitOnlyOnceWhenResponseFilterRunsBeforeCompletion() throws Exception {
+        serve();
+        destroyServletRequest();
+
+        assertThat(metrics.counter("resources/foo|GET|in-flight").getCount()).isEqualTo(0);
+        assertThat(metrics.getGauges().get("metrics-ee.in-flight").getValue()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldExitAbandonedAsyncRequestWhenClientDisconnects() throws Exception {
+        givenAsync();
+        AsyncResponse asyncResponse = mock(AsyncResponse.class);
+        ArgumentCaptor<Object> callback = ArgumentCaptor.forClass(Object.class);
+        binding.filter(containerRequest);
+        new TrackedAsyncResponse(asyncResponse, containerRequest);
+        verify(asyncResponse).register(callback.capture());
+
+        ((ConnectionCallback) callback.getValue()).onDisconnect(asyncResponse);
+        ((CompletionCallback) callback.getValue()).onComplete(null);
+
+        assertThat(metrics.counter("resources/foo|GET|suspended").getCount()).isEqualTo(0);
+        assertThat(metrics.counter("resources/foo|GET|in-flight").getCount()).isEqualTo(0);
+        assertThat(metrics.getGauges().get("metrics-ee.in-flight").getValue()).isEqualTo(0);
+    }
+}
@@ -0,0 +1,178 @@
+package com.github.t1.metrics;
+
+import com.codahale.metrics.*;
+import com.codahale.metrics.Timer;
+import org.junit.*;
+
+import javax.management.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.TimeUnit.*;
+import static org.assertj.core.api.Assertions.*;
+
+public class JmxMetricsTest {
+    private final MBeanServer server = MBeanServerFactory.newMBeanServer();
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final Properties properties = new Properties();
+    private JmxMetrics jmx;
+
+    @After
+    public void close() {
+        if (jmx != null)
+            jmx.close();
+    }
+
+    private void start() {
+        jmx = new JmxMetrics(metrics, new MetricsConfig(properties), server);
+        jmx.start();
+    }
+
+    private Set<String> names(String domain) throws Exception {
+        Set<String> names = new TreeSet<>();
+        for (ObjectName name : server.queryNames(new ObjectName(domain + ":*"), null))
+            names.add(name.getCanonicalName());
+        return names;
+    }
+
+    private void registerEndpoint() {
+        metrics.timer("resources/orders|GET|timer").update(2, MILLISECONDS);
+        metrics.counter("resources/orders|GET|in-flight").inc();
+        StatusMeters statuses = new StatusMeters("resources/orders|GET");
+        metrics.register("resources/orders|GET|status", statuses);
+        statuses.mark(200);
+        statuses.mark(200);
+    }
+
+    @Test
+    public void shouldIncludeEndpointsByDefault() throws Exception {
+        metrics.counter("foo");
+        registerEndpoint();
+
+        start();
+
+        assertThat(names("metrics")).containsExactly("metrics:name=foo",
+                "metrics:name=resources/orders|GET|in-flight",
+                "metrics:name=resources/orders|GET|status",
+                "metrics:name=resources/orders|GET|timer");
+    }
+
+    @Test
+    public void shouldExcludeEndpoints() throws Exception {
+        properties.setProperty("metrics-ee.jmx.exclude", "resources/*, calls/*");
+        metrics.counter("foo");
+        registerEndpoint();
+
+        start();
+
+        assertThat(names("metrics")).containsExactly("metrics:name=foo");
+    }
+
+    @Test
+    public void shouldIncludeAndExcludeByPattern() throws Exception {
+        properties.setProperty("metrics-ee.jmx.domain", "app");
+        properties.setProperty("metrics-ee.jmx.include", "jvm.*, resources/*|timer");
+        properties.setProperty("metrics-ee.jmx.exclude", "jvm.gc.*");
+        metrics.counter("foo");
+        metrics.counter("jvm.memory.used");
+        metrics.counter("jvm.gc.count");
+        registerEndpoint();
+
+        start();
+
+        assertThat(names("metrics")).isEmpty();
+        assertThat(names("app")).containsExactly("app:name=jvm.memory.used", "app:name=resources/orders|GET|timer");
+    }
+
+    @Test
+    public void shouldPublishCompositeEndpoint() throws Exception {
+        properties.setProperty("metrics-ee.jmx.endpoints", "composite");
+        properties.setProperty("metrics-ee.jmx.exclude", "");
+        registerEndpoint();
+
+        start();
+
+        ObjectName name = new ObjectName("metrics:type=resources,name=\"orders|GET\"");
+        assertThat(names("metrics")).containsExactly(name.getCanonicalName());
+        assertThat(server.getAttribute(name, "timer.count")).isEqualTo(1L);
+        assertThat(server.getAttribute(name, "timer.max")).isEqualTo(2_000_000L);
+        assertThat(server.getAttribute(name, "in-flight.count")).isEqualTo(1L);
+        assertThat(server.getAttribute(name, "200.count")).isEqualTo(2L);
+        assertThat(server.getAttribute(name, "SUCCESSFUL.count")).isEqualTo(2L);
+        assertThat(server.getMBeanInfo(name).getAttributes()).extracting(MBeanAttributeInfo::getName)
+                .contains("timer.p99", "in-flight.count", "200.m1_rate");
+        assertThatThrownBy(() -> server.getAttribute(name, "unknown"))
+                .isInstanceOf(AttributeNotFoundException.class);
+    }
+
+    @Test
+    public void shouldUnregisterCompositeWhenAllMetricsRemoved() throws Exception {
+        properties.setProperty("metrics-ee.jmx.endpoints", "composite");
+        start();
+        registerEndpoint();
+        assertThat(names("metrics")).hasSize(1);
+
+        metrics.removeMatching((name, metric) -> name.startsWith("resources/"));
+
+        assertThat(names("metrics")).isEmpty();
+    }
+
+    @Test
+    public void shouldUnregisterAllWhenClosed() throws Exception {
+        properties.setProperty("metrics-ee.jmx.endpoints", "composite");
+        metrics.counter("foo");
+        registerEndpoint();
+        start();
+
+        jmx.close();
+        jmx = null;
+
+        assertThat(names("metrics")).isEmpty();
+    }
+
+    @Test
+    public void shouldFilterCompositeEndpointMetrics() throws Exception {
+        properties.setProperty("metrics-ee.jmx.endpoints", "composite");
+        properties.setProperty("metrics-ee.jmx.exclude", "resources/*|in-flight, calls/*");
+        registerEndpoint();
+        metrics.counter("calls/orders|GET|in-flight");
+
+        start();
+
+        ObjectName name = new ObjectName("metrics:type=resources,name=\"orders|GET\"");
+        assertThat(names("metrics")).containsExactly(name.getCanonicalName());
+        assertThat(server.getMBeanInfo(name).getAttributes()).extracting(MBeanAttributeInfo::getName)
+                .contains("timer.count", "200.count").doesNotContain("in-flight.count");
+        assertThatThrownBy(() -> server.getAttribute(name, "in-flight.count"))
+                .isInstanceOf(AttributeNotFoundException.class);
+    }
+
+    @Test
+    public void shouldReadOnlyRequestedCompositeAttributes() throws Exception {
+        properties.setProperty("metrics-ee.jmx.endpoints", "composite");
+        AtomicInteger snapshots = new AtomicInteger();
+        metrics.register("resources/orders|GET|timer", new Timer() {
+            @Override public Snapshot getSnapshot() {
+                snapshots.incrementAndGet();
+                return super.getSnapshot();
+            }
+        });
+        metrics.counter("resources/orders|GET|in-flight").inc();
+        start();
+        ObjectName name = new ObjectName("metrics:type=resources,name=\"orders|GET\"");
+
+        server.getMBeanInfo(name);
+        Object inFlight = server.getAttribute(name, "in-flight.count");
+        Object count = server.getAttribute(name, "timer.count");
+
+        assertThat(inFlight).isEqualTo(1L);
+        assertThat(count).isEqualTo(0L);
+        assertThat(snapshots.get()).isEqualTo(0);
+
+        AttributeList list = server.getAttributes(name, new String[]{ "timer.p99", "timer.max", "in-flight.count" });
+
+        assertThat(list.asList()).extracting(Attribute::getName)
+                .containsOnly("timer.p99", "timer.max", "in-flight.count");
+        assertThat(snapshots.get()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,35 @@
+package com.github.t1.metrics;
+
+import org.junit.Test;
+
+import static com.github.t1.metrics.JvmMetricSet.*;
+import static org.assertj.core.api.Assertions.*;
+
+public class JvmMetricSetTest {
+    @Test
+    public void shouldParseAll() throws Exception {
+        assertThat(parse("all")).containsExactly(JvmMetricSet.values());
+    }
+
+    @Test
+    public void shouldParseNone() throws Exception {
+        assertThat(parse("none")).isEmpty();
+        assertThat(parse("")).isEmpty();
+    }
+
+    @Test
+    public void shouldParseList() throws Exception {
+        assertThat(parse(" gc, Class-Loader ,memory")).containsExactly(CLASS_LOADER, GC, MEMORY);
+    }
+
+    @Test
+    public void shouldFailToParseUnknown() throws Exception {
+        assertThatThrownBy(() -> parse("gc,foo")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void shouldCreateMetrics() throws Exception {
+        assertThat(MEMORY.getPrefix()).isEqualTo("jvm.memory");
+        assertThat(MEMORY.create().getMetrics()).containsKey("heap.used");
+    }
+}
@@ -0,0 +1,56 @@
+package com.github.t1.metrics;
+
+import com.codahale.metrics.*;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class LayoutCacheTest {
+    private final AtomicInteger prepared = new AtomicInteger();
+    private final LayoutCache<Set<String>> layouts = new LayoutCache<>(metrics -> {
+        prepared.incrementAndGet();
+        return new TreeSet<>(metrics.keySet());
+    }, (layout, metrics) -> layout.equals(metrics.keySet()));
+
+    private static SortedMap<String, Metric> metrics(String... names) {
+        SortedMap<String, Metric> metrics = new TreeMap<>();
+        for (String name : names)
+            metrics.put(name, new Counter());
+        return metrics;
+    }
+
+    @Test
+    public void shouldPrepareLayoutOnce() throws Exception {
+        Set<String> first = layouts.get(metrics("a", "b"));
+        Set<String> second = layouts.get(metrics("a", "b"));
+
+        assertThat(second).isSameAs(first).containsExactly("a", "b");
+        assertThat(prepared.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldKeepLayoutsOfAlternatingNames() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            layouts.get(metrics("a"));
+            layouts.get(metrics("b"));
+            layouts.get(metrics("a", "b"));
+        }
+
+        assertThat(prepared.get()).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldReplaceOldestLayout() throws Exception {
+        for (int i = 0; i <= LayoutCache.SIZE; i++)
+            layouts.get(metrics("metric-" + i));
+
+        layouts.get(metrics("metric-" + LayoutCache.SIZE));
+        assertThat(prepared.get()).isEqualTo(LayoutCache.SIZE + 1);
+
+        layouts.get(metrics("metric-0"));
+        assertThat(prepared.get()).isEqualTo(LayoutCache.SIZE + 2);
+    }
+}
@@ -0,0 +1,175 @@
+package com.github.t1.metrics;
+
+import com.codahale.metrics.*;
+import com.codahale.metrics.Timer;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class MetricChangesTest {
+    private static final long START = 1000;
+
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final MetricChanges changes = new MetricChanges(metrics, START);
+
+    private MetricChanges.Delta since(long cursor) {
+        return changes.since(cursor, new TreeMap<>(metrics.getMetrics()));
+    }
+
+    @Test
+    public void shouldResetUnknownCursor() throws Exception {
+        metrics.register("foo", new Counter());
+
+        MetricChanges.Delta delta = since(0);
+
+        assertThat(delta.isReset()).isTrue();
+        assertThat(delta.getCursor()).isEqualTo(START + 1);
+        assertThat(delta.getMetrics()).containsOnlyKeys("foo");
+        assertThat(delta.getRemoved()).isEmpty();
+    }
+
+    @Test
+    public void shouldResetCursorFromTheFuture() throws Exception {
+        metrics.register("foo", new Counter());
+        long cursor = since(START).getCursor();
+
+        MetricChanges.Delta delta = since(cursor + 1);
+
+        assertThat(delta.isReset()).isTrue();
+        assertThat(delta.getMetrics()).containsOnlyKeys("foo");
+    }
+
+    @Test
+    public void shouldReturnNothingWhenNothingChanged() throws Exception {
+        metrics.register("foo", new Counter());
+        metrics.register("bar", new Meter());
+        long cursor = since(START).getCursor();
+
+        MetricChanges.Delta delta = since(cursor);
+
+        assertThat(delta.isReset()).isFalse();
+        assertThat(delta.getCursor()).isEqualTo(cursor + 1);
+        assertThat(delta.getMetrics()).isEmpty();
+        assertThat(delta.getRemoved()).isEmpty();
+    }
+
+    @Test
+    public void shouldReturnChangedCountsAndAllGauges() throws Exception {
+        Counter counter = new Counter();
+        Timer timer = new Timer();
+        metrics.register("counter", counter);
+        metrics.register("timer", timer);
+        metrics.register("gauge", (Gauge<String>) () -> "a");
+        metrics.register("idle", new Counter());
+        long cursor = since(START).getCursor();
+
+        counter.inc();
+        timer.time().stop();
+        MetricChanges.Delta delta = since(cursor);
+
+        assertThat(delta.getMetrics()).containsOnlyKeys("counter", "timer", "gauge");
+    }
+
+    @Test
+    public void shouldNotReadGauges() throws Exception {
+        AtomicInteger reads = new AtomicInteger();
+        metrics.register("gauge", (Gauge<Integer>) reads::incrementAndGet);
+        long cursor = since(START).getCursor();
+
+        since(cursor);
+
+        assertThat(reads.get()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldReturnChangesSinceOlderCursor() throws Exception {
+        Counter counter = new Counter();
+        metrics.register("counter", counter);
+        long first = since(START).getCursor();
+        counter.inc();
+        since(first);
+
+        MetricChanges.Delta delta = since(first);
+
+        assertThat(delta.getMetrics()).containsOnlyKeys("counter");
+    }
+
+    @Test
+    public void shouldReturnAddedAndRemovedMetrics() throws Exception {
+        metrics.register("foo", new Counter());
+        metrics.register("bar", new Counter());
+        long cursor = since(START).getCursor();
+
+        metrics.remove("foo");
+        metrics.register("baz", new Counter());
+        MetricChanges.Delta delta = since(cursor);
+
+        assertThat(delta.getMetrics()).containsOnlyKeys("baz");
+        assertThat(delta.getRemoved()).containsExactly("foo");
+        assertThat(since(delta.getCursor()).getRemoved()).isEmpty();
+    }
+
+    @Test
+    public void shouldNotReturnMetricRemovedAndAddedAgainAsRemoved() throws Exception {
+        metrics.register("foo", new Counter());
+        long cursor = since(START).getCursor();
+        metrics.remove("foo");
+        since(cursor);
+
+        metrics.register("foo", new Counter());
+        MetricChanges.Delta delta = since(cursor);
+
+        assertThat(delta.getMetrics()).containsOnlyKeys("foo");
+        assertThat(delta.getRemoved()).isEmpty();
+    }
+
+    @Test
+    public void shouldResetCursorOlderThanRemovalsRemembered() throws Exception {
+        for (int i = 0; i <= MetricChanges.MAX_REMOVED; i++)
+            metrics.register("metric-" + i, new Counter());
+        long cursor = since(START).getCursor();
+        metrics.removeMatching(MetricFilter.ALL);
+        metrics.register("foo", new Counter());
+
+        MetricChanges.Delta delta = since(cursor);
+
+        assertThat(delta.isReset()).isTrue();
+        assertThat(delta.getMetrics()).containsOnlyKeys("foo");
+        assertThat(delta.getRemoved()).isEmpty();
+    }
+
+    @Test
+    public void shouldReturnExpandedNamesOfRemovedStatusMeters() throws Exception {
+        StatusMeters statuses = new StatusMeters("foo|GET");
+        statuses.mark(200);
+        metrics.register("foo|GET|status", statuses);
+        metrics.register("foo|GET|timer", new Timer());
+        long cursor = changes.since(START, new MetricQuery(null, null, null, null).select(metrics)).getCursor();
+
+        metrics.remove("foo|GET|status");
+        MetricChanges.Delta delta = changes.since(cursor, new MetricQuery(null, null, null, null).select(metrics));
+
+        assertThat(delta.getRemoved()).containsExactly("foo|GET|200", "foo|GET|SUCCESSFUL");
+    }
+
+    @Test
+    public void shouldStampStatusMetersAddedAgainAsNew() throws Exception {
+        StatusMeters statuses = new StatusMeters("foo|GET");
+        statuses.mark(200);
+        metrics.register("foo|GET|status", statuses);
+        long cursor = changes.since(START, new MetricQuery(null, null, null, null).select(metrics)).getCursor();
+        metrics.remove("foo|GET|status");
+        changes.since(cursor, new MetricQuery(null, null, null, null).select(metrics));
+
+        StatusMeters again = new StatusMeters("foo|GET");
+        again.mark(200);
+        metrics.register("foo|GET|status", again);
+        MetricChanges.Delta delta = changes.since(cursor, new MetricQuery(null, null, null, null).select(metrics));
+
+        assertThat(delta.getMetrics()).containsOnlyKeys("foo|GET|200", "foo|GET|SUCCESSFUL");
+        assertThat(delta.getRemoved()).isEmpty();
+    }
+}
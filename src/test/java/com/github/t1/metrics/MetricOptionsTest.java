@@ -0,0 +1,104 @@
+package com.github.t1.metrics;
+
+import com.codahale.metrics.*;
+import com.codahale.metrics.Timer;
+import org.junit.Test;
+
+import javax.enterprise.inject.spi.InjectionPoint;
+import java.lang.reflect.Field;
+import java.util.*;
+
+import static com.github.t1.metrics.ReservoirType.*;
+import static java.util.concurrent.TimeUnit.*;
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class MetricOptionsTest {
+    @SuppressWarnings("unused")
+    static class Sample {
+        Timer plain;
+        Histogram histogram;
+        @MetricOptions(name = "requests") Timer relative;
+        @MetricOptions(name = "global.requests", absolute = true) Counter absolute;
+        @MetricOptions(reservoir = SLIDING_WINDOW, size = 10) Histogram sliding;
+        @MetricOptions(reservoir = HDR_HISTOGRAM, digits = 3, window = 1, unit = MINUTES) Timer hdr;
+        @MetricOptions(reservoir = SLIDING_WINDOW, size = 10) Timer shared;
+        @MetricOptions(name = "shared") Timer sharedAgain;
+    }
+
+    private final CdiBinding binding = new CdiBinding();
+
+    private static InjectionPoint injectionPoint(String fieldName) throws NoSuchFieldException {
+        Field field = Sample.class.getDeclaredField(fieldName);
+        InjectionPoint injectionPoint = mock(InjectionPoint.class);
+        when(injectionPoint.getMember()).thenReturn(field);
+        when(injectionPoint.getQualifiers()).thenReturn(new HashSet<>(Arrays.asList(field.getAnnotations())));
+        return injectionPoint;
+    }
+
+    private static String name(String name) { return MetricRegistry.name(Sample.class, name); }
+
+    @Test
+    public void shouldNameAfterField() throws Exception {
+        Timer timer = binding.produceTimer(injectionPoint("plain"));
+
+        assertThat(binding.metrics.getTimers()).containsEntry(name("plain"), timer);
+    }
+
+    @Test
+    public void shouldProduceHistogram() throws Exception {
+        Histogram histogram = binding.produceHistogram(injectionPoint("histogram"));
+
+        assertThat(binding.metrics.getHistograms()).containsEntry(name("histogram"), histogram);
+    }
+
+    @Test
+    public void shouldNameRelativeToClass() throws Exception {
+        Timer timer = binding.produceTimerWithOptions(injectionPoint("relative"));
+
+        assertThat(binding.metrics.getTimers()).containsEntry(name("requests"), timer);
+    }
+
+    @Test
+    public void shouldNameAbsolute() throws Exception {
+        Counter counter = binding.produceCounterWithOptions(injectionPoint("absolute"));
+
+        assertThat(binding.metrics.getCounters()).containsEntry("global.requests", counter);
+    }
+
+    @Test
+    public void shouldUseSlidingWindowReservoir() throws Exception {
+        Histogram histogram = binding.produceHistogramWithOptions(injectionPoint("sliding"));
+
+        for (int i = 1; i <= 100; i++)
+            histogram.update(i);
+
+        assertThat(histogram.getCount()).isEqualTo(100);
+        assertThat(histogram.getSnapshot().getValues()).containsExactly(91, 92, 93, 94, 95, 96, 97, 98, 99, 100);
+    }
+
+    @Test
+    public void shouldUseHdrHistogramReservoir() throws Exception {
+        Timer timer = binding.produceTimerWithOptions(injectionPoint("hdr"));
+
+        for (int i = 1; i <= 10_000; i++)
+            timer.update(i, MILLISECONDS);
+
+        assertThat(timer.getSnapshot().size()).isEqualTo(10_000);
+        assertThat(timer.getSnapshot().getMax()).isCloseTo(MILLISECONDS.toNanos(10_000), withinPercentage(0.1));
+    }
+
+    @Test
+    public void shouldShareTimerCreatedFirst() throws Exception {
+        Timer first = binding.produceTimerWithOptions(injectionPoint("shared"));
+        Timer second = binding.produceTimerWithOptions(injectionPoint("sharedAgain"));
+
+        assertThat(second).isSameAs(first);
+    }
+
+    @Test
+    public void shouldCreateEveryReservoirType() throws Exception {
+        for (ReservoirType type : ReservoirType.values())
+            assertThat(type.create(10, 1, SECONDS, 2)).as(type.name()).isNotNull();
+    }
+}
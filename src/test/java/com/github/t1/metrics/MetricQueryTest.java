@@ -0,0 +1,103 @@
+package com.github.t1.metrics;
+
+import com.codahale.metrics.*;
+import com.codahale.metrics.Timer;
+import org.junit.*;
+
+import java.util.*;
+
+import static java.util.Arrays.*;
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class MetricQueryTest {
+    private final SortedMetricRegistry metrics = spy(new SortedMetricRegistry());
+
+    @Before
+    public void setUp() {
+        metrics.register("jvm.memory.heap", (Gauge<Long>) () -> 1L);
+        metrics.register("jvm.threads.count", (Gauge<Integer>) () -> 2);
+        metrics.counter("resources/orders|GET|in-flight");
+        metrics.timer("resources/orders|GET|timer");
+        metrics.timer("calls/orders|GET|timer");
+        StatusMeters statuses = new StatusMeters("resources/orders|GET");
+        statuses.mark(200);
+        metrics.register("resources/orders|GET|status", statuses);
+    }
+
+    private Set<String> select(String prefix, String name, List<String> types) {
+        return new MetricQuery(prefix, name, types, null).select(metrics).keySet();
+    }
+
+    @Test
+    public void shouldSelectAll() throws Exception {
+        assertThat(select(null, null, null)).containsExactly(
+                "calls/orders|GET|timer",
+                "jvm.memory.heap",
+                "jvm.threads.count",
+                "resources/orders|GET|200",
+                "resources/orders|GET|SUCCESSFUL",
+                "resources/orders|GET|in-flight",
+                "resources/orders|GET|timer");
+    }
+
+    @Test
+    public void shouldSelectPrefixFromRangeWithoutScanning() throws Exception {
+        assertThat(select("jvm.", null, null)).containsExactly("jvm.memory.heap", "jvm.threads.count");
+        verify(metrics, never()).getMetrics();
+    }
+
+    @Test
+    public void shouldSelectExpandedStatusMetersByPrefix() throws Exception {
+        assertThat(select("resources/orders|GET|2", null, null)).containsExactly("resources/orders|GET|200");
+    }
+
+    @Test
+    public void shouldSelectByGlob() throws Exception {
+        assertThat(select(null, "*orders|GET|t?mer", null))
+                .containsExactly("calls/orders|GET|timer", "resources/orders|GET|timer");
+        assertThat(select(null, "jvm.*.count", null)).containsExactly("jvm.threads.count");
+    }
+
+    @Test
+    public void shouldSelectByRegex() throws Exception {
+        assertThat(select(null, "/.*\\|(200|SUCCESSFUL)/", null))
+                .containsExactly("resources/orders|GET|200", "resources/orders|GET|SUCCESSFUL");
+    }
+
+    @Test
+    public void shouldSelectNothingWithDisjointPrefixAndGlob() throws Exception {
+        assertThat(select("jvm.", "resources/*", null)).isEmpty();
+    }
+
+    @Test
+    public void shouldSelectByType() throws Exception {
+        assertThat(select("resources/", null, asList("timer,counter"))).containsExactly(
+                "resources/orders|GET|in-flight", "resources/orders|GET|timer");
+        assertThat(select(null, null, asList("meter"))).containsExactly(
+                "resources/orders|GET|200", "resources/orders|GET|SUCCESSFUL");
+    }
+
+    @Test
+    public void shouldSelectAttributes() throws Exception {
+        Timer timer = spy(new Timer());
+        metrics.register("foo", timer);
+
+        Map<String, Metric> selected = new MetricQuery("foo", null, null, "count, m1_rate").select(metrics);
+        Map<String, Object> attributes = new LinkedHashMap<>();
+        MetricAttributes.visit(selected.get("foo"), attributes::put);
+
+        assertThat(MetricAttributes.count(selected.get("foo"))).isEqualTo(2);
+        assertThat(attributes).containsOnlyKeys("count", "m1_rate");
+        verify(timer, never()).getSnapshot();
+    }
+
+    @Test
+    public void shouldScanOtherRegistries() throws Exception {
+        MetricRegistry other = new MetricRegistry();
+        other.counter("a.b");
+        other.counter("b.c");
+
+        assertThat(new MetricQuery("a.", null, null, null).select(other).keySet()).containsExactly("a.b");
+    }
+}
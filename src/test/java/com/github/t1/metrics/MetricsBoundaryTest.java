@@ -10,14 +10,18 @@ import org.mockito.junit.MockitoJUnitRunner;
 
 import javax.ws.rs.core.*;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
 
 @RunWith(MockitoJUnitRunner.class)
 public class MetricsBoundaryTest {
     @InjectMocks MetricsBoundary resource;
     @Spy MetricRegistry metrics;
     @Mock HttpHeaders headers;
+    @Mock Request request;
 
     private static HealthCheck check(Result result) {
         return new HealthCheck() {
@@ -52,7 +56,19 @@ public class MetricsBoundaryTest {
 
         Response response = resource.getMetrics();
 
-        assertThat(metrics(response)).containsOnly(entry("foo", gauge));
+        assertThat(metrics(response)).containsOnlyKeys("foo");
+        assertThat(((Gauge) metrics(response).get("foo")).getValue()).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldReadGaugeOnlyOncePerRequest() throws Exception {
+        AtomicInteger reads = new AtomicInteger();
+        metrics.register("foo", (Gauge<Integer>) reads::incrementAndGet);
+
+        Response response = resource.getMetrics();
+
+        assertThat(((Gauge) metrics(response).get("foo")).getValue()).isEqualTo(1);
+        assertThat(reads.get()).isEqualTo(1);
     }
 
     @Test
@@ -104,7 +120,9 @@ public class MetricsBoundaryTest {
 
         Response response = resource.getMetrics();
 
-        assertThat(metrics(response)).containsOnly(entry("foo", counter), entry("bar", gauge));
+        assertThat(metrics(response)).containsOnlyKeys("foo", "bar");
+        assertThat(metrics(response).get("foo")).isSameAs(counter);
+        assertThat(((Gauge) metrics(response).get("bar")).getValue()).isEqualTo(3);
     }
 
     @Test
@@ -116,4 +134,85 @@ public class MetricsBoundaryTest {
 
         assertThat(metrics(response).keySet()).containsOnly("bar.name", "bar.vendor", "bar.uptime");
     }
+
+    @Test
+    public void shouldExpandStatusMeters() throws Exception {
+        StatusMeters statuses = new StatusMeters("foo");
+        statuses.mark(200);
+        metrics.register("foo|status", statuses);
+
+        Response response = resource.getMetrics();
+
+        assertThat(metrics(response).keySet()).containsOnly("foo|200", "foo|SUCCESSFUL");
+        assertThat(((Meter) metrics(response).get("foo|200")).getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldPickAcceptableTypeWithHighestQuality() throws Exception {
+        when(headers.getHeaderString(HttpHeaders.ACCEPT)).thenReturn(
+                "text/plain;version=0.0.4;q=0.5,application/openmetrics-text; version=1.0.0,*/*;q=0.1");
+
+        Response response = resource.getMetrics();
+
+        assertThat(response.getMediaType().isCompatible(PrometheusMessageBodyWriter.APPLICATION_OPENMETRICS_TYPE))
+                .isTrue();
+        assertThat(response.getMediaType().getParameters()).containsOnly(entry("version", "1.0.0"));
+    }
+
+    @Test
+    public void shouldTagMetricsByValues() throws Exception {
+        Counter counter = metrics.counter("foo");
+        EntityTag first = resource.getMetrics().getEntityTag();
+        EntityTag same = resource.getMetrics().getEntityTag();
+        counter.inc();
+        EntityTag changed = resource.getMetrics().getEntityTag();
+        metrics.counter("bar");
+        EntityTag added = resource.getMetrics().getEntityTag();
+
+        assertThat(first.isWeak()).isTrue();
+        assertThat(same).isEqualTo(first);
+        assertThat(changed).isNotEqualTo(first);
+        assertThat(added).isNotIn(first, changed);
+    }
+
+    @Test
+    public void shouldTagMetricsByGaugeValues() throws Exception {
+        AtomicInteger value = new AtomicInteger();
+        metrics.register("foo", (Gauge<Integer>) value::get);
+        EntityTag first = resource.getMetrics().getEntityTag();
+        value.set(1);
+        EntityTag changed = resource.getMetrics().getEntityTag();
+
+        assertThat(changed).isNotEqualTo(first);
+    }
+
+    @Test
+    public void shouldNotReturnUnmodifiedMetrics() throws Exception {
+        metrics.counter("foo");
+        when(request.evaluatePreconditions(any(EntityTag.class))).thenReturn(Response.notModified());
+
+        Response response = resource.getMetrics();
+
+        assertThat(response.getStatus()).isEqualTo(304);
+        assertThat(response.hasEntity()).isFalse();
+    }
+
+    @Test
+    public void shouldGetMetricChangesSinceCursor() throws Exception {
+        resource.changes = new MetricChanges(metrics);
+        Counter foo = metrics.counter("foo");
+        metrics.counter("bar");
+        metrics.counter("baz");
+        Response first = resource.getMetricChanges(0);
+        foo.inc();
+        metrics.remove("baz");
+
+        Response second = resource.getMetricChanges((Long) first.getHeaders().getFirst(MetricsBoundary.CURSOR));
+
+        assertThat(first.getHeaders().getFirst(MetricsBoundary.RESET)).isEqualTo(true);
+        assertThat(metrics(first)).containsOnlyKeys("foo", "bar", "baz");
+        assertThat(second.getHeaders()).doesNotContainKey(MetricsBoundary.RESET);
+        assertThat(metrics(second)).containsOnlyKeys("foo");
+        assertThat(second.getHeaders().get(MetricsBoundary.REMOVED)).containsExactly("baz");
+    }
 }
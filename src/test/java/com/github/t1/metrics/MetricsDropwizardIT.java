@@ -38,6 +38,9 @@ public class MetricsDropwizardIT extends MetricsIT {
             JaxRsBinding.class,
             cdiBinding,
             MetricsYamlMessageBodyWriter.class,
+            PrometheusMessageBodyWriter.class,
+            BinaryMessageBodyWriter.class,
+            CompressionInterceptor.class,
             MockBoundary.class,
             binding()
     ) {
@@ -59,10 +62,15 @@ public class MetricsDropwizardIT extends MetricsIT {
             protected void configure() {
                 bind(cdiBinding.metrics).to(MetricRegistry.class);
                 bind(cdiBinding.healthCheckRegistry).to(HealthCheckRegistry.class);
+                bind(cdiBinding.config).to(MetricsConfig.class);
+                bind(cdiBinding.endpoints).to(Endpoints.class);
+                bind(cdiBinding.changes).to(MetricChanges.class);
                 bind(new MockInstance<>(mockHealthCheck, mockGaugedHealthCheck))
                         .to(new TypeLiteral<Instance<HealthCheck>>() {});
                 bind(new MockInstance<>(mockGaugedHealthCheck))
                         .to(new TypeLiteral<Instance<Gauge>>() {});
+                bind(new MockInstance<UriNormalizer>())
+                        .to(new TypeLiteral<Instance<UriNormalizer>>() {});
                 bindFactory(mockFactory((metrics, name) -> metrics.counter(name + ".counter"))).to(Counter.class);
                 bindFactory(mockFactory((metrics, name) -> metrics.meter(name + ".meter"))).to(Meter.class);
                 bindFactory(mockFactory((metrics, name) -> metrics.timer(name + ".timer"))).to(Timer.class);
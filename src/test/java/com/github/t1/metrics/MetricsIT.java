@@ -23,6 +23,7 @@ public abstract class MetricsIT {
                 .library("io.dropwizard.metrics", "metrics-healthchecks")
                 .library("io.dropwizard.metrics", "metrics-json")
                 .library("io.dropwizard.metrics", "metrics-jvm")
+                .library("org.hdrhistogram", "HdrHistogram")
                 .addPackageAndDependencies(Metrics.class)
                 .print()
                 .build();
@@ -0,0 +1,155 @@
+package com.github.t1.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.*;
+import org.junit.runner.RunWith;
+import org.mockito.*;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.*;
+
+import static java.nio.charset.StandardCharsets.*;
+import static javax.servlet.http.HttpServletResponse.*;
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.Silent.class)
+public class MetricsStreamServletTest {
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final Properties config = new Properties();
+    private final MetricsStreamServlet servlet = new MetricsStreamServlet();
+
+    @Mock ScheduledExecutorService scheduler;
+    @Mock ScheduledFuture<?> future;
+    @Mock HttpServletRequest request;
+    @Mock HttpServletResponse response;
+    @Mock AsyncContext async;
+    @Mock ServletOutputStream out;
+    @Captor ArgumentCaptor<Runnable> feed;
+    @Captor ArgumentCaptor<WriteListener> writeListener;
+    @Captor ArgumentCaptor<byte[]> written;
+
+    @Before
+    public void setUp() throws Exception {
+        doReturn(future).when(scheduler).scheduleAtFixedRate(any(), anyLong(), anyLong(), any());
+        when(request.startAsync()).thenReturn(async);
+        when(response.getOutputStream()).thenReturn(out);
+        when(out.isReady()).thenReturn(true);
+        givenStream();
+    }
+
+    private void givenStream() {
+        servlet.stream = new MetricsStream(metrics, new MetricsConfig(config));
+        servlet.stream.start(scheduler, Runnable::run);
+    }
+
+    private WriteListener subscribe() throws Exception {
+        servlet.doGet(request, response);
+        verify(scheduler).scheduleAtFixedRate(feed.capture(), anyLong(), anyLong(), any());
+        verify(out).setWriteListener(writeListener.capture());
+        return writeListener.getValue();
+    }
+
+    private static String string(byte[] frame) { return new String(frame, UTF_8); }
+
+    @Test
+    public void shouldStartEventStream() throws Exception {
+        subscribe();
+
+        verify(response).setContentType(MetricsStreamServlet.TEXT_EVENT_STREAM);
+        verify(response).flushBuffer();
+        verify(async).setTimeout(0);
+        verify(async).addListener(any(AsyncListener.class));
+    }
+
+    @Test
+    public void shouldNotWriteBeforeWritePossible() throws Exception {
+        subscribe();
+
+        feed.getValue().run();
+
+        verify(out, never()).write(any(byte[].class));
+    }
+
+    @Test
+    public void shouldWriteFrameWhenWritePossible() throws Exception {
+        metrics.counter("foo").inc();
+        WriteListener listener = subscribe();
+
+        listener.onWritePossible();
+        feed.getValue().run();
+
+        verify(out).write(written.capture());
+        verify(out).flush();
+        assertThat(string(written.getValue())).startsWith("id: 1\n").contains("\"foo\":{\"count\":1}");
+    }
+
+    @Test
+    public void shouldWriteOnlyLatestFrameWhenReadyAgain() throws Exception {
+        WriteListener listener = subscribe();
+        listener.onWritePossible();
+        when(out.isReady()).thenReturn(false);
+
+        feed.getValue().run();
+        feed.getValue().run();
+        when(out.isReady()).thenReturn(true);
+        listener.onWritePossible();
+
+        verify(out).write(written.capture());
+        assertThat(string(written.getValue())).startsWith("id: 2\n");
+        assertThat(metrics.meter("metrics-ee.stream.dropped").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldCloseWhenWriteFails() throws Exception {
+        WriteListener listener = subscribe();
+        listener.onWritePossible();
+        doThrow(new IOException("broken pipe")).when(out).write(any(byte[].class));
+
+        feed.getValue().run();
+        feed.getValue().run();
+
+        verify(out, times(1)).write(any(byte[].class));
+        verify(async).complete();
+        verify(future).cancel(false);
+    }
+
+    @Test
+    public void shouldCloseWhenClientIsGone() throws Exception {
+        subscribe();
+        ArgumentCaptor<AsyncListener> asyncListener = ArgumentCaptor.forClass(AsyncListener.class);
+        verify(async).addListener(asyncListener.capture());
+
+        asyncListener.getValue().onComplete(new AsyncEvent(async));
+
+        verify(future).cancel(false);
+    }
+
+    @Test
+    public void shouldRejectTooManyStreams() throws Exception {
+        config.setProperty("metrics-ee.stream.max-subscribers", "0");
+        givenStream();
+
+        servlet.doGet(request, response);
+
+        verify(response).sendError(eq(SC_SERVICE_UNAVAILABLE), anyString());
+        verify(async).complete();
+        verify(out, never()).setWriteListener(any());
+        verifyZeroInteractions(scheduler);
+    }
+
+    @Test
+    public void shouldRejectInvalidInterval() throws Exception {
+        when(request.getParameter("interval")).thenReturn("soon");
+
+        servlet.doGet(request, response);
+
+        verify(response).sendError(eq(SC_BAD_REQUEST), anyString());
+        verify(request, never()).startAsync();
+    }
+}
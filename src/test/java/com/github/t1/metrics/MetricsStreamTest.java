@@ -0,0 +1,155 @@
+package com.github.t1.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.*;
+import org.junit.runner.RunWith;
+import org.mockito.*;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static java.nio.charset.StandardCharsets.*;
+import static java.util.concurrent.TimeUnit.*;
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class MetricsStreamTest {
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final Properties config = new Properties();
+    private final List<Runnable> executed = new ArrayList<>();
+    private MetricsStream stream = new MetricsStream(metrics, new MetricsConfig(config));
+    private final MetricQuery all = new MetricQuery(null, null, null, null);
+
+    @Mock ScheduledExecutorService scheduler;
+    @Mock ScheduledFuture<?> future;
+    @Captor ArgumentCaptor<Runnable> feed;
+
+    private final List<byte[]> first = new ArrayList<>();
+    private final List<byte[]> second = new ArrayList<>();
+
+    @Before
+    public void start() {
+        doReturn(future).when(scheduler).scheduleAtFixedRate(any(), anyLong(), anyLong(), any());
+        stream.start(scheduler, Runnable::run);
+    }
+
+    private void givenStream(String key, String value) {
+        config.setProperty("metrics-ee.stream." + key, value);
+        stream = new MetricsStream(metrics, new MetricsConfig(config));
+        stream.start(scheduler, Runnable::run);
+    }
+
+    private static String string(byte[] frame) { return new String(frame, UTF_8); }
+
+    @Test
+    public void shouldWriteFrame() throws Exception {
+        assertThat(string(MetricsStream.frame(3, "{\"a\":1}".getBytes(UTF_8))))
+                .isEqualTo("id: 3\nevent: metrics\ndata: {\"a\":1}\n\n");
+    }
+
+    @Test
+    public void shouldShareFeedOfSameQueryAndInterval() throws Exception {
+        metrics.counter("foo").inc();
+        stream.subscribe("q", all, 1000, first::add);
+        stream.subscribe("q", all, 1000, second::add);
+
+        verify(scheduler).scheduleAtFixedRate(feed.capture(), eq(0L), eq(1000L), eq(MILLISECONDS));
+        feed.getValue().run();
+
+        assertThat(first).hasSize(1);
+        assertThat(second).containsExactly(first.get(0));
+        assertThat(string(first.get(0))).startsWith("id: 1\n").contains("\"foo\":{\"count\":1}");
+    }
+
+    @Test
+    public void shouldStartFeedPerQueryAndInterval() throws Exception {
+        stream.subscribe("q", all, 1000, first::add);
+        stream.subscribe("q", all, 2000, second::add);
+        stream.subscribe("other", all, 1000, second::add);
+
+        verify(scheduler, times(2)).scheduleAtFixedRate(any(), eq(0L), eq(1000L), eq(MILLISECONDS));
+        verify(scheduler).scheduleAtFixedRate(any(), eq(0L), eq(2000L), eq(MILLISECONDS));
+    }
+
+    @Test
+    public void shouldLimitInterval() throws Exception {
+        stream.subscribe("q", all, 1, first::add);
+
+        verify(scheduler).scheduleAtFixedRate(any(), eq(0L), eq(100L), eq(MILLISECONDS));
+    }
+
+    @Test
+    public void shouldStopFeedWithLastSubscriber() throws Exception {
+        MetricsStream.Subscriber one = first::add;
+        MetricsStream.Subscriber two = second::add;
+        stream.subscribe("q", all, 1000, one);
+        stream.subscribe("q", all, 1000, two);
+        verify(scheduler).scheduleAtFixedRate(feed.capture(), anyLong(), anyLong(), any());
+
+        stream.unsubscribe(one);
+        feed.getValue().run();
+        verify(future, never()).cancel(anyBoolean());
+        stream.unsubscribe(two);
+
+        verify(future).cancel(false);
+        assertThat(first).isEmpty();
+        assertThat(second).hasSize(1);
+    }
+
+    @Test
+    public void shouldStopAllFeeds() throws Exception {
+        stream.subscribe("q", all, 1000, first::add);
+
+        stream.stop();
+
+        verify(future).cancel(false);
+        assertThatThrownBy(() -> stream.subscribe("q", all, 1000, first::add))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void shouldSerializeOnExecutor() throws Exception {
+        stream.start(scheduler, executed::add);
+        stream.subscribe("q", all, 1000, first::add);
+        verify(scheduler).scheduleAtFixedRate(feed.capture(), anyLong(), anyLong(), any());
+
+        feed.getValue().run();
+        feed.getValue().run();
+
+        assertThat(first).isEmpty();
+        assertThat(executed).hasSize(1);
+
+        executed.get(0).run();
+        feed.getValue().run();
+
+        assertThat(first).hasSize(1);
+        assertThat(executed).hasSize(2);
+    }
+
+    @Test
+    public void shouldRejectFeedsBeyondMax() throws Exception {
+        givenStream("max-feeds", "1");
+
+        assertThat(stream.subscribe("q", all, 1000, first::add)).isTrue();
+        assertThat(stream.subscribe("q", all, 1000, second::add)).isTrue();
+        assertThat(stream.subscribe("other", all, 1000, second::add)).isFalse();
+
+        verify(scheduler, times(1)).scheduleAtFixedRate(any(), anyLong(), anyLong(), any());
+    }
+
+    @Test
+    public void shouldRejectSubscribersBeyondMax() throws Exception {
+        givenStream("max-subscribers", "1");
+        MetricsStream.Subscriber one = first::add;
+
+        assertThat(stream.subscribe("q", all, 1000, one)).isTrue();
+        assertThat(stream.subscribe("q", all, 1000, second::add)).isFalse();
+
+        stream.unsubscribe(one);
+
+        assertThat(stream.subscribe("q", all, 1000, second::add)).isTrue();
+    }
+}
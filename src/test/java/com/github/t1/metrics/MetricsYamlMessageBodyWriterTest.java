@@ -15,6 +15,7 @@ import static com.github.t1.metrics.MetricsYamlMessageBodyWriter.*;
 import static java.time.temporal.ChronoUnit.*;
 import static javax.ws.rs.core.MediaType.*;
 import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
 
 @RunWith(OrderedJUnitRunner.class)
 public class MetricsYamlMessageBodyWriterTest {
@@ -401,4 +402,30 @@ public class MetricsYamlMessageBodyWriterTest {
                 + "  bar|baz:\n"
                 + "    /bee: 1\n");
     }
+
+    @Test
+    public void shouldSnapshotTimerOnlyOnce() throws Exception {
+        Timer timer = spy(timer());
+        metrics.register("foo", timer);
+
+        write();
+
+        verify(timer, times(1)).getSnapshot();
+    }
+
+    @Test
+    public void shouldWriteAgainAfterNamesChanged() throws Exception {
+        metrics.register("foo.bar", counter(1));
+        write();
+        metrics.register("foo.baz", counter(2));
+        metrics.register("größe", counter(3));
+
+        String out = write();
+
+        assertThat(out).isEqualTo("\n"
+                + "foo:\n"
+                + "  bar: 1\n"
+                + "  baz: 2\n"
+                + "größe: 3\n");
+    }
 }
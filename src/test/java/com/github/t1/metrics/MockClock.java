@@ -6,13 +6,13 @@ import java.time.Instant;
 import java.time.temporal.TemporalUnit;
 
 public class MockClock extends Clock {
-    private static final int NANOS_PER_MILLI = 1_000_000;
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
 
     private Instant time = Instant.now();
 
     @Override public long getTime() { return time.toEpochMilli(); }
 
-    @Override public long getTick() { return time.toEpochMilli() * NANOS_PER_MILLI + time.getNano(); }
+    @Override public long getTick() { return time.getEpochSecond() * NANOS_PER_SECOND + time.getNano(); }
 
     public void plus(long delta, TemporalUnit unit) { this.time = this.time.plus(delta, unit); }
 }
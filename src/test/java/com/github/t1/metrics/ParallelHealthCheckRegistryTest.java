@@ -0,0 +1,334 @@
+package com.github.t1.metrics;
+
+import com.codahale.metrics.health.HealthCheck;
+import com.codahale.metrics.health.HealthCheck.Result;
+import org.junit.*;
+import org.junit.runner.RunWith;
+import org.mockito.*;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Arrays.*;
+import static java.util.concurrent.TimeUnit.*;
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.Silent.class)
+public class ParallelHealthCheckRegistryTest {
+    private final Properties properties = new Properties();
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final ExecutorService single = Executors.newSingleThreadExecutor();
+    private final MockClock clock = new MockClock();
+    private final AtomicInteger runs = new AtomicInteger();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Mock ScheduledExecutorService scheduler;
+    @Mock ScheduledFuture<?> future;
+    @Captor ArgumentCaptor<Runnable> trigger;
+
+    @Before
+    public void mockScheduler() {
+        doReturn(future).when(scheduler).scheduleWithFixedDelay(any(), anyLong(), anyLong(), any());
+    }
+
+    @After
+    public void shutdown() {
+        release.countDown();
+        executor.shutdownNow();
+        single.shutdownNow();
+    }
+
+    private ParallelHealthCheckRegistry registry() {
+        ParallelHealthCheckRegistry registry = new ParallelHealthCheckRegistry(new MetricsConfig(properties));
+        registry.start(executor);
+        return registry;
+    }
+
+    private static HealthCheck fast() {
+        return new HealthCheck() {
+            @Override protected Result check() throws Exception { return Result.healthy("fast"); }
+        };
+    }
+
+    /** Blocks until released at the end of the test, or interrupted */
+    private HealthCheck blocking() {
+        return new HealthCheck() {
+            @Override protected Result check() throws Exception {
+                release.await();
+                return Result.healthy("released");
+            }
+        };
+    }
+
+    /** Healthy only if all parties of the barrier run at the same time */
+    private static HealthCheck meeting(CyclicBarrier barrier) {
+        return new HealthCheck() {
+            @Override protected Result check() throws Exception {
+                barrier.await(5, SECONDS);
+                return Result.healthy("met");
+            }
+        };
+    }
+
+    @Test
+    public void shouldRunChecksConcurrently() throws Exception {
+        properties.setProperty("metrics-ee.health.timeout-millis", "10000");
+        ParallelHealthCheckRegistry registry = registry();
+        CyclicBarrier barrier = new CyclicBarrier(3);
+        registry.register("a", meeting(barrier));
+        registry.register("b", meeting(barrier));
+        registry.register("c", meeting(barrier));
+
+        SortedMap<String, Result> results = registry.runHealthChecks();
+
+        assertThat(results).containsOnly(
+                entry("a", Result.healthy("met")),
+                entry("b", Result.healthy("met")),
+                entry("c", Result.healthy("met")));
+    }
+
+    @Test
+    public void shouldTimeOutSlowCheck() throws Exception {
+        properties.setProperty("metrics-ee.health.timeout-millis", "100");
+        ParallelHealthCheckRegistry registry = registry();
+        registry.register("fast", fast());
+        registry.register("slow", blocking());
+
+        SortedMap<String, Result> results = registry.runHealthChecks();
+
+        assertThat(results.get("fast").isHealthy()).isTrue();
+        assertThat(results.get("slow").isHealthy()).isFalse();
+        assertThat(results.get("slow").getMessage()).isEqualTo("timed out after 100 ms");
+    }
+
+    @Test
+    public void shouldTimeOutByName() throws Exception {
+        properties.setProperty("metrics-ee.health.timeout-millis", "100");
+        properties.setProperty("metrics-ee.health.timeout-millis.com.example.Slow", "200");
+        ParallelHealthCheckRegistry registry = registry();
+        registry.register("com.example.Slow", blocking());
+
+        SortedMap<String, Result> results = registry.runHealthChecks();
+
+        assertThat(registry.getTimeoutMillis("com.example.Slow")).isEqualTo(200);
+        assertThat(registry.getTimeoutMillis("other")).isEqualTo(100);
+        assertThat(results).containsOnly(entry("com.example.Slow", Result.unhealthy("timed out after 200 ms")));
+    }
+
+    @Test
+    public void shouldReportFailingCheck() throws Exception {
+        ParallelHealthCheckRegistry registry = registry();
+        RuntimeException exception = new RuntimeException("boom");
+        registry.register("failing", new HealthCheck() {
+            @Override protected Result check() throws Exception { throw exception; }
+        });
+
+        SortedMap<String, Result> results = registry.runHealthChecks();
+
+        assertThat(results).containsOnly(entry("failing", Result.unhealthy(exception)));
+    }
+
+    @Test
+    public void shouldReportRejectedCheck() throws Exception {
+        ParallelHealthCheckRegistry registry = registry();
+        registry.register("foo", fast());
+        executor.shutdown();
+
+        SortedMap<String, Result> results = registry.runHealthChecks();
+
+        assertThat(results).containsOnly(entry("foo", Result.unhealthy("rejected by executor")));
+    }
+
+    @Test
+    public void shouldRunSequentiallyWithoutExecutor() throws Exception {
+        ParallelHealthCheckRegistry registry = new ParallelHealthCheckRegistry(new MetricsConfig(properties));
+        registry.register("foo", fast());
+
+        SortedMap<String, Result> results = registry.runHealthChecks();
+
+        assertThat(results).containsOnly(entry("foo", Result.healthy("fast")));
+    }
+
+    private ParallelHealthCheckRegistry scheduled() {
+        properties.setProperty("metrics-ee.health.scheduled", "true");
+        ParallelHealthCheckRegistry registry = new ParallelHealthCheckRegistry(new MetricsConfig(properties), clock);
+        registry.start(single, scheduler);
+        return registry;
+    }
+
+    private Result run() { return Result.healthy("run " + runs.incrementAndGet()); }
+
+    private HealthCheck counting() {
+        return new HealthCheck() {
+            @Override protected Result check() throws Exception { return run(); }
+        };
+    }
+
+    @ProbeDriven
+    private class ProbeDrivenCheck extends HealthCheck {
+        @Override protected Result check() throws Exception { return run(); }
+    }
+
+    private void runScheduled() throws Exception {
+        for (Runnable runnable : trigger.getAllValues())
+            runnable.run();
+        single.submit(() -> {}).get(); // wait for the runs
+    }
+
+    @Test
+    public void shouldServeCachedResultOfScheduledCheck() throws Exception {
+        ParallelHealthCheckRegistry registry = scheduled();
+        registry.register("foo", counting());
+        verify(scheduler).scheduleWithFixedDelay(trigger.capture(), eq(0L), eq(10_000L), eq(MILLISECONDS));
+
+        SortedMap<String, Result> before = registry.runHealthChecks();
+        runScheduled();
+        SortedMap<String, Result> first = registry.runHealthChecks();
+        SortedMap<String, Result> second = registry.runHealthChecks();
+
+        assertThat(before).containsOnly(entry("foo", Result.unhealthy("not checked yet")));
+        assertThat(first).containsOnly(entry("foo", Result.healthy("run 1")));
+        assertThat(second).isEqualTo(first);
+        assertThat(runs.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldScheduleChecksRegisteredBeforeStartAtTheirInterval() throws Exception {
+        properties.setProperty("metrics-ee.health.scheduled", "true");
+        properties.setProperty("metrics-ee.health.interval-millis.foo", "500");
+        ParallelHealthCheckRegistry registry = new ParallelHealthCheckRegistry(new MetricsConfig(properties), clock);
+        registry.register("foo", counting());
+        verifyZeroInteractions(scheduler);
+
+        registry.start(single, scheduler);
+
+        verify(scheduler).scheduleWithFixedDelay(any(), eq(0L), eq(500L), eq(MILLISECONDS));
+    }
+
+    @Test
+    public void shouldRunProbeDrivenCheckEveryTime() throws Exception {
+        properties.setProperty("metrics-ee.health.interval-millis.bar", "0");
+        ParallelHealthCheckRegistry registry = scheduled();
+        registry.register("foo", new ProbeDrivenCheck());
+        registry.register("bar", counting());
+
+        registry.runHealthChecks();
+        SortedMap<String, Result> results = registry.runHealthChecks();
+
+        verifyZeroInteractions(scheduler);
+        assertThat(results.get("foo").isHealthy()).isTrue();
+        assertThat(runs.get()).isEqualTo(4);
+    }
+
+    @Test
+    public void shouldReportAgeOfOldestResult() throws Exception {
+        ParallelHealthCheckRegistry registry = scheduled();
+        registry.register("foo", counting());
+        verify(scheduler).scheduleWithFixedDelay(trigger.capture(), anyLong(), anyLong(), any());
+        clock.plus(5, ChronoUnit.SECONDS);
+        runScheduled();
+        clock.plus(3, ChronoUnit.SECONDS);
+
+        assertThat(registry.getAgeMillis()).isEqualTo(3000);
+    }
+
+    @Test
+    public void shouldTimeOutScheduledCheck() throws Exception {
+        properties.setProperty("metrics-ee.health.timeout-millis", "100");
+        ParallelHealthCheckRegistry registry = scheduled();
+        registry.register("slow", blocking());
+        verify(scheduler).scheduleWithFixedDelay(trigger.capture(), anyLong(), anyLong(), any());
+        trigger.getValue().run();
+        clock.plus(101, ChronoUnit.MILLIS);
+
+        SortedMap<String, Result> results = registry.runHealthChecks();
+        single.submit(() -> {}).get(5, SECONDS); // the abandoned run was interrupted
+
+        assertThat(results).containsOnly(entry("slow", Result.unhealthy("timed out after 100 ms")));
+        assertThat(registry.runHealthChecks()).isEqualTo(results);
+    }
+
+    @Test
+    public void shouldIgnoreLateResultOfOlderAbandonedRun() throws Exception {
+        properties.setProperty("metrics-ee.health.scheduled", "true");
+        properties.setProperty("metrics-ee.health.timeout-millis", "100");
+        Semaphore started = new Semaphore(0);
+        Semaphore finished = new Semaphore(0);
+        ExecutorService tracking = new ThreadPoolExecutor(3, 3, 0, SECONDS, new LinkedBlockingQueue<>()) {
+            @Override protected void afterExecute(Runnable runnable, Throwable thrown) { finished.release(); }
+        };
+        List<CountDownLatch> releases = asList(new CountDownLatch(1), new CountDownLatch(1), new CountDownLatch(1));
+        try {
+            ParallelHealthCheckRegistry registry =
+                    new ParallelHealthCheckRegistry(new MetricsConfig(properties), clock);
+            registry.start(tracking, scheduler);
+            registry.register("slow", new HealthCheck() {
+                @Override protected Result check() throws Exception {
+                    int run = runs.incrementAndGet();
+                    started.release();
+                    awaitIgnoringInterrupts(releases.get(run - 1));
+                    return Result.healthy("run " + run);
+                }
+            });
+            verify(scheduler).scheduleWithFixedDelay(trigger.capture(), anyLong(), anyLong(), any());
+            for (int i = 0; i < 2; i++) {
+                trigger.getValue().run();
+                assertThat(started.tryAcquire(5, SECONDS)).isTrue();
+                clock.plus(101, ChronoUnit.MILLIS);
+                registry.runHealthChecks(); // abandons the run
+            }
+            trigger.getValue().run();
+            assertThat(started.tryAcquire(5, SECONDS)).isTrue();
+
+            releases.get(0).countDown();
+            assertThat(finished.tryAcquire(5, SECONDS)).isTrue();
+            trigger.getValue().run();
+
+            assertThat(registry.runHealthChecks())
+                    .containsOnly(entry("slow", Result.unhealthy("timed out after 100 ms")));
+            assertThat(runs.get()).isEqualTo(3);
+        } finally {
+            releases.forEach(CountDownLatch::countDown);
+            tracking.shutdownNow();
+        }
+    }
+
+    private static void awaitIgnoringInterrupts(CountDownLatch latch) {
+        while (true) {
+            try {
+                latch.await();
+                return;
+            } catch (InterruptedException e) {
+                // abandoned runs are interrupted, but this one finishes late
+            }
+        }
+    }
+
+    @Test
+    public void shouldStopScheduleWhenUnregistered() throws Exception {
+        ParallelHealthCheckRegistry registry = scheduled();
+        registry.register("foo", counting());
+
+        registry.unregister("foo");
+
+        verify(future).cancel(false);
+        assertThat(registry.runHealthChecks()).isEmpty();
+    }
+
+    @Test
+    public void shouldNotScheduleWhenNotConfigured() throws Exception {
+        ParallelHealthCheckRegistry registry = new ParallelHealthCheckRegistry(new MetricsConfig(properties), clock);
+        registry.start(single, scheduler);
+        registry.register("foo", counting());
+
+        registry.runHealthChecks();
+
+        verifyZeroInteractions(scheduler);
+        assertThat(runs.get()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,160 @@
+package com.github.t1.metrics;
+
+import com.codahale.metrics.*;
+import com.codahale.metrics.Timer;
+import org.junit.Test;
+
+import javax.ws.rs.core.*;
+import java.io.*;
+import java.lang.annotation.Annotation;
+import java.util.*;
+
+import static com.github.t1.metrics.MetricsYamlMessageBodyWriter.*;
+import static com.github.t1.metrics.PrometheusMessageBodyWriter.*;
+import static java.util.concurrent.TimeUnit.*;
+import static javax.ws.rs.core.MediaType.*;
+import static org.assertj.core.api.Assertions.*;
+
+public class PrometheusMessageBodyWriterTest {
+    private static final MediaType PROMETHEUS_TYPE = MediaType.valueOf(TEXT_PLAIN_PROMETHEUS);
+
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final PrometheusMessageBodyWriter writer = new PrometheusMessageBodyWriter();
+    private final MultivaluedMap<String, Object> headers = new MultivaluedHashMap<>();
+
+    private String write(MediaType mediaType) throws IOException {
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            Class<MetricRegistry> type = MetricRegistry.class;
+            writer.writeTo(new TreeMap<>(metrics.getMetrics()), type, type, new Annotation[0], mediaType, headers,
+                    out);
+            return out.toString("UTF-8");
+        }
+    }
+
+    private Meter meter(long count) {
+        Meter meter = new Meter();
+        meter.mark(count);
+        return meter;
+    }
+
+    private Timer timer(long... millis) {
+        Timer timer = new Timer(new SlidingWindowReservoir(10));
+        for (long value : millis)
+            timer.update(value, MILLISECONDS);
+        return timer;
+    }
+
+    @Test
+    public void shouldBeWritable() throws Exception {
+        assertThat(writer.isWriteable(Map.class, METRICS_MAP.getType(), null, PROMETHEUS_TYPE)).isTrue();
+        assertThat(writer.isWriteable(Map.class, METRICS_MAP.getType(), null, APPLICATION_OPENMETRICS_TYPE)).isTrue();
+        assertThat(writer.isWriteable(Map.class, METRICS_MAP.getType(), null, APPLICATION_JSON_TYPE)).isFalse();
+        assertThat(writer.isWriteable(Map.class, Map.class, null, PROMETHEUS_TYPE)).isFalse();
+    }
+
+    @Test
+    public void shouldWriteEndpointMetricsWithLabels() throws Exception {
+        metrics.register("resources/orders/{id}|GET|timer", timer(100, 200, 300, 400));
+        metrics.register("resources/orders/{id}|GET|200", meter(3));
+        metrics.register("resources/orders/{id}|GET|404", meter(1));
+        metrics.register("resources/orders/{id}|GET|SUCCESSFUL", meter(3));
+        metrics.register("resources/orders/{id}|GET|in-flight", new Counter());
+        metrics.register("calls/x\"y|POST|200", meter(2));
+
+        String out = write(PROMETHEUS_TYPE);
+
+        assertThat(out).isEqualTo(""
+                + "# TYPE calls_responses_total counter\n"
+                + "calls_responses_total{path=\"/x\\\"y\",method=\"POST\",status=\"200\"} 2\n"
+                + "# TYPE resources_responses_total counter\n"
+                + "resources_responses_total{path=\"/orders/{id}\",method=\"GET\",status=\"200\"} 3\n"
+                + "resources_responses_total{path=\"/orders/{id}\",method=\"GET\",status=\"404\"} 1\n"
+                + "# TYPE resources_in_flight gauge\n"
+                + "resources_in_flight{path=\"/orders/{id}\",method=\"GET\"} 0\n"
+                + "# TYPE resources_seconds summary\n"
+                + "resources_seconds{path=\"/orders/{id}\",method=\"GET\",quantile=\"0.5\"} 0.25\n"
+                + "resources_seconds{path=\"/orders/{id}\",method=\"GET\",quantile=\"0.75\"} 0.375\n"
+                + "resources_seconds{path=\"/orders/{id}\",method=\"GET\",quantile=\"0.95\"} 0.4\n"
+                + "resources_seconds{path=\"/orders/{id}\",method=\"GET\",quantile=\"0.98\"} 0.4\n"
+                + "resources_seconds{path=\"/orders/{id}\",method=\"GET\",quantile=\"0.99\"} 0.4\n"
+                + "resources_seconds{path=\"/orders/{id}\",method=\"GET\",quantile=\"0.999\"} 0.4\n"
+                + "resources_seconds_sum{path=\"/orders/{id}\",method=\"GET\"} 1.0\n"
+                + "resources_seconds_count{path=\"/orders/{id}\",method=\"GET\"} 4\n");
+        assertThat(headers.getFirst(HttpHeaders.CONTENT_TYPE)).isEqualTo("text/plain; version=0.0.4; charset=utf-8");
+    }
+
+    @Test
+    public void shouldWriteOtherMetricsWithSanitizedNames() throws Exception {
+        metrics.register("jvm.memory.heap-used", (Gauge<Long>) () -> 1234L);
+        metrics.register("jvm.deadlocks", (Gauge<Set<String>>) Collections::emptySet);
+        metrics.register("healthy", (Gauge<Boolean>) () -> true);
+        Histogram histogram = new Histogram(new SlidingWindowReservoir(10));
+        histogram.update(5);
+        metrics.register("9lives", histogram);
+
+        String out = write(PROMETHEUS_TYPE);
+
+        assertThat(out).isEqualTo(""
+                + "# TYPE _9lives summary\n"
+                + "_9lives{quantile=\"0.5\"} 5.0\n"
+                + "_9lives{quantile=\"0.75\"} 5.0\n"
+                + "_9lives{quantile=\"0.95\"} 5.0\n"
+                + "_9lives{quantile=\"0.98\"} 5.0\n"
+                + "_9lives{quantile=\"0.99\"} 5.0\n"
+                + "_9lives{quantile=\"0.999\"} 5.0\n"
+                + "_9lives_sum 5.0\n"
+                + "_9lives_count 1\n"
+                + "# TYPE healthy gauge\n"
+                + "healthy 1.0\n"
+                + "# TYPE jvm_memory_heap_used gauge\n"
+                + "jvm_memory_heap_used 1234.0\n");
+    }
+
+    @Test
+    public void shouldWriteOpenMetrics() throws Exception {
+        metrics.register("resources/__overflow__|dropped", new Counter());
+        metrics.register("resources/__overflow__|timeouts", meter(2));
+
+        String out = write(APPLICATION_OPENMETRICS_TYPE);
+
+        assertThat(out).isEqualTo(""
+                + "# TYPE resources_dropped gauge\n"
+                + "resources_dropped{path=\"/__overflow__\"} 0\n"
+                + "# TYPE resources_timeouts counter\n"
+                + "resources_timeouts_total{path=\"/__overflow__\"} 2\n"
+                + "# EOF\n");
+        assertThat(headers.getFirst(HttpHeaders.CONTENT_TYPE))
+                .isEqualTo("application/openmetrics-text; version=1.0.0; charset=utf-8");
+    }
+
+    @Test
+    public void shouldWriteAgainAfterTypeChanged() throws Exception {
+        metrics.register("foo", new Counter());
+        write(PROMETHEUS_TYPE);
+        metrics.remove("foo");
+        metrics.register("foo", meter(1));
+
+        String out = write(PROMETHEUS_TYPE);
+
+        assertThat(out).isEqualTo("# TYPE foo_total counter\nfoo_total 1\n");
+    }
+
+    @Test
+    public void shouldWriteOnlyFirstOfNamesSanitizedToSameSeries() throws Exception {
+        metrics.register("a.b", new Counter());
+        metrics.register("a_b", new Counter());
+        metrics.register("c", new Counter());
+        metrics.register("c.total", new Counter());
+        metrics.register("c_total", meter(1));
+
+        String out = write(PROMETHEUS_TYPE);
+
+        assertThat(out).isEqualTo(""
+                + "# TYPE a_b gauge\n"
+                + "a_b 0\n"
+                + "# TYPE c gauge\n"
+                + "c 0\n"
+                + "# TYPE c_total gauge\n"
+                + "c_total 0\n");
+    }
+}
@@ -0,0 +1,75 @@
+package com.github.t1.metrics;
+
+import com.codahale.metrics.*;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static java.util.concurrent.TimeUnit.*;
+import static org.assertj.core.api.Assertions.*;
+
+public class SampleBuffersTest {
+    private final Counter dropped = new Counter();
+
+    @Test
+    public void shouldCountExactlyButRecordOnlyWhenDrained() throws Exception {
+        SampleBuffers buffers = new SampleBuffers(1, 8, dropped);
+        EndpointTimer timer = new EndpointTimer(new UniformReservoir(), buffers, null);
+
+        timer.update(1, MILLISECONDS);
+        timer.update(2, MILLISECONDS);
+
+        assertThat(timer.getCount()).isEqualTo(2);
+        assertThat(timer.getSnapshot().getValues()).containsExactly(1_000_000, 2_000_000);
+    }
+
+    @Test
+    public void shouldCountAllButRecordOnlySampledTimings() throws Exception {
+        boolean[] next = { true };
+        EndpointTimer timer = new EndpointTimer(new UniformReservoir(), null, () -> next[0] = !next[0]);
+
+        for (int i = 0; i < 4; i++)
+            timer.time(() -> "done");
+
+        assertThat(timer.getCount()).isEqualTo(4);
+        assertThat(timer.getSnapshot().size()).isEqualTo(2);
+        assertThat(timer.getSampled()).isEqualTo(0.5);
+    }
+
+    @Test
+    public void shouldDropAndCountWhenFull() throws Exception {
+        SampleBuffers buffers = new SampleBuffers(1, 4, dropped);
+        EndpointTimer timer = new EndpointTimer(new UniformReservoir(), buffers, null);
+
+        for (int i = 1; i <= 6; i++)
+            timer.update(i, NANOSECONDS);
+
+        assertThat(timer.getCount()).isEqualTo(6);
+        assertThat(dropped.getCount()).isEqualTo(2);
+        assertThat(timer.getSnapshot().getValues()).containsExactly(1, 2, 3, 4);
+
+        timer.update(7, NANOSECONDS);
+
+        assertThat(timer.getSnapshot().getValues()).containsExactly(1, 2, 3, 4, 7);
+    }
+
+    @Test
+    public void shouldNotLoseSamplesOfConcurrentWriters() throws Exception {
+        SampleBuffers buffers = new SampleBuffers(4, 1024, dropped);
+        EndpointTimer timer = new EndpointTimer(new SlidingWindowReservoir(1_000_000), buffers, null);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++)
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 10_000; i++)
+                    timer.update(1, NANOSECONDS);
+            }));
+        while (!futures.stream().allMatch(Future::isDone))
+            buffers.drain();
+        executor.shutdown();
+
+        assertThat(timer.getCount()).isEqualTo(80_000);
+        assertThat(timer.getSnapshot().size() + dropped.getCount()).isEqualTo(80_000);
+    }
+}
@@ -0,0 +1,123 @@
+package com.github.t1.metrics;
+
+import com.codahale.metrics.*;
+import org.junit.Test;
+
+import java.util.*;
+
+import static java.time.temporal.ChronoUnit.*;
+import static org.assertj.core.api.Assertions.*;
+
+public class StatusMetersTest {
+    private final MockClock clock = new MockClock();
+    private final StatusMeters statuses = new StatusMeters("foo", clock);
+
+    private void mark(int statusCode, int times) {
+        for (int i = 0; i < times; i++)
+            statuses.mark(statusCode);
+    }
+
+    @Test
+    public void shouldReadNothingWithoutMarks() throws Exception {
+        assertThat(statuses.getMeters()).isEmpty();
+    }
+
+    @Test
+    public void shouldCountStatusesAndFamilies() throws Exception {
+        mark(200, 3);
+        mark(201, 2);
+        mark(404, 1);
+        mark(999, 1);
+
+        Map<String, Meter> meters = statuses.getMeters();
+
+        assertThat(meters.keySet()).containsOnly(
+                "foo|200", "foo|201", "foo|404", "foo|SUCCESSFUL", "foo|CLIENT_ERROR", "foo|OTHER");
+        assertThat(meters.get("foo|200").getCount()).isEqualTo(3);
+        assertThat(meters.get("foo|SUCCESSFUL").getCount()).isEqualTo(5);
+        assertThat(meters.get("foo|CLIENT_ERROR").getCount()).isEqualTo(1);
+        assertThat(meters.get("foo|OTHER").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldDeriveRatesLikeMeter() throws Exception {
+        Meter meter = new Meter(clock);
+        mark(200, 30);
+        meter.mark(30);
+        clock.plus(6, SECONDS);
+        statuses.getMeters();
+        meter.getOneMinuteRate();
+        clock.plus(1, MINUTES);
+
+        Meter status = statuses.getMeters().get("foo|200");
+
+        assertThat(status.getOneMinuteRate()).isCloseTo(meter.getOneMinuteRate(), within(1e-9));
+        assertThat(status.getFiveMinuteRate()).isCloseTo(meter.getFiveMinuteRate(), within(1e-9));
+        assertThat(status.getFifteenMinuteRate()).isCloseTo(meter.getFifteenMinuteRate(), within(1e-9));
+        assertThat(status.getMeanRate()).isCloseTo(meter.getMeanRate(), within(1e-9));
+        assertThat(statuses.getMeters().get("foo|SUCCESSFUL").getOneMinuteRate())
+                .isCloseTo(meter.getOneMinuteRate(), within(1e-9));
+    }
+
+    @Test
+    public void shouldGaugeCounts() throws Exception {
+        mark(200, 3);
+        mark(201, 2);
+        mark(999, 1);
+
+        assertThat(statuses.getValue()).containsOnly(
+                entry("200", 3L), entry("201", 2L), entry("SUCCESSFUL", 5L), entry("OTHER", 1L));
+    }
+
+    @Test
+    public void shouldNotifyRegistryListeners() throws Exception {
+        MetricRegistry metrics = new MetricRegistry();
+        List<String> added = new ArrayList<>();
+        metrics.addListener(new MetricRegistryListener.Base() {
+            @Override public void onGaugeAdded(String name, Gauge<?> gauge) { added.add(name); }
+        });
+
+        metrics.register("foo|status", statuses);
+
+        assertThat(added).containsExactly("foo|status");
+    }
+
+    @Test
+    public void shouldNotSpikeWhenReadAfterLongTime() throws Exception {
+        for (int i = 0; i < 60; i++) {
+            mark(500, 1);
+            clock.plus(1, MINUTES);
+        }
+
+        Meter meter = statuses.getMeters().get("foo|500");
+
+        assertThat(meter.getCount()).isEqualTo(60);
+        assertThat(meter.getOneMinuteRate()).isLessThan(1.0 / 60);
+    }
+
+    @Test
+    public void shouldDeriveSameRatesRegardlessOfReads() throws Exception {
+        StatusMeters unread = new StatusMeters("bar", clock);
+        for (int i = 0; i < 10; i++) {
+            mark(200, 10);
+            unread.mark(200);
+            for (int j = 1; j < 10; j++)
+                unread.mark(200);
+            clock.plus(6, SECONDS);
+            statuses.getMeters();
+        }
+
+        assertThat(unread.getMeters().get("bar|200").getOneMinuteRate())
+                .isCloseTo(statuses.getMeters().get("foo|200").getOneMinuteRate(), within(1e-9));
+    }
+
+    @Test
+    public void shouldKnowNamesOfItsMeters() throws Exception {
+        assertThat(statuses.isMeter("foo|200")).isTrue();
+        assertThat(statuses.isMeter("foo|SUCCESSFUL")).isTrue();
+        assertThat(statuses.isMeter("foo|timer")).isFalse();
+        assertThat(statuses.isMeter("foo|999")).isFalse();
+        assertThat(statuses.isMeter("foobar|200")).isFalse();
+        assertThat(statuses.isMeter("foo|status")).isFalse();
+    }
+}
@@ -0,0 +1,53 @@
+package com.github.t1.metrics;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static java.nio.charset.StandardCharsets.*;
+import static org.assertj.core.api.Assertions.*;
+
+public class Utf8SinkTest {
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final Utf8Sink sink = new Utf8Sink(4).reset(out);
+
+    private String written() throws Exception {
+        sink.flush();
+        return new String(out.toByteArray(), UTF_8);
+    }
+
+    @Test
+    public void shouldWriteUnicode() throws Exception {
+        sink.write("a-ä-€-😀");
+
+        assertThat(written()).isEqualTo("a-ä-€-😀");
+    }
+
+    @Test
+    public void shouldWriteBytesLongerThanBuffer() throws Exception {
+        sink.write("ab").write("0123456789".getBytes(UTF_8));
+
+        assertThat(written()).isEqualTo("ab0123456789");
+    }
+
+    @Test
+    public void shouldWriteLongs() throws Exception {
+        for (long value : new long[] { 0, 7, -42, 1234567890123L, Long.MAX_VALUE, Long.MIN_VALUE })
+            sink.write(value).write(" ");
+
+        assertThat(written()).isEqualTo("0 7 -42 1234567890123 9223372036854775807 -9223372036854775808 ");
+    }
+
+    @Test
+    public void shouldWriteDoublesLikeToString() throws Exception {
+        double[] values = { 0.0, -0.0, 9.0, -3.0, 0.5, 8.44290068149477E-6, 1e7, 12345678.0, Double.NaN,
+                Double.POSITIVE_INFINITY };
+        StringBuilder expected = new StringBuilder();
+        for (double value : values) {
+            sink.write(value).write(" ");
+            expected.append(value).append(" ");
+        }
+
+        assertThat(written()).isEqualTo(expected.toString());
+    }
+}